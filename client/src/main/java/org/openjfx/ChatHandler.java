@@ -7,6 +7,7 @@ import static org.openjfx.ProtocolHandler.*;
 
 import org.openjfx.model.Conversation;
 import org.openjfx.model.Message;
+import org.openjfx.model.MessagePage;
 import org.openjfx.model.User;
 import java.io.IOException;
 import java.net.Socket;
@@ -17,6 +18,9 @@ import java.util.regex.Pattern;
 
 public class ChatHandler {
 
+    // Rows asked for per get_users / get_conversations request
+    private static final int LIST_PAGE_SIZE = 100;
+
     private synchronized String sendAndReceive(String json) throws IOException {
         Connection conn = ClientState.getInstance().getConnection();
         if(conn == null) throw new IOException("Not Connected to Server");
@@ -43,7 +47,9 @@ public class ChatHandler {
     }
 
     public LoginResponse login(String username, String password) throws IOException {
-        String request = buildLoginRequest(username, password, "desktop");
+        Connection conn = ClientState.getInstance().getConnection();
+        boolean compress = conn != null && conn.offersCompression();
+        String request = buildLoginRequest(username, password, "desktop", compress);
         String response = sendAndReceive(request);
         return parseLoginResponse(response);
     }
@@ -52,19 +58,28 @@ public class ChatHandler {
     //                     CONVERSATION MANAGEMENT
     // ==================================================================
 
+    // Reads the whole list a page at a time; servers that don't page send it all at once without hasMore
     public List<Conversation> getConversations() throws IOException {
-        String request = buildGetConversationsRequest();
-        String json = sendAndReceive(request);
-
-        ConversationsResponse resp = parseConversationsResponse(json);
         List<Conversation> list = new ArrayList<>();
-        if(!resp.success || resp.conversations == null) return new ArrayList<>();
+        String cursor = null;
+        do {
+            String json = sendAndReceive(buildGetConversationsRequest(LIST_PAGE_SIZE, cursor));
+            ConversationsResponse resp = parseConversationsResponse(json);
+            if(!resp.success || resp.conversations == null) break;
+            parseConversations(resp.conversations, list);
+            cursor = resp.hasMore ? resp.nextCursor : null;
+        } while (cursor != null);
+        return list;
+    }
 
-        // Regex to match conversation object including participants array
-        // {"id":"...","name":"...","isGroup":...,"participants":["...","..."]}
-        String pattern = "\"id\":\"(.*?)\",\\s*\"name\":\"(.*?)\",\\s*\"isGroup\":(true|false),\\s*\"participants\":\\[(.*?)\\]";
+    private static void parseConversations(String conversations, List<Conversation> list) {
+        // Regex to match conversation object including participants array and, from newer servers, the latest message
+        // {"id":"...","name":"...","isGroup":...,"participants":["...","..."],"lastActivity":"...","lastMessage":{"senderId":"...","preview":"...",...}}
+        String pattern = "\"id\":\"(.*?)\",\\s*\"name\":\"(.*?)\",\\s*\"isGroup\":(true|false),\\s*\"participants\":\\[(.*?)\\]"
+                + "(?:,\\s*\"lastActivity\":\"(.*?)\")?"
+                + "(?:,\\s*\"lastMessage\":\\{\"senderId\":\"(.*?)\",\\s*\"preview\":\"((?:[^\"\\\\]|\\\\.)*)\")?";
         Pattern p = Pattern.compile(pattern);
-        Matcher m = p.matcher(resp.conversations);
+        Matcher m = p.matcher(conversations);
 
         while (m.find()) {
             String id = m.group(1);
@@ -73,6 +88,8 @@ public class ChatHandler {
             String participantsJson = m.group(4);
             
             Conversation conv = new Conversation(id, name, isGroup);
+            conv.lastActivity = m.group(5);
+            conv.lastMessagePreview = unescape(m.group(7));
             
             // Parse participants array string: "id1","id2"
             if (participantsJson != null && !participantsJson.isEmpty()) {
@@ -88,23 +105,27 @@ public class ChatHandler {
             
             list.add(conv);
         }
-        return list;
     }
 
     public List<User> getUsers() throws IOException {
-        String request = buildGetUsersRequest();
-        String json = sendAndReceive(request);
-        // System.out.println("getUsers JSON: " + json); // Commented out debug
-
-        UsersResponse resp = parseUsersResponse(json);
         List<User> list = new ArrayList<>();
-        if(!resp.success || resp.users == null) return new ArrayList<>();
+        String cursor = null;
+        do {
+            String json = sendAndReceive(buildGetUsersRequest(LIST_PAGE_SIZE, cursor));
+            UsersResponse resp = parseUsersResponse(json);
+            if(!resp.success || resp.users == null) break;
+            parseUsers(resp.users, list);
+            cursor = resp.hasMore ? resp.nextCursor : null;
+        } while (cursor != null);
+        return list;
+    }
 
+    private static void parseUsers(String users, List<User> list) {
         // Regex to parse user objects in the array
         // {"id":"...","username":"...","displayName":"...","isOnline":true/false}
         String pattern = "\"id\":\"(.*?)\",\\s*\"username\":\"(.*?)\",\\s*\"displayName\":\"(.*?)\",\\s*\"isOnline\":(true|false)";
         Pattern p = Pattern.compile(pattern);
-        Matcher m = p.matcher(resp.users);
+        Matcher m = p.matcher(users);
 
         while (m.find()) {
             String id = m.group(1);
@@ -114,16 +135,18 @@ public class ChatHandler {
             
             list.add(new User(id, username, displayName, isOnline));
         }
-        return list;
     }
 
-    public List<Message> getMessages(String conversationId) throws IOException {
-        String request = buildGetMessagesRequest(conversationId);
+    public MessagePage getMessagePage(String conversationId, int limit, String before, String after) throws IOException {
+        String request = buildGetMessagesRequest(conversationId, limit, before, after);
         String json = sendAndReceive(request);
         
         MessagesResponse resp = parseMessagesResponse(json);
-        List<Message> list = new ArrayList<>();
-        if(!resp.success || resp.messages == null) return new ArrayList<>();
+        MessagePage page = new MessagePage();
+        if(!resp.success || resp.messages == null) return page;
+        page.hasMore = resp.hasMore;
+        page.nextCursor = resp.nextCursor;
+        page.prevCursor = resp.prevCursor;
 
         // Regex for Message object
         // {"id":"...","senderId":"...","content":"...","createdAt":"..."}
@@ -137,9 +160,9 @@ public class ChatHandler {
             String content = m.group(3);
             String createdAt = m.group(4);
             
-            list.add(new Message(id, senderId, content, createdAt));
+            page.messages.add(new Message(id, senderId, content, createdAt));
         }
-        return list;
+        return page;
     }
 
     public Conversation createConversation(String otherUsername, String groupName, String participants) throws IOException {
@@ -3,47 +3,71 @@ package org.openjfx;
 import java.io.*;
 import java.net.Socket;
 
+import org.openjfx.model.Framing;
+
 public class Connection {
 
+  // "length" asks the server for length-prefixed frames; anything else keeps newline JSON
+  private static final String FRAMING = System.getProperty("chat.framing", "newline");
+  // "off" stops the client asking for compressed frames at login
+  private static final String COMPRESSION = System.getProperty("chat.compression", "deflate");
+
   private Socket socket = null;
-  private InputStreamReader inputStreamReader = null;
-  private OutputStreamWriter outputStreamWriter = null;
-  private BufferedReader bufferedReader = null;
-  private BufferedWriter bufferedWriter = null;
+  private Framing framing = null;
 
   public Connection(String IP, int Port) throws IOException {
     this.socket = new Socket(IP, Port);
-    this.inputStreamReader = new InputStreamReader(socket.getInputStream());
-    this.outputStreamWriter = new OutputStreamWriter(socket.getOutputStream());
-    this.bufferedReader = new BufferedReader(inputStreamReader);
-    this.bufferedWriter = new BufferedWriter(outputStreamWriter);
+    this.framing = new Framing(socket.getInputStream(), socket.getOutputStream());
+    if ("length".equals(FRAMING)) {
+      negotiateLengthPrefixed();
+    }
+  }
+
+  /**
+   * Ask the server to switch this connection to length-prefixed frames.
+   * Servers without support answer with an error and the connection stays
+   * newline-delimited.
+   */
+  private void negotiateLengthPrefixed() throws IOException {
+    framing.writeFrame("{\"type\":\"set_framing\",\"mode\":\"length\"}");
+    String response = framing.readHandshakeResponse();
+    if (framing.getMode() == Framing.Mode.LENGTH_PREFIXED) {
+      System.out.println("Connection: Using length-prefixed framing");
+    } else {
+      framing.setMode(Framing.Mode.NEWLINE);
+      System.err.println("Connection: Server kept newline framing: " + response);
+    }
   }
 
   public void disconnect() throws IOException {
-    if (bufferedReader != null)
-      bufferedReader.close();
-    if (bufferedWriter != null)
-      bufferedWriter.close();
-    if (inputStreamReader != null)
-      inputStreamReader.close();
-    if (outputStreamWriter != null)
-      outputStreamWriter.close();
+    if (framing != null)
+      framing.close();
     if (socket != null && !socket.isClosed())
       socket.close();
   }
 
-  public synchronized void send(String message) throws IOException {
-    if (bufferedWriter != null) {
-      bufferedWriter.write(message);
-      bufferedWriter.newLine();
-      bufferedWriter.flush();
+  public void send(String message) throws IOException {
+    if (framing != null) {
+      framing.writeFrame(message);
     }
   }
 
   public String receive() throws IOException {
-    if (bufferedReader != null) {
-      return bufferedReader.readLine();
+    if (framing != null) {
+      return framing.readFrame();
     }
     return null;
   }
+
+  public Framing.Mode getFramingMode() {
+    return framing.getMode();
+  }
+
+  /**
+   * Compressed frames need the length header's flag bit, so compression is
+   * only requested on length-prefixed connections.
+   */
+  public boolean offersCompression() {
+    return framing.getMode() == Framing.Mode.LENGTH_PREFIXED && "deflate".equals(COMPRESSION);
+  }
 }
@@ -15,7 +15,7 @@ public class ProtocolHandler {
     }
 
     // Unescape a JSON string back to normal format.
-    private static String unescape(String s) {
+    static String unescape(String s) {
         if (s == null)
             return null;
         return s.replace("\\\"", "\"").replace("\\\\", "\\").replace("\\n", "\n");
@@ -67,11 +67,18 @@ public class ProtocolHandler {
     }
 
     public static String buildLoginRequest(String username, String password, String device) {
+        return buildLoginRequest(username, password, device, false);
+    }
+
+    public static String buildLoginRequest(String username, String password, String device, boolean compress) {
         String json = "{\"type\":\"login\",\"username\":\"" + escape(username) + "\",\"password\":\"" + escape(password)
                 + "\"";
         if (device != null) {
             json += ",\"device\":\"" + escape(device) + "\"";
         }
+        if (compress) {
+            json += ",\"compress\":\"deflate\"";
+        }
         json += "}";
         return json;
     }
@@ -84,14 +91,47 @@ public class ProtocolHandler {
         return "{\"type\":\"get_users\"}";
     }
 
+    // Page of the user list: the first page without a cursor, then the nextCursor of the previous page
+    public static String buildGetUsersRequest(int limit, String cursor) {
+        return buildPageRequest("get_users", limit, cursor);
+    }
+
     public static String buildGetMessagesRequest(String conversationId) {
         return "{\"type\":\"get_messages\",\"conversationId\":\"" + escape(conversationId) + "\"}";
     }
 
+    // Page of history: newest page without a cursor, older messages with before, newer ones with after
+    public static String buildGetMessagesRequest(String conversationId, int limit, String before, String after) {
+        String json = "{\"type\":\"get_messages\",\"conversationId\":\"" + escape(conversationId)
+                + "\",\"limit\":" + limit;
+        if (before != null) {
+            json += ",\"before\":\"" + escape(before) + "\"";
+        }
+        if (after != null) {
+            json += ",\"after\":\"" + escape(after) + "\"";
+        }
+        json += "}";
+        return json;
+    }
+
     public static String buildGetConversationsRequest() {
         return "{\"type\":\"get_conversations\"}";
     }
 
+    // Page of the conversation list, most recently active first
+    public static String buildGetConversationsRequest(int limit, String cursor) {
+        return buildPageRequest("get_conversations", limit, cursor);
+    }
+
+    private static String buildPageRequest(String type, int limit, String cursor) {
+        String json = "{\"type\":\"" + type + "\",\"limit\":" + limit;
+        if (cursor != null) {
+            json += ",\"cursor\":\"" + escape(cursor) + "\"";
+        }
+        json += "}";
+        return json;
+    }
+
     public static String buildCreateConversationRequest(String otherUsername, String name, String participants) {
         String json = "{\"type\":\"create_conversation\"";
         if (otherUsername != null) {
@@ -177,6 +217,8 @@ public class ProtocolHandler {
 
     public static class UsersResponse extends Response {
         public String users; // JSON array as string
+        public boolean hasMore;
+        public String nextCursor;
     }
 
     public static UsersResponse parseUsersResponse(String json) {
@@ -192,12 +234,17 @@ public class ProtocolHandler {
         } catch (Exception e) {
              System.out.println("Error extracting users array: " + e);
         }
+        resp.hasMore = extractJsonBoolean(json, "hasMore");
+        resp.nextCursor = extractJsonString(json, "nextCursor");
         resp.message = extractJsonString(json, "message");
         return resp;
     }
 
     public static class MessagesResponse extends Response {
         public String messages; // JSON array string
+        public boolean hasMore;
+        public String nextCursor;
+        public String prevCursor;
     }
 
     public static MessagesResponse parseMessagesResponse(String json) {
@@ -212,12 +259,17 @@ public class ProtocolHandler {
         } catch (Exception e) {
              System.out.println("Error extracting messages array: " + e);
         }
+        resp.hasMore = extractJsonBoolean(json, "hasMore");
+        resp.nextCursor = extractJsonString(json, "nextCursor");
+        resp.prevCursor = extractJsonString(json, "prevCursor");
         resp.message = extractJsonString(json, "message");
         return resp;
     }
 
     public static class ConversationsResponse extends Response {
         public String conversations; // JSON array as string, parse separately if needed
+        public boolean hasMore;
+        public String nextCursor;
     }
 
     public static ConversationsResponse parseConversationsResponse(String json) {
@@ -234,6 +286,8 @@ public class ProtocolHandler {
         } catch (Exception e) {
              System.out.println("Error extracting conversations array: " + e);
         }
+        resp.hasMore = extractJsonBoolean(json, "hasMore");
+        resp.nextCursor = extractJsonString(json, "nextCursor");
         resp.message = extractJsonString(json, "message");
         return resp;
     }
@@ -298,6 +352,7 @@ public class ProtocolHandler {
     }
     
     public static class MessageEvent {
+        public String messageId; // absent from servers that predate it
         public String senderId;
         public String content;
         public String conversationId;
@@ -305,6 +360,7 @@ public class ProtocolHandler {
     
     public static MessageEvent parseMessageEvent(String json) {
         MessageEvent evt = new MessageEvent();
+        evt.messageId = extractJsonString(json, "messageId");
         evt.senderId = extractJsonString(json, "senderId");
         evt.content = extractJsonString(json, "content");
         evt.conversationId = extractJsonString(json, "conversationId");
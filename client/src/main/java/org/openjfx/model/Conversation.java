@@ -8,6 +8,8 @@ public class Conversation {
     public String name;
     public boolean isGroup;
     public List<String> participantIds = new ArrayList<>();
+    public String lastActivity;       // null from servers without conversation summaries
+    public String lastMessagePreview; // null if there are no messages yet
 
     public Conversation(String id, String name, boolean isGroup) {
         this.id = id;
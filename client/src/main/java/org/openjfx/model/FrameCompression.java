@@ -0,0 +1,62 @@
+package org.openjfx.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates frames the server deflated after compression was negotiated at
+ * login. Must match the server's FrameCompression: same flag bit, same
+ * preset dictionary.
+ */
+public final class FrameCompression {
+    /** Set in the length header of a frame whose body is deflated. */
+    public static final int COMPRESSED_FLAG = 0x80000000;
+
+    // Copy of the server's dictionary; zlib rejects a frame if they differ
+    static final byte[] DICTIONARY = ("\"isOnline\":false}\"isGroup\":true,"
+            + "{\"type\":\"error\",\"code\":\"server_error\",\"message\":\""
+            + "{\"type\":\"reload_conversations\",\"userId\":\""
+            + "{\"type\":\"status\",\"userId\":\"\",\"isOnline\":true}"
+            + "{\"type\":\"new_conversation\",\"id\":\"\",\"name\":\"\",\"isGroup\":false,\"participants\":[\""
+            + "{\"type\":\"users_response\",\"success\":true,\"users\":[{\"id\":\"\",\"username\":\"\",\"displayName\":\"\",\"isOnline\":false},"
+            + "{\"type\":\"conversations_response\",\"success\":true,\"conversations\":[{\"id\":\"\",\"name\":\"\",\"isGroup\":false,\"participants\":[\"\",\"\"]},"
+            + "{\"type\":\"message\",\"senderId\":\"\",\"content\":\"\",\"conversationId\":\"\"}"
+            + "{\"type\":\"messages_response\",\"success\":true,\"messages\":[{\"id\":\"\",\"senderId\":\"\",\"content\":\"\",\"createdAt\":\"2026-01-01T00:00:00.000000000\"},")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private FrameCompression() {
+    }
+
+    /**
+     * Inflate a compressed frame body.
+     *
+     * @throws IOException if the body is not a valid compressed frame
+     */
+    public static byte[] decompress(byte[] body) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Truncated compressed frame");
+                    }
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed frame: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
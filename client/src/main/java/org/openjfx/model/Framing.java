@@ -1,62 +1,142 @@
 package org.openjfx.model;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Handles TCP frame reading/writing using newline-delimited JSON.
- * 
+ *
  * Since TCP doesn't preserve message boundaries, we use newlines to delimit
  * JSON frames. This allows sending multiple JSON objects over a single stream.
+ * After a set_framing handshake the connection may use length-prefixed frames
+ * instead (see {@link Mode}), whose bodies the server may deflate once
+ * compression is negotiated at login (see {@link FrameCompression}).
  */
 public class Framing {
-    private BufferedReader reader;
-    private PrintWriter writer;
+
+    /**
+     * How frames are delimited on the wire.
+     */
+    public enum Mode {
+        /** Each frame is followed by '\n' (the default). */
+        NEWLINE,
+        /** Each frame is preceded by its length as a 4-byte big-endian integer. */
+        LENGTH_PREFIXED
+    }
+
+    private DataInputStream reader;
+    private BufferedOutputStream writer;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+    private volatile Mode mode = Mode.NEWLINE;
 
     /**
      * Initialize the Framing handler with input/output streams.
-     * 
+     *
      * @param inputStream  Input stream from socket
      * @param outputStream Output stream from socket
      * @throws UnsupportedEncodingException if UTF-8 is not supported
      */
     public Framing(InputStream inputStream, OutputStream outputStream) throws UnsupportedEncodingException {
-        this.reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
-        this.writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"), true);
+        this.reader = new DataInputStream(new BufferedInputStream(inputStream));
+        this.writer = new BufferedOutputStream(outputStream);
+    }
+
+    /**
+     * Switch the delimiting used for frames in both directions.
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
     }
 
     /**
-     * Read a single JSON frame (one line) from the stream.
+     * Read a single JSON frame from the stream.
      * Blocks until a complete frame is available or EOF is reached.
-     * 
+     *
      * @return The JSON string, or null if EOF reached
      * @throws IOException if an I/O error occurs
      */
     public String readFrame() throws IOException {
-        String frame = reader.readLine();
-        if (frame != null) {
-            frame = frame.trim();
+        if (mode == Mode.LENGTH_PREFIXED) {
+            int length;
+            try {
+                length = reader.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            boolean compressed = (length & FrameCompression.COMPRESSED_FLAG) != 0;
+            byte[] frame = new byte[length & ~FrameCompression.COMPRESSED_FLAG];
+            reader.readFully(frame);
+            if (compressed) {
+                frame = FrameCompression.decompress(frame);
+            }
+            return new String(frame, StandardCharsets.UTF_8);
+        }
+
+        line.reset();
+        int b;
+        while ((b = reader.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Read the reply to a set_framing request and adopt the mode it came in.
+     * A server that switched replies length-prefixed; one that does not know
+     * the request replies with a newline-delimited error, whose first byte is
+     * '{' rather than the high byte of a length.
+     *
+     * @return The JSON reply, or null if EOF reached
+     * @throws IOException if an I/O error occurs
+     */
+    public String readHandshakeResponse() throws IOException {
+        reader.mark(1);
+        int first = reader.read();
+        if (first < 0) {
+            return null;
         }
-        return frame;
+        reader.reset();
+        setMode(first == '{' ? Mode.NEWLINE : Mode.LENGTH_PREFIXED);
+        return readFrame();
     }
 
     /**
-     * Write a JSON frame (one line) to the stream.
-     * Automatically appends a newline as a frame delimiter.
-     * 
+     * Write a JSON frame to the stream, delimited according to the current mode.
+     *
      * @param jsonFrame The JSON string to send
+     * @throws IOException if an I/O error occurs
      */
-    public void writeFrame(String jsonFrame) {
-        if (jsonFrame != null) {
-            writer.println(jsonFrame);
-            writer.flush();
+    public synchronized void writeFrame(String jsonFrame) throws IOException {
+        if (jsonFrame == null) {
+            return;
+        }
+        byte[] bytes = jsonFrame.getBytes(StandardCharsets.UTF_8);
+        if (mode == Mode.LENGTH_PREFIXED) {
+            writer.write(bytes.length >>> 24);
+            writer.write(bytes.length >>> 16);
+            writer.write(bytes.length >>> 8);
+            writer.write(bytes.length);
+            writer.write(bytes);
+        } else {
+            writer.write(bytes);
+            writer.write('\n');
         }
+        writer.flush();
     }
 
     /**
@@ -80,11 +160,11 @@ public class Framing {
 
     /**
      * Check if the reader is ready (has data available).
-     * 
+     *
      * @return true if data is available to read
      * @throws IOException if an I/O error occurs
      */
     public boolean isReady() throws IOException {
-        return reader.ready();
+        return reader.available() > 0;
     }
 }
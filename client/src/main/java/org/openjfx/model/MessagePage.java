@@ -0,0 +1,17 @@
+package org.openjfx.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of a conversation's history, oldest message first.
+ */
+public class MessagePage {
+    public List<Message> messages = new ArrayList<>();
+    // Whether the server cut the page short at the limit
+    public boolean hasMore;
+    // Continues in the direction the page was read (older for "before", newer for "after")
+    public String nextCursor;
+    // Goes the other way from this page
+    public String prevCursor;
+}
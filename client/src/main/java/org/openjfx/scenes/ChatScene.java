@@ -2,9 +2,11 @@ package org.openjfx.scenes;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -29,6 +31,7 @@ import org.openjfx.ChatHandler;
 import org.openjfx.ClientState;
 import org.openjfx.model.Conversation;
 import org.openjfx.model.Message;
+import org.openjfx.model.MessagePage;
 import java.io.IOException;
 import org.openjfx.Connection;
 import org.openjfx.ProtocolHandler;
@@ -121,6 +124,7 @@ public class ChatScene extends Scene {
         int unreadCount;  // Number of unread messages to display as a badge
         boolean isGroup;  // True if this is a group chat
         boolean isOnline; // Only relevant for 1-on-1 chats
+        String lastMessagePreview; // Latest message for the subtitle; null if none
         List<User> participants;
 
         public Contact(String id, String name, String colorHex, Image image,
@@ -179,6 +183,15 @@ public class ChatScene extends Scene {
             = new ArrayList<>(); // List of all active conversations
     // Removed mockAllUsers usage, will fetch dynamically
     private String currentConversationId = null; // ID of the currently open chat
+    // History of the open chat is loaded a page at a time; the cursors mark the loaded range
+    private static final int MESSAGE_PAGE_SIZE = 50;
+    private String olderMessagesCursor = null; // null once the oldest message is shown
+    private String newerMessagesCursor = null;
+    // Pushed messages are shown without moving newerMessagesCursor, so the
+    // next loadNewerMessages returns them again; their IDs let it skip them
+    private final Set<String> shownMessageIds = new HashSet<>();
+    private Button loadEarlierButton;
+    private boolean scrollToBottom = true; // false while older messages are prepended
     private UserProfile myProfile;               // The current user
     private final ChatHandler chatHandler = new ChatHandler();
 
@@ -242,6 +255,7 @@ public class ChatScene extends Scene {
 
             for (Conversation conv : conversations) {
                 Contact c = new Contact(conv.id, conv.name, getNameColor(conv.name), null, conv.isGroup, false);
+                c.lastMessagePreview = conv.lastMessagePreview;
 
                 // Populate participants
                 for (String pid : conv.participantIds) {
@@ -351,6 +365,9 @@ public class ChatScene extends Scene {
                     }
                 }
             }
+            if (evt.messageId != null && !shownMessageIds.add(evt.messageId)) {
+                return; // Already shown by a history page
+            }
             if (sender != null) {
                 addMessage(evt.content, sender.displayName, sender.id.equals(ClientState.getInstance().getCurrentUserId()));
             }
@@ -1184,8 +1201,9 @@ public class ChatScene extends Scene {
             VBox infoBox = new VBox(2);
             Label nameLabel = new Label(contact.name);
             nameLabel.getStyleClass().add("contact-name");
-            Label subLabel
-                    = new Label(contact.isGroup ? "Group Chat" : "One-to-One Conversation");
+            Label subLabel = new Label(contact.lastMessagePreview != null
+                    ? contact.lastMessagePreview.replace('\n', ' ')
+                    : contact.isGroup ? "Group Chat" : "One-to-One Conversation");
             subLabel.getStyleClass().add("contact-sub");
             infoBox.getChildren().addAll(nameLabel, subLabel);
             HBox.setHgrow(infoBox, Priority.ALWAYS);
@@ -1326,6 +1344,16 @@ public class ChatScene extends Scene {
         chatScrollPane.getStyleClass().add("scroll-pane-clean");
         chatScrollPane.setFitToWidth(true);
         VBox.setVgrow(chatScrollPane, Priority.ALWAYS);
+        chatArea.heightProperty().addListener((o, old, n) -> {
+            if (scrollToBottom) {
+                chatScrollPane.setVvalue(1.0);
+            }
+        });
+
+        loadEarlierButton = new Button("Load earlier messages");
+        loadEarlierButton.getStyleClass().add("simple-btn");
+        loadEarlierButton.setMaxWidth(Double.MAX_VALUE);
+        loadEarlierButton.setOnAction(e -> loadEarlierMessages());
 
         inputArea = createInputArea();
         inputArea.setVisible(true);
@@ -1451,10 +1479,10 @@ public class ChatScene extends Scene {
                             System.err.println("Cannot send DM: Recipient not found in contact.");
                         }
                     }
-                    // After sending, reload messages on the JavaFX Application Thread
+                    // After sending, fetch the new messages on the JavaFX Application Thread
                     Platform.runLater(() -> {
                         if (convId.equals(currentConversationId)) { // Ensure chat is still open
-                            reloadMessages(convId);
+                            loadNewerMessages(convId);
                         }
                     });
                 } catch (IOException e) {
@@ -1465,40 +1493,110 @@ public class ChatScene extends Scene {
     }
 
     /**
-     * Fetches messages for a conversation from the server and renders them.
+     * Fetches the newest page of a conversation from the server and renders it.
      * This should be called on the JavaFX Application thread if it's updating the UI.
      * To be safe, it clears the chat area before loading.
      */
     private void reloadMessages(String conversationId) {
         chatArea.getChildren().clear();
+        olderMessagesCursor = null;
+        newerMessagesCursor = null;
+        shownMessageIds.clear();
         try {
             Contact contact = allContacts.stream().filter(c -> c.id.equals(conversationId)).findFirst().orElse(null);
             if (contact == null) return;
 
-            List<Message> messages = chatHandler.getMessages(conversationId);
-            String myId = ClientState.getInstance().getCurrentUserId();
+            MessagePage page = chatHandler.getMessagePage(conversationId, MESSAGE_PAGE_SIZE, null, null);
+            for (Message m : page.messages) {
+                shownMessageIds.add(m.id);
+                addMessage(m.content, senderName(contact, m), isMine(m));
+            }
+            newerMessagesCursor = page.prevCursor;
+            olderMessagesCursor = page.hasMore ? page.nextCursor : null;
+            if (olderMessagesCursor != null) {
+                chatArea.getChildren().add(0, loadEarlierButton);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            for (Message m : messages) {
-                boolean isMe = m.senderId.equals(myId);
-                String senderName = "Unknown";
-                if (isMe) {
-                    senderName = "You";
-                } else {
-                    // Find sender name in participants
-                    for (User u : contact.participants) {
-                        if (u.id.equals(m.senderId)) {
-                            senderName = u.displayName;
-                            break;
-                        }
+    /**
+     * Appends the messages newer than the ones shown, e.g. after sending one.
+     */
+    private void loadNewerMessages(String conversationId) {
+        if (newerMessagesCursor == null) {
+            reloadMessages(conversationId);
+            return;
+        }
+        try {
+            Contact contact = allContacts.stream().filter(c -> c.id.equals(conversationId)).findFirst().orElse(null);
+            if (contact == null) return;
+
+            MessagePage page;
+            do {
+                page = chatHandler.getMessagePage(conversationId, MESSAGE_PAGE_SIZE, null, newerMessagesCursor);
+                for (Message m : page.messages) {
+                    if (!shownMessageIds.add(m.id)) {
+                        continue; // Pushed while the chat was open
                     }
+                    addMessage(m.content, senderName(contact, m), isMine(m));
+                }
+                if (page.nextCursor != null) {
+                    newerMessagesCursor = page.nextCursor;
                 }
-                addMessage(m.content, senderName, isMe);
+            } while (page.hasMore);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Prepends the page before the oldest message shown, keeping the view
+     * where it is.
+     */
+    private void loadEarlierMessages() {
+        String conversationId = currentConversationId;
+        if (conversationId == null || olderMessagesCursor == null) return;
+        try {
+            Contact contact = allContacts.stream().filter(c -> c.id.equals(conversationId)).findFirst().orElse(null);
+            if (contact == null) return;
+
+            MessagePage page = chatHandler.getMessagePage(conversationId, MESSAGE_PAGE_SIZE, olderMessagesCursor, null);
+            scrollToBottom = false;
+            chatArea.getChildren().remove(loadEarlierButton);
+            List<HBox> bubbles = new ArrayList<>();
+            for (Message m : page.messages) {
+                shownMessageIds.add(m.id);
+                bubbles.add(createMessageBubble(m.content, senderName(contact, m), isMine(m)));
+            }
+            chatArea.getChildren().addAll(0, bubbles);
+            olderMessagesCursor = page.hasMore ? page.nextCursor : null;
+            if (olderMessagesCursor != null) {
+                chatArea.getChildren().add(0, loadEarlierButton);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private boolean isMine(Message m) {
+        return m.senderId.equals(ClientState.getInstance().getCurrentUserId());
+    }
+
+    private String senderName(Contact contact, Message m) {
+        if (isMine(m)) {
+            return "You";
+        }
+        // Find sender name in participants
+        for (User u : contact.participants) {
+            if (u.id.equals(m.senderId)) {
+                return u.displayName;
+            }
+        }
+        return "Unknown";
+    }
+
     /**
      * Adds a message bubble to the chat area. Handles styling distinctions
      * between sent/received messages and sender name display.
@@ -1512,6 +1610,14 @@ public class ChatScene extends Scene {
     private void addMessage(String text, String senderName, boolean isSentByMe) {
         System.out.println("Adding message: " + text + " | From: " + senderName
                 + " | SentByMe: " + isSentByMe);
+        scrollToBottom = true;
+        chatArea.getChildren().add(createMessageBubble(text, senderName, isSentByMe));
+    }
+
+    /**
+     * Builds a message bubble without adding it to the chat area.
+     */
+    private HBox createMessageBubble(String text, String senderName, boolean isSentByMe) {
         HBox messageBox = new HBox();
         messageBox.setPadding(new Insets(2, 0, 2, 0));
 
@@ -1559,10 +1665,7 @@ public class ChatScene extends Scene {
 
         bubbleContainer.getChildren().add(messageLabel);
         messageBox.getChildren().add(bubbleContainer);
-
-        chatArea.getChildren().add(messageBox);
-        chatArea.heightProperty().addListener(
-                (o, old, n) -> chatScrollPane.setVvalue(1.0));
+        return messageBox;
     }
 
     /**
@@ -4,16 +4,44 @@ public class App {
 
     public static void main(String[] args) {
 
-        SQLiteDatabase db = new SQLiteDatabase();
+        // -Dchat.transport=thread_pool falls back to one thread per connection,
+        // -Dchat.transport=virtual uses one virtual thread per connection (JDK 21+)
+        Server.Transport transport = Server.Transport.valueOf(
+                System.getProperty("chat.transport", "nio").toUpperCase());
+
+        // The SQLite driver runs queries in synchronized native code, which pins
+        // a virtual thread to its carrier. Keep the reader connections below the
+        // carrier count so queries never pin every carrier; writes run on the
+        // writer's own platform thread, and threads waiting for a pooled
+        // connection or a write park without pinning.
+        int readerConnections = SQLiteDatabase.DEFAULT_POOL_SIZE;
+        if (transport == Server.Transport.VIRTUAL) {
+            readerConnections = Math.min(readerConnections,
+                    Math.max(1, Runtime.getRuntime().availableProcessors() - 2));
+        }
+        SQLiteDatabase db = new SQLiteDatabase(readerConnections);
 
         User.initialize(db);
         UserSession.initialize(db);
         Conversation.initialize(db);
         ConversationParticipant.initialize(db);
         ConversationManager.initialize(db);
-        Message.initialize(db);
+        // -Dchat.message.store picks where messages are kept; see the README
+        MessageStore messageStore = MessageStore.fromSystemProperties(db);
+        Message.initializeStore(messageStore);
+        // The full-text index is kept with the MESSAGES table
+        MessageSearch.initialize(messageStore.inDatabase() ? db : null);
+
+        try {
+            UserSession.deleteExpired(System.currentTimeMillis());
+        } catch (java.sql.SQLException e) {
+            // Already logged; expired sessions are also rejected when used
+        }
+
+        Server server = new Server(5001, transport);
 
-        Server server = new Server(5001);
+        // -Dchat.metrics.interval=N prints server metrics every N seconds
+        Metrics.startReporter(Long.getLong("chat.metrics.interval", 0L));
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
         public void run() {
@@ -21,6 +49,8 @@ public class App {
                 Thread.sleep(200);
                 System.out.printf("\nShutting down ...\n");
                 server.shutdown();
+                messageStore.close();
+                db.close();
 
             } catch (Exception e) {
                 Thread.currentThread().interrupt();
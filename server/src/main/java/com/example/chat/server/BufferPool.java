@@ -0,0 +1,104 @@
+package com.example.chat.server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of fixed-size heap buffers for socket reads and writes.
+ *
+ * Connections borrow a buffer only while bytes are being read or written and
+ * hand it back as soon as it is drained, so an idle connection holds no I/O
+ * buffer at all. Memory then follows the number of busy connections rather
+ * than the number of open ones.
+ *
+ * A buffer released while the pool is full is left to the garbage collector.
+ */
+public final class BufferPool {
+    /** Shared by the stream transports. */
+    static final BufferPool IO = new BufferPool(
+            Integer.getInteger("chat.buffer.size", 8192),
+            Integer.getInteger("chat.buffer.pool.max", 1024));
+
+    static {
+        Metrics.register("buffers", IO::stats);
+    }
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return A cleared buffer; give it back with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquire() {
+        acquired.incrementAndGet();
+        highWaterMark.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(bufferSize);
+        }
+        pooled.decrementAndGet();
+        hits.incrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire()}. It must not be used
+     * afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        inUse.decrementAndGet();
+        buffer.clear();
+        if (pooled.incrementAndGet() <= maxPooled) {
+            pool.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return Buffers currently borrowed
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return Most buffers ever borrowed at the same time
+     */
+    public int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * @return Share of acquisitions served from the pool, 0 to 1
+     */
+    public double getHitRate() {
+        long count = acquired.get();
+        return count == 0 ? 0 : (double) hits.get() / count;
+    }
+
+    String stats() {
+        return "acquired=" + acquired.get() + " hit_rate=" + String.format("%.2f", getHitRate())
+                + " in_use=" + inUse.get() + " high_water=" + highWaterMark.get()
+                + " pooled=" + pooled.get() + " buffer_bytes=" + bufferSize;
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * JSON framing over a non-blocking SocketChannel.
+ *
+ * Reads and writes are driven by the owning {@link EventLoop}: inbound bytes
+ * are decoded into frames and handed to the ClientHandler, and outbound frames
+ * wait in the bounded outbound queue until the channel is writable. writeFrame()
+ * and enqueue() may be called from any thread and never block; responses that
+ * overflow the queue disconnect the client.
+ *
+ * Inbound frames are bounded too: once MAX_PENDING_FRAMES decoded frames wait
+ * for the handler, the loop stops reading the channel until half of them are
+ * handled, so a client that sends faster than it is served fills its own
+ * socket buffer rather than the server's heap.
+ */
+public class ChannelFraming extends Framing {
+    // Frames gathered into one write() call
+    private static final int MAX_FRAMES_PER_WRITE = 64;
+    // Decoded frames that may wait for the handler before reading pauses
+    static final int MAX_PENDING_FRAMES = Integer.getInteger("chat.inbound.max.pending", 64);
+    static final int RESUME_PENDING_FRAMES = MAX_PENDING_FRAMES / 2;
+
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private final List<String> decodedFrames = new ArrayList<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private volatile boolean closing = false;
+    private ClientHandler handler;
+    private SelectionKey key;
+    // Loop thread only: OP_READ is off until the handler catches up
+    private boolean readPaused = false;
+
+    // Frames being written, loop thread only: batch[batchStart..batchEnd) still has bytes left.
+    // Each frame takes two slots, its payload and its delimiter or length header.
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_FRAMES_PER_WRITE * 2];
+    private int batchStart = 0;
+    private int batchEnd = 0;
+
+    public ChannelFraming(SocketChannel channel, EventLoop eventLoop) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Called on the loop thread once the connection is handed to the loop.
+     */
+    void register(Selector selector, ClientHandler handler) throws IOException {
+        this.handler = handler;
+        channel.configureBlocking(false);
+        this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        flush();
+    }
+
+    /**
+     * Read what is available, decode complete frames and pass them on.
+     */
+    void onReadable(ByteBuffer readBuffer) {
+        try {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                closeNow();
+                return;
+            }
+            readBuffer.flip();
+            while (true) {
+                FrameDecoder.FrameTooLargeException tooLarge = null;
+                try {
+                    decoder.decode(readBuffer, decodedFrames);
+                } catch (FrameDecoder.FrameTooLargeException e) {
+                    tooLarge = e;
+                }
+                for (String frame : decodedFrames) {
+                    handler.onFrame(frame);
+                }
+                decodedFrames.clear();
+                if (tooLarge == null) {
+                    break;
+                }
+                // Reported in order with the frames around it; decoding resumes after it
+                handler.onFrameTooLarge(tooLarge.getMessage());
+            }
+            if (!readPaused && handler.pendingFrames() >= MAX_PENDING_FRAMES) {
+                readPaused = true;
+                updateInterest();
+            }
+        } catch (IOException | IllegalStateException e) {
+            closeNow();
+        } finally {
+            decodedFrames.clear();
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * Called by the handler once its backlog has drained to
+     * RESUME_PENDING_FRAMES, from any thread.
+     */
+    void resumeReading() {
+        eventLoop.execute(() -> {
+            if (readPaused && !closed.get() && handler.pendingFrames() <= RESUME_PENDING_FRAMES) {
+                readPaused = false;
+                updateInterest();
+            }
+        });
+    }
+
+    /**
+     * Ask the selector for reads unless they are paused, and for writes while
+     * part of a batch is still unwritten. Loop thread only.
+     */
+    private void updateInterest() {
+        int ops = readPaused ? 0 : SelectionKey.OP_READ;
+        if (batchStart < batchEnd) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Switch modes on the loop thread, which owns the decoder. Frames queued
+     * after this call are written in the new mode.
+     */
+    @Override
+    public void setMode(Mode mode) {
+        eventLoop.execute(() -> {
+            decoder.setMode(mode);
+            writeMode = mode;
+        });
+    }
+
+    /**
+     * Queue an encoded JSON response for sending. The delimiter or length
+     * header is added when the frame is written.
+     */
+    @Override
+    public void writeFrame(byte[] frame, int offset, int length) {
+        if (!enqueue(OutboundFrame.response(Arrays.copyOfRange(frame, offset, offset + length)))) {
+            System.err.println("ChannelFraming: Outbound queue overflow, disconnecting client");
+            abort();
+        }
+    }
+
+    @Override
+    public boolean enqueue(OutboundFrame frame) {
+        if (closing || closed.get()) {
+            return true;
+        }
+        if (outbound.offer(frame) == OutboundQueue.Result.OVERFLOW) {
+            return false;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (FLUSH_DELAY_NANOS > 0) {
+                // Let frames arriving within the deadline share one write
+                eventLoop.schedule(this::flush, FLUSH_DELAY_NANOS);
+            } else {
+                eventLoop.execute(this::flush);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write queued frames with gathering writes, up to MAX_FRAMES_PER_WRITE
+     * frames per syscall.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (key == null || closed.get()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (batchStart == batchEnd) {
+                    batchStart = 0;
+                    batchEnd = 0;
+                    OutboundFrame frame;
+                    while (batchEnd < batch.length && (frame = outbound.poll()) != null) {
+                        byte[] payload = frame.getPayload();
+                        if (writeMode == Mode.LENGTH_PREFIXED) {
+                            byte[] compressed = compressedPayload(frame);
+                            if (compressed != null) {
+                                FrameCompression.recordWrite(payload.length, compressed.length);
+                                payload = compressed;
+                            }
+                            batch[batchEnd++] = delimiter(payload.length, compressed != null);
+                            batch[batchEnd++] = ByteBuffer.wrap(payload);
+                        } else {
+                            batch[batchEnd++] = ByteBuffer.wrap(payload);
+                            batch[batchEnd++] = delimiter(payload.length, false);
+                        }
+                    }
+                    if (batchEnd == 0) {
+                        break;
+                    }
+                    recordFlush(batchEnd / 2);
+                }
+                channel.write(batch, batchStart, batchEnd - batchStart);
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    // Socket buffer is full; resume when the channel is writable again.
+                    updateInterest();
+                    return;
+                }
+            }
+            updateInterest();
+            if (closing) {
+                closeNow();
+            }
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    /**
+     * Close gracefully: frames already queued are written first.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        eventLoop.execute(this::flush);
+    }
+
+    /**
+     * Close without writing what is still queued (slow consumers).
+     */
+    void abort() {
+        eventLoop.execute(this::closeNow);
+    }
+
+    /**
+     * Close the channel immediately and notify the handler. Loop thread only.
+     */
+    void closeNow() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        Arrays.fill(batch, null);
+        batchStart = 0;
+        batchEnd = 0;
+        outbound.clear();
+        if (handler != null) {
+            handler.onDisconnect();
+        }
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+}
@@ -2,118 +2,240 @@ package com.example.chat.server;
 
 import java.net.Socket;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClientHandler implements Runnable {
 
     private java.net.Socket socket;
     private Framing framing;
     private volatile boolean running = true;
+    private final AtomicBoolean cleanedUp = new AtomicBoolean(false);
+
+    // Set for connections served by an EventLoop instead of a dedicated thread
+    private ChannelFraming channelFraming = null;
+    private Executor frameExecutor = null;
+    // Frames handed over by the EventLoop and not yet handled
+    private final AtomicInteger pendingFrames = new AtomicInteger();
+
+    // Drains the outbound queue of a thread-per-connection client
+    private Executor writerExecutor = null;
 
     private String userId = null;
     private String sessionToken = null;
 
-    public ClientHandler(java.net.Socket socket) {
+    public ClientHandler(java.net.Socket socket, Executor writers) {
         this.socket = socket;
+        this.writerExecutor = writers;
+    }
+
+    public ClientHandler(ChannelFraming channelFraming, Executor workers) {
+        this.socket = channelFraming.getChannel().socket();
+        this.framing = channelFraming;
+        this.channelFraming = channelFraming;
+        this.frameExecutor = new SerialExecutor(workers);
     }
 
     @Override
     public void run() {
         try {
-            framing = new Framing(socket.getInputStream(), socket.getOutputStream());
-
-            String frame;
-            while(running && (frame = framing.readFrame()) != null) {
-                if(frame.isEmpty()) {
-                    System.out.println("3omda");
+            StreamFraming streamFraming = new StreamFraming(socket.getInputStream(), socket.getOutputStream(), writerExecutor);
+            framing = streamFraming;
+
+            while(running) {
+                String frame;
+                try {
+                    frame = streamFraming.readFrame();
+                } catch(FrameDecoder.FrameTooLargeException e) {
+                    ProtocolParser.sendError("frame_too_large", e.getMessage(), framing);
                     continue;
                 }
+                if(frame == null) {
+                    break;
+                }
+                handleFrame(frame);
+            }
+            running = false;
+            Server.removeClient(this);
+        }
+        catch(Exception e) {
+            System.err.println("ClientHandler error: " + e.getMessage());
+        }
+        finally {
+            cleanup();
+        }
+        
+    }
 
-                String type = ProtocolParser.extractJsonString(frame, "type");
-                if(type == null) {
-                    ProtocolParser.sendError("invalid_protocol", "Missing 'type' field", framing);
-                    continue;
+    /**
+     * Called by the EventLoop for every decoded frame of an evented connection.
+     * Frames are handled on the worker pool, one at a time and in arrival order.
+     */
+    void onFrame(String frame) {
+        executeFrame(() -> {
+            if(!running) return;
+            try {
+                handleFrame(frame);
+            }
+            catch(Exception e) {
+                System.err.println("ClientHandler error: " + e.getMessage());
+            }
+            if(!running) {
+                Server.removeClient(this);
+                cleanup();
+            }
+        });
+    }
+
+    /**
+     * Called by the EventLoop when the client sent a frame over the size limit.
+     * The frame was skipped; the connection stays open.
+     */
+    void onFrameTooLarge(String message) {
+        executeFrame(() -> {
+            if(running) {
+                ProtocolParser.sendError("frame_too_large", message, framing);
+            }
+        });
+    }
+
+    /**
+     * Queue the handling of one inbound frame, counting it until it is done so
+     * the EventLoop can stop reading while too many are waiting.
+     */
+    private void executeFrame(Runnable task) {
+        pendingFrames.incrementAndGet();
+        frameExecutor.execute(() -> {
+            try {
+                task.run();
+            }
+            finally {
+                if(pendingFrames.decrementAndGet() == ChannelFraming.RESUME_PENDING_FRAMES) {
+                    channelFraming.resumeReading();
                 }
+            }
+        });
+    }
 
-                switch(type) {
-                    case "login":
-                        handleLogin(frame);
-                        break;
+    /**
+     * @return Inbound frames of an evented connection that are not handled yet
+     */
+    int pendingFrames() {
+        return pendingFrames.get();
+    }
 
-                    case "logout":
-                        handleLogout(frame);
-                        break;
+    /**
+     * Called by the EventLoop once the channel of an evented connection is closed.
+     */
+    void onDisconnect() {
+        frameExecutor.execute(() -> {
+            running = false;
+            Server.removeClient(this);
+            cleanup();
+        });
+    }
 
-                    case "7ekey":
-                        ProtocolParser.sendRaw("{\"type\":\"mekey\"}", framing);
-                        break;
+    private void handleFrame(String frame) {
+        if(frame.isEmpty()) {
+            System.out.println("3omda");
+            return;
+        }
 
-                    case "register":
-                        handleRegister(frame);
-                        break;
+        JsonObject request;
+        try {
+            request = JsonParser.parseObject(frame);
+        } catch (IllegalArgumentException e) {
+            ProtocolParser.sendError("invalid_protocol", "Malformed JSON: " + e.getMessage(), framing);
+            return;
+        }
 
-                    case "get_conversations":
-                        handleGetConversations(frame);
-                        break;
+        String type = request.getString("type");
+        if(type == null) {
+            ProtocolParser.sendError("invalid_protocol", "Missing 'type' field", framing);
+            return;
+        }
 
-                    case "get_users":
-                        handleGetUsers(frame);
-                        break;
+        switch(type) {
+            case "login":
+                handleLogin(request);
+                break;
 
-                    case "get_messages":
-                        handleGetMessages(frame);
-                        break;
+            case "logout":
+                handleLogout(request);
+                break;
 
-                    case "create_conversation":
-                        handleCreateConversation(frame);
-                        break;
+            case "7ekey":
+                try(JsonWriter json = JsonWriter.obtain()) {
+                    json.beginObject().field("type", "mekey").endObject();
+                    ProtocolParser.sendRaw(json, framing);
+                }
+                break;
 
-                    case "add_participant":
-                        handleAddParticipant(frame);
-                        break;
+            case "register":
+                handleRegister(request);
+                break;
 
-                    case "remove_participant":
-                        handleRemoveParticipant(frame);
-                        break;
+            case "set_framing":
+                handleSetFraming(request);
+                break;
 
-                    case "reload_conversations":
-                        handleReloadConversations(frame);
-                        break;
+            case "get_conversations":
+                handleGetConversations(request);
+                break;
 
-                    case "send_dm":
-                        handleSendDmMessage(frame);
-                        break;
+            case "get_users":
+                handleGetUsers(request);
+                break;
 
-                    case "send_group":
-                        handleSendGroupMessage(frame);
-                        break;
+            case "get_messages":
+                handleGetMessages(request);
+                break;
 
-                    case "exit":
-                        handleExit(frame);
-                        break;
+            case "search_messages":
+                handleSearchMessages(request);
+                break;
 
-                    default:
-                        ProtocolParser.sendError("unknown_command", "Unknown command type: " + type, framing);
-                        break;
-                }
-            }
-            running = false;
-            Server.removeClient(this);
-        }
-        catch(Exception e) {
-            System.err.println("ClientHandler error: " + e.getMessage());
-        }
-        finally {
-            cleanup();
+            case "create_conversation":
+                handleCreateConversation(request);
+                break;
+
+            case "add_participant":
+                handleAddParticipant(request);
+                break;
+
+            case "remove_participant":
+                handleRemoveParticipant(request);
+                break;
+
+            case "reload_conversations":
+                handleReloadConversations(request);
+                break;
+
+            case "send_dm":
+                handleSendDmMessage(request);
+                break;
+
+            case "send_group":
+                handleSendGroupMessage(request);
+                break;
+
+            case "exit":
+                handleExit(request);
+                break;
+
+            default:
+                ProtocolParser.sendError("unknown_command", "Unknown command type: " + type, framing);
+                break;
         }
-        
     }
 
-    private void handleLogin(String frame) {
-        String username = ProtocolParser.extractJsonString(frame, "username");
-        String password = ProtocolParser.extractJsonString(frame, "password");
-        String device = ProtocolParser.extractJsonString(frame, "device");
+    private void handleLogin(JsonObject frame) {
+        String username = frame.getString("username");
+        String password = frame.getString("password");
+        String device = frame.getString("device");
 
         if(username == null || password == null) {
             ProtocolParser.sendError("invalid_args", "'username' and 'password' required", framing);
@@ -129,14 +251,28 @@ public class ClientHandler implements Runnable {
                 
                 // Register this client connection with the messaging manager
                 MessagingManager.registerClient(res.userId, this);
-                
-                ProtocolParser.sendRaw("{\"type\":\"login_response\", \"success\":true, \"userId\":\"" + ProtocolParser.escape(res.userId)
-                        + "\",\"sessionToken\":\"" + ProtocolParser.escape(res.sessionToken)
-                        + "\",\"displayName\":\"" + ProtocolParser.escape(res.displayName)
-                        + "\",\"email\":\"" + ProtocolParser.escape(res.email) + "\"}", framing);
+
+                // Large frames are deflated from here on if the client asked and the framing allows it
+                boolean compress = "deflate".equals(frame.getString("compress"))
+                    && FrameCompression.ENABLED && framing.enableCompression();
+
+                try(JsonWriter json = JsonWriter.obtain()) {
+                    json.beginObject()
+                        .field("type", "login_response")
+                        .field("success", true)
+                        .field("userId", res.userId)
+                        .field("sessionToken", res.sessionToken)
+                        .field("displayName", res.displayName)
+                        .field("email", res.email);
+                    if(compress) {
+                        json.field("compression", "deflate");
+                    }
+                    json.endObject();
+                    ProtocolParser.sendRaw(json, framing);
+                }
 
             } else {
-                ProtocolParser.sendRaw("{\"type\":\"login_response\",\"success\":false,\"message\":\"" + ProtocolParser.escape(res.message) + "\"}", framing);
+                sendFailure("login_response", res.message);
             }
         }
         catch (java.sql.SQLException e) {
@@ -144,8 +280,8 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void handleLogout(String frame) {
-        String username = ProtocolParser.extractJsonString(frame, "username");
+    private void handleLogout(JsonObject frame) {
+        String username = frame.getString("username");
         if(username == null && this.sessionToken == null) {
             ProtocolParser.sendError("invalid_args", "username required", framing);
             return;
@@ -159,15 +295,15 @@ public class ClientHandler implements Runnable {
         // String toEnd = username != null ? username : this.sessionToken;
         SessionManager sm = new SessionManager();
         boolean ok = sm.endSessionByUsername(username);
-        ProtocolParser.sendRaw("{\"type\":\"logout_response\",\"success\":" + ok + "}", framing);
+        sendResult("logout_response", ok);
         running = false;
     }
 
-    private void handleRegister(String frame) {
-        String username = ProtocolParser.extractJsonString(frame, "username");
-        String password = ProtocolParser.extractJsonString(frame, "password");
-        String displayName = ProtocolParser.extractJsonString(frame, "displayName");
-        String email = ProtocolParser.extractJsonString(frame, "email");
+    private void handleRegister(JsonObject frame) {
+        String username = frame.getString("username");
+        String password = frame.getString("password");
+        String displayName = frame.getString("displayName");
+        String email = frame.getString("email");
 
         if(username == null || password == null || displayName == null) {
             ProtocolParser.sendError("invalid_args", "'username', 'password', and 'displayName' required", framing);
@@ -178,118 +314,284 @@ public class ClientHandler implements Runnable {
         AuthManager.AuthResult res = auth.registerUser(username, password, displayName, email != null ? email : "");
 
         if(res.success) {
-            ProtocolParser.sendRaw("{\"type\":\"register_response\",\"success\":true,\"userId\":\"" + ProtocolParser.escape(res.userId) + "\"}", framing);
+            try(JsonWriter json = JsonWriter.obtain()) {
+                json.beginObject()
+                    .field("type", "register_response")
+                    .field("success", true)
+                    .field("userId", res.userId)
+                    .endObject();
+                ProtocolParser.sendRaw(json, framing);
+            }
+        } else {
+            sendFailure("register_response", res.message);
+        }
+    }
+
+    /**
+     * Switch this connection to another framing mode. The response is the
+     * first frame sent in the new mode; the client must wait for it before
+     * sending anything else.
+     */
+    private void handleSetFraming(JsonObject frame) {
+        String modeName = frame.getString("mode");
+        Framing.Mode mode;
+        if("length".equals(modeName)) {
+            mode = Framing.Mode.LENGTH_PREFIXED;
+        } else if("newline".equals(modeName)) {
+            mode = Framing.Mode.NEWLINE;
         } else {
-            ProtocolParser.sendRaw("{\"type\":\"register_response\",\"success\":false,\"message\":\"" + ProtocolParser.escape(res.message) + "\"}", framing);
+            ProtocolParser.sendError("invalid_args", "'mode' must be 'length' or 'newline'", framing);
+            return;
+        }
+        if(userId != null) {
+            // After login, pushed frames may already be queued in the old mode
+            ProtocolParser.sendError("invalid_protocol", "set_framing must be sent before login", framing);
+            return;
+        }
+
+        framing.setMode(mode);
+        try(JsonWriter json = JsonWriter.obtain()) {
+            json.beginObject()
+                .field("type", "set_framing_response")
+                .field("success", true)
+                .field("mode", modeName)
+                .endObject();
+            ProtocolParser.sendRaw(json, framing);
         }
     }
 
-    private void handleGetConversations(String frame) {
+    private void handleGetConversations(JsonObject frame) {
         if(userId == null) {
             ProtocolParser.sendError("not_authenticated", "Must be logged in to get conversations", framing);
             return;
         }
 
+        Long limit = frame.getLong("limit");
+        if(limit != null && limit < 1) {
+            ProtocolParser.sendError("invalid_args", "limit must be positive", framing);
+            return;
+        }
+
+        int size = limit == null ? Conversation.DEFAULT_PAGE_SIZE : (int) Math.min(limit, Conversation.MAX_PAGE_SIZE);
+        String cursor = frame.getString("cursor");
         try {
-            List<Conversation> conversations = ConversationManager.getConversationsForUser(userId);
-            StringBuilder json = new StringBuilder("{\"type\":\"conversations_response\",\"success\":true,\"conversations\":[");
-            for(int i = 0; i < conversations.size(); i++) {
-                Conversation c = conversations.get(i);
-                json.append("{\"id\":\"").append(ProtocolParser.escape(c.getConversationId()))
-                    .append("\",\"name\":\"").append(ProtocolParser.escape(c.getName()))
-                    .append("\",\"isGroup\":").append(c.isGroup());
-                
-                // Add participants
-                List<ConversationParticipant> parts = ConversationParticipant.findByConversationId(c.getConversationId());
-                json.append(",\"participants\":[");
-                for(int j=0; j<parts.size(); j++) {
-                     json.append("\"").append(ProtocolParser.escape(parts.get(j).getUserId())).append("\"");
-                     if(j < parts.size()-1) json.append(",");
+            // Read the page before writing, so the pooled connection is not
+            // held while this client's socket drains
+            List<Conversation.Summary> summaries = new ArrayList<>();
+            String next = Conversation.visitSummaries(userId, size, cursor, summaries::add);
+            ProtocolParser.sendStreamed(json -> {
+                json.beginObject()
+                    .field("type", "conversations_response")
+                    .field("success", true)
+                    .name("conversations").beginArray();
+                for(Conversation.Summary summary : summaries) {
+                    Conversation c = summary.getConversation();
+                    json.beginObject()
+                        .field("id", c.getConversationId())
+                        .field("name", c.getName())
+                        .field("isGroup", c.isGroup());
+                    json.name("participants").beginArray();
+                    for(String participantId : summary.getParticipantIds()) {
+                        json.value(participantId);
+                    }
+                    json.endArray()
+                        .field("lastActivity", ProtocolParser.timestamp(summary.getLastActivity()))
+                        .name("lastMessage");
+                    if(summary.hasMessages()) {
+                        json.beginObject()
+                            .field("senderId", summary.getLastSenderId())
+                            .field("preview", summary.getLastMessagePreview())
+                            .field("createdAt", ProtocolParser.timestamp(summary.getLastMessageAt()))
+                            .endObject();
+                    } else {
+                        json.nullValue();
+                    }
+                    json.endObject();
                 }
-                json.append("]");
-
-                if(i < conversations.size() - 1) json.append("},");
-                else json.append("}");
-            }
-            json.append("]}");
-            ProtocolParser.sendRaw(json.toString(), framing);
+                json.endArray()
+                    .field("hasMore", next != null);
+                cursorField(json, "nextCursor", next);
+                json.endObject();
+            }, framing);
+        } catch (IllegalArgumentException e) {
+            ProtocolParser.sendError("invalid_args", e.getMessage(), framing);
         } catch (Exception e) {
             ProtocolParser.sendError("server_error", "Failed to get conversations: " + e.getMessage(), framing);
         }
     }
 
-    private void handleGetMessages(String frame) {
+    private void handleGetMessages(JsonObject frame) {
         if(userId == null) {
             ProtocolParser.sendError("not_authenticated", "Must be logged in to get messages", framing);
             return;
         }
 
-        String conversationId = ProtocolParser.extractJsonString(frame, "conversationId");
+        String conversationId = frame.getString("conversationId");
         if(conversationId == null) {
             ProtocolParser.sendError("invalid_args", "conversationId required", framing);
             return;
         }
 
+        Long limit = frame.getLong("limit");
+        if(limit != null && limit < 1) {
+            ProtocolParser.sendError("invalid_args", "limit must be positive", framing);
+            return;
+        }
+
+        int size = limit == null ? Message.DEFAULT_PAGE_SIZE : (int) Math.min(limit, Message.MAX_PAGE_SIZE);
+        String before = frame.getString("before");
+        String after = frame.getString("after");
         try {
-            List<Message> messages = Message.findByConversationId(conversationId);
-            StringBuilder json = new StringBuilder("{\"type\":\"messages_response\",\"success\":true,\"messages\":[");
-            for(int i = 0; i < messages.size(); i++) {
-                Message m = messages.get(i);
-                json.append("{\"id\":\"").append(ProtocolParser.escape(m.getMessageId()))
-                    .append("\",\"senderId\":\"").append(ProtocolParser.escape(m.getSenderId()))
-                    .append("\",\"content\":\"").append(ProtocolParser.escape(m.getContent()))
-                    .append("\",\"createdAt\":\"").append(ProtocolParser.escape(m.getCreatedAt())) // Assuming getter exists or added
-                    .append("\"}");
-                if(i < messages.size() - 1) json.append(",");
-            }
-            json.append("]}");
-            ProtocolParser.sendRaw(json.toString(), framing);
+            Message.Page page = Message.findPage(conversationId, size, before, after);
+            ProtocolParser.sendStreamed(json -> {
+                json.beginObject()
+                    .field("type", "messages_response")
+                    .field("success", true)
+                    .name("messages").beginArray();
+                for(Message m : page.getMessages()) {
+                    json.beginObject()
+                        .field("id", m.getMessageId())
+                        .field("senderId", m.getSenderId())
+                        .field("content", m.getContent())
+                        .field("createdAt", ProtocolParser.timestamp(m.getCreatedAt()))
+                        .endObject();
+                }
+                json.endArray()
+                    .field("hasMore", page.hasMore());
+                cursorField(json, "nextCursor", page.getNextCursor());
+                cursorField(json, "prevCursor", page.getPrevCursor());
+                json.endObject();
+            }, framing);
+        } catch (IllegalArgumentException e) {
+            ProtocolParser.sendError("invalid_args", e.getMessage(), framing);
         } catch (Exception e) {
             ProtocolParser.sendError("server_error", "Failed to get messages: " + e.getMessage(), framing);
         }
     }
 
-    private void handleGetUsers(String frame) {
+    private void handleSearchMessages(JsonObject frame) {
+        if(userId == null) {
+            ProtocolParser.sendError("not_authenticated", "Must be logged in to search messages", framing);
+            return;
+        }
+
+        if(!MessageSearch.isAvailable()) {
+            ProtocolParser.sendError("search_unavailable", "Message search needs the sqlite message store", framing);
+            return;
+        }
+
+        String query = frame.getString("query");
+        Long limit = frame.getLong("limit");
+        if(limit != null && limit < 1) {
+            ProtocolParser.sendError("invalid_args", "limit must be positive", framing);
+            return;
+        }
+
+        int size = limit == null ? MessageSearch.DEFAULT_LIMIT : (int) Math.min(limit, MessageSearch.MAX_LIMIT);
+        String conversationId = frame.getString("conversationId");
+        String cursor = frame.getString("cursor");
+        try {
+            List<MessageSearch.Hit> hits = new ArrayList<>();
+            String next = MessageSearch.visit(userId, query, conversationId, size, cursor, hits::add);
+            ProtocolParser.sendStreamed(json -> {
+                json.beginObject()
+                    .field("type", "search_response")
+                    .field("success", true)
+                    .field("query", query)
+                    .name("results").beginArray();
+                for(MessageSearch.Hit hit : hits) {
+                    Message m = hit.getMessage();
+                    json.beginObject()
+                        .field("id", m.getMessageId())
+                        .field("conversationId", m.getConversationId())
+                        .field("senderId", m.getSenderId())
+                        .field("content", m.getContent())
+                        .field("snippet", hit.getSnippet())
+                        .field("createdAt", ProtocolParser.timestamp(m.getCreatedAt()))
+                        .endObject();
+                }
+                json.endArray()
+                    .field("hasMore", next != null);
+                cursorField(json, "nextCursor", next);
+                json.endObject();
+            }, framing);
+        } catch (IllegalArgumentException e) {
+            ProtocolParser.sendError("invalid_args", e.getMessage(), framing);
+        } catch (Exception e) {
+            ProtocolParser.sendError("server_error", "Failed to search messages: " + e.getMessage(), framing);
+        }
+    }
+
+    private static void cursorField(JsonWriter json, String name, String cursor) {
+        json.name(name);
+        if(cursor == null) {
+            json.nullValue();
+        } else {
+            json.value(cursor);
+        }
+    }
+
+    private void handleGetUsers(JsonObject frame) {
         if(userId == null) {
             ProtocolParser.sendError("not_authenticated", "Must be logged in to get users", framing);
             return;
         }
 
+        Long limit = frame.getLong("limit");
+        if(limit != null && limit < 1) {
+            ProtocolParser.sendError("invalid_args", "limit must be positive", framing);
+            return;
+        }
+
+        int size = limit == null ? User.DEFAULT_PAGE_SIZE : (int) Math.min(limit, User.MAX_PAGE_SIZE);
+        String cursor = frame.getString("cursor");
         try {
-            List<User> users = User.findAll();
-            StringBuilder json = new StringBuilder("{\"type\":\"users_response\",\"success\":true,\"users\":[");
-            for(int i = 0; i < users.size(); i++) {
-                User u = users.get(i);
-                // Don't include the requesting user in the list if desired, but usually client filters it.
-                // For now, return all.
-                json.append("{\"id\":\"").append(ProtocolParser.escape(u.getUserId()))
-                    .append("\",\"username\":\"").append(ProtocolParser.escape(u.getUsername()))
-                    .append("\",\"displayName\":\"").append(ProtocolParser.escape(u.getDisplayName()))
-                    .append("\",\"isOnline\":").append(u.isOnline() == 1);
-                
-                if(i < users.size() - 1) json.append("},");
-                else json.append("}");
-            }
-            json.append("]}");
-            ProtocolParser.sendRaw(json.toString(), framing);
+            // The requesting user is included; the client filters it out
+            List<User> users = new ArrayList<>();
+            String next = User.visitPage(size, cursor, users::add);
+            ProtocolParser.sendStreamed(json -> {
+                json.beginObject()
+                    .field("type", "users_response")
+                    .field("success", true)
+                    .name("users").beginArray();
+                for(User u : users) {
+                    json.beginObject()
+                        .field("id", u.getUserId())
+                        .field("username", u.getUsername())
+                        .field("displayName", u.getDisplayName())
+                        .field("isOnline", u.isOnline() == 1)
+                        .endObject();
+                }
+                json.endArray()
+                    .field("hasMore", next != null);
+                cursorField(json, "nextCursor", next);
+                json.endObject();
+            }, framing);
+        } catch (IllegalArgumentException e) {
+            ProtocolParser.sendError("invalid_args", e.getMessage(), framing);
         } catch (Exception e) {
             ProtocolParser.sendError("server_error", "Failed to get users: " + e.getMessage(), framing);
         }
     }
 
-    private void handleCreateConversation(String frame) {
+    private void handleCreateConversation(JsonObject frame) {
         if(userId == null) {
             ProtocolParser.sendError("not_authenticated", "Must be logged in to create conversation", framing);
             return;
         }
 
-        String otherUsername = ProtocolParser.extractJsonString(frame, "otherUsername");
-        String name = ProtocolParser.extractJsonString(frame, "name");
-        String participantsJson = ProtocolParser.extractJsonString(frame, "participants");
+        String otherUsername = frame.getString("otherUsername");
+        String name = frame.getString("name");
+        // Participants may be a comma-separated string of usernames or an array
+        String participantsJson = frame.getString("participants");
+        List<String> participantList = frame.getStringList("participants");
+        if(participantsJson == null && participantList != null) {
+            participantsJson = String.join(",", participantList);
+        }
 
         try {
             Conversation conversation;
-            List<String> participantIds = new java.util.ArrayList<>();
+            List<String> participantIds = new ArrayList<>();
 
             if(otherUsername != null) {
                 // 1-on-1 conversation - find user by username
@@ -304,7 +606,7 @@ public class ClientHandler implements Runnable {
             } else if(name != null && participantsJson != null) {
                 // Group conversation - assume participants is comma-separated usernames
                 String[] parts = participantsJson.split(",");
-                List<String> participants = new java.util.ArrayList<>();
+                List<String> participants = new ArrayList<>();
                 for(String p : parts) {
                     User u = User.findByUsername(p.trim());
                     if(u == null) {
@@ -324,21 +626,27 @@ public class ClientHandler implements Runnable {
             // Notify participants
             MessagingManager.notifyNewConversation(conversation, participantIds);
 
-            ProtocolParser.sendRaw("{\"type\":\"create_conversation_response\",\"success\":true,\"conversationId\":\""
-                + ProtocolParser.escape(conversation.getConversationId()) + "\"}", framing);
+            try(JsonWriter json = JsonWriter.obtain()) {
+                json.beginObject()
+                    .field("type", "create_conversation_response")
+                    .field("success", true)
+                    .field("conversationId", conversation.getConversationId())
+                    .endObject();
+                ProtocolParser.sendRaw(json, framing);
+            }
         } catch (Exception e) {
             ProtocolParser.sendError("server_error", "Failed to create conversation: " + e.getMessage(), framing);
         }
     }
 
-    private void handleAddParticipant(String frame) {
+    private void handleAddParticipant(JsonObject frame) {
         if(userId == null) {
             ProtocolParser.sendError("not_authenticated", "Must be logged in to add participant", framing);
             return;
         }
 
-        String conversationId = ProtocolParser.extractJsonString(frame, "conversationId");
-        String userId = ProtocolParser.extractJsonString(frame, "userId");
+        String conversationId = frame.getString("conversationId");
+        String userId = frame.getString("userId");
 
         if(conversationId == null || userId == null) {
             ProtocolParser.sendError("invalid_args", "'conversationId' and 'participantId' required", framing);
@@ -347,9 +655,9 @@ public class ClientHandler implements Runnable {
 
         try {
             ConversationManager.addParticipant(conversationId, userId);
-            ProtocolParser.sendRaw("{\"type\":\"add_participant_response\",\"success\":true}", framing);
+            sendResult("add_participant_response", true);
 
-            List<String> userIds = new java.util.ArrayList<>();
+            List<String> userIds = new ArrayList<>();
             for (ConversationParticipant cp : ConversationParticipant.findByConversationId(conversationId)) {
                 userIds.add(cp.getUserId());
             }
@@ -360,14 +668,14 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void handleRemoveParticipant(String frame) {
+    private void handleRemoveParticipant(JsonObject frame) {
         if(userId == null) {
             ProtocolParser.sendError("not_authenticated", "Must be logged in to remove participant", framing);
             return;
         }
 
-        String conversationId = ProtocolParser.extractJsonString(frame, "conversationId");
-        String userId = ProtocolParser.extractJsonString(frame, "userId");
+        String conversationId = frame.getString("conversationId");
+        String userId = frame.getString("userId");
 
         if(conversationId == null || userId == null) {
             ProtocolParser.sendError("invalid_args", "'conversationId' and 'userId' required", framing);
@@ -376,13 +684,13 @@ public class ClientHandler implements Runnable {
 
         try {
             ConversationManager.removeParticipant(conversationId, userId);
-            ProtocolParser.sendRaw("{\"type\":\"remove_participant_response\",\"success\":true}", framing);
+            sendResult("remove_participant_response", true);
             
             // Notify the removed user to reload their conversations
             MessagingManager.notifyReloadConversations(userId);
 
             // Notify remaining participants to reload as well, to update participant list
-            List<String> userIds = new java.util.ArrayList<>();
+            List<String> userIds = new ArrayList<>();
             for (ConversationParticipant cp : ConversationParticipant.findByConversationId(conversationId)) {
                 userIds.add(cp.getUserId());
             }
@@ -395,11 +703,11 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void handleSendDmMessage(String frame) {
-        String conversationId = ProtocolParser.extractJsonString(frame, "conversationId");
-        String senderId = ProtocolParser.extractJsonString(frame, "senderId");
-        String content = ProtocolParser.extractJsonString(frame, "content");
-        String recipientUserId = ProtocolParser.extractJsonString(frame, "recipientId");
+    private void handleSendDmMessage(JsonObject frame) {
+        String conversationId = frame.getString("conversationId");
+        String senderId = frame.getString("senderId");
+        String content = frame.getString("content");
+        String recipientUserId = frame.getString("recipientId");
 
         if(conversationId == null || senderId == null || content == null || recipientUserId == null) {
             ProtocolParser.sendError("invalid_args", "'conversationId', 'senderId', 'content' and 'recipientUserId' required", framing);
@@ -411,13 +719,13 @@ public class ClientHandler implements Runnable {
         boolean sent = MessagingManager.sendDirectMessage(conversationId, senderId, content, recipientUserId);
         
         // We return success because the message is persisted.
-        ProtocolParser.sendRaw(MessagingManager.buildMessageJson(senderId, content, conversationId), framing);
+        sendMessageEcho(senderId, content, conversationId);
     }
 
-    private void handleSendGroupMessage(String frame) {
-        String conversationId = ProtocolParser.extractJsonString(frame, "conversationId");
-        String senderId = ProtocolParser.extractJsonString(frame, "senderId");
-        String content = ProtocolParser.extractJsonString(frame, "content");
+    private void handleSendGroupMessage(JsonObject frame) {
+        String conversationId = frame.getString("conversationId");
+        String senderId = frame.getString("senderId");
+        String content = frame.getString("content");
 
         if(conversationId == null || senderId == null || content == null) {
             ProtocolParser.sendError("invalid_args", "'conversationId', 'senderId', and 'content' required", framing);
@@ -428,17 +736,48 @@ public class ClientHandler implements Runnable {
         MessagingManager.sendGroupMessage(conversationId, senderId, content);
 
         // We return success because the message is persisted.
-        ProtocolParser.sendRaw(MessagingManager.buildMessageJson(senderId, content, conversationId), framing);
+        sendMessageEcho(senderId, content, conversationId);
+    }
+
+    private void sendMessageEcho(String senderId, String content, String conversationId) {
+        try(JsonWriter json = JsonWriter.obtain()) {
+            MessagingManager.writeMessageJson(json, null, senderId, content, conversationId);
+            ProtocolParser.sendRaw(json, framing);
+        }
     }
 
-    private void handleExit(String frame) {
+    private void handleExit(JsonObject frame) {
         Server.removeClient(this);
-        ProtocolParser.sendRaw("{\"type\":\"exit_response\",\"success\":true}", framing);
+        sendResult("exit_response", true);
         running = false;
     }
 
-    private void handleReloadConversations(String frame) {
-        String targetUserId = ProtocolParser.extractJsonString(frame, "userId");
+    /**
+     * Send a {"type":..., "success":...} response.
+     */
+    private void sendResult(String type, boolean success) {
+        try(JsonWriter json = JsonWriter.obtain()) {
+            json.beginObject().field("type", type).field("success", success).endObject();
+            ProtocolParser.sendRaw(json, framing);
+        }
+    }
+
+    /**
+     * Send an unsuccessful response carrying a message.
+     */
+    private void sendFailure(String type, String message) {
+        try(JsonWriter json = JsonWriter.obtain()) {
+            json.beginObject()
+                .field("type", type)
+                .field("success", false)
+                .field("message", message)
+                .endObject();
+            ProtocolParser.sendRaw(json, framing);
+        }
+    }
+
+    private void handleReloadConversations(JsonObject frame) {
+        String targetUserId = frame.getString("userId");
         if (targetUserId == null) {
             ProtocolParser.sendError("invalid_args", "'userId' required", framing);
             return;
@@ -448,6 +787,10 @@ public class ClientHandler implements Runnable {
     }
 
     private void cleanup() {
+        if(!cleanedUp.compareAndSet(false, true)) {
+            return;
+        }
+
         try {
             if(sessionToken != null) {
                 new SessionManager().endSession(sessionToken);
@@ -467,7 +810,8 @@ public class ClientHandler implements Runnable {
         } catch (Exception e) {}
 
         try {
-            if(socket != null && !socket.isClosed()) socket.close();
+            // An evented channel is closed by its EventLoop once queued frames are written
+            if(channelFraming == null && socket != null && !socket.isClosed()) socket.close();
         } catch (Exception e) {}
     }
 
@@ -475,11 +819,42 @@ public class ClientHandler implements Runnable {
      * Send a message to this client.
      * Called by MessagingManager when routing messages to recipients.
      */
-    public synchronized void sendMessage(String jsonMessage) throws Exception {
+    public void sendMessage(String jsonMessage) throws Exception {
+        sendMessage(OutboundFrame.message(jsonMessage));
+    }
+
+    /**
+     * Queue a frame for this client without waiting for it to be written.
+     * A client whose outbound queue overflows is disconnected.
+     */
+    public void sendMessage(OutboundFrame frame) throws Exception {
         if(framing == null || !running) {
             throw new Exception("Client not connected");
         }
-        framing.writeFrame(jsonMessage);
+        if(!framing.enqueue(frame)) {
+            running = false;
+            System.err.println("ClientHandler: Slow consumer " + userId + " ("
+                + framing.getOutboundQueue().size() + " frames queued), disconnecting");
+            if(channelFraming != null) {
+                channelFraming.abort();
+            }
+            Server.removeClient(this);
+            throw new Exception("Outbound queue overflow, client disconnected");
+        }
+    }
+
+    /**
+     * Close the connection. Evented connections flush queued frames first.
+     */
+    void disconnect() {
+        if(channelFraming != null) {
+            channelFraming.close();
+            return;
+        }
+
+        try {
+            socket.close();
+        } catch (Exception e) {}
     }
 
     public Framing getFraming() {
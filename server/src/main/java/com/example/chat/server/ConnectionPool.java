@@ -0,0 +1,248 @@
+package com.example.chat.server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size pool of JDBC connections to one database.
+ *
+ * Connections are opened on demand up to the pool size, set up with the
+ * pool's {@link PragmaProfile}, and kept open afterwards. Closing a borrowed
+ * connection hands it back instead of closing it; a transaction left open is
+ * rolled back first. Once the pool is exhausted, borrowers wait for a
+ * connection to come back. The wait parks the thread (the deque uses a
+ * ReentrantLock), so a waiting virtual thread does not pin its carrier.
+ *
+ * A connection that sat idle longer than the validation interval is checked
+ * with {@link Connection#isValid(int)} before it is handed out, and replaced
+ * if the check fails.
+ */
+final class ConnectionPool {
+    private static final long VALIDATE_AFTER_NANOS =
+            TimeUnit.SECONDS.toNanos(Long.getLong("chat.db.pool.validate.seconds", 30L));
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long WAIT_SLICE_MILLIS = 100;
+
+    private final String name;
+    private final String url;
+    private final int size;
+    private final PragmaProfile profile;
+    // Most recently returned first, so a small working set stays warm
+    private final BlockingDeque<Pooled> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger open = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong replaced = new AtomicLong();
+
+    private static final class Pooled {
+        final Connection connection;
+        long lastUsed = System.nanoTime();
+
+        Pooled(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    ConnectionPool(String name, String url, int size) {
+        this(name, url, size, PragmaProfile.LEGACY);
+    }
+
+    ConnectionPool(String name, String url, int size, PragmaProfile profile) {
+        this.name = name;
+        this.url = url;
+        this.size = size;
+        this.profile = profile;
+    }
+
+    /**
+     * Borrow a connection, waiting if all of them are in use. Close the
+     * returned connection to hand it back.
+     */
+    Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool " + name + " is closed");
+        }
+        borrows.incrementAndGet();
+        Pooled pooled = idle.pollFirst();
+        if (pooled == null) {
+            pooled = openOrWait();
+        }
+        if (System.nanoTime() - pooled.lastUsed > VALIDATE_AFTER_NANOS && !isValid(pooled.connection)) {
+            replaced.incrementAndGet();
+            closeQuietly(pooled.connection);
+            open.decrementAndGet();
+            pooled = open();
+        }
+        return lease(pooled);
+    }
+
+    private Pooled openOrWait() throws SQLException {
+        if (open.incrementAndGet() <= size) {
+            return open();
+        }
+        open.decrementAndGet();
+
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                Pooled pooled = idle.pollFirst(WAIT_SLICE_MILLIS, TimeUnit.MILLISECONDS);
+                if (pooled != null) {
+                    return pooled;
+                }
+                // A connection discarded meanwhile frees its slot without coming back
+                if (open.incrementAndGet() <= size) {
+                    return open();
+                }
+                open.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection from pool " + name);
+        } finally {
+            long waited = System.nanoTime() - start;
+            waits.incrementAndGet();
+            waitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+    }
+
+    /**
+     * Open a connection for a slot already counted in {@link #open}.
+     */
+    private Pooled open() throws SQLException {
+        Connection conn = null;
+        try {
+            conn = DriverManager.getConnection(url);
+            profile.apply(conn);
+            return new Pooled(conn);
+        } catch (SQLException e) {
+            if (conn != null) {
+                closeQuietly(conn);
+            }
+            open.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private static boolean isValid(Connection conn) {
+        try {
+            return conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wrap a pooled connection so that closing it returns it to the pool.
+     */
+    private Connection lease(Pooled pooled) {
+        Connection conn = pooled.connection;
+        AtomicBoolean returned = new AtomicBoolean(false);
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            if (returned.compareAndSet(false, true)) {
+                                giveBack(pooled);
+                            }
+                            return null;
+                        case "isClosed":
+                            return returned.get() || conn.isClosed();
+                        default:
+                            if (returned.get()) {
+                                throw new SQLException("Connection was returned to pool " + name);
+                            }
+                            try {
+                                return method.invoke(conn, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                    }
+                });
+    }
+
+    private void giveBack(Pooled pooled) {
+        Connection conn = pooled.connection;
+        try {
+            if (conn.isClosed()) {
+                open.decrementAndGet();
+                return;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("ConnectionPool: Discarding " + name + " connection: " + e.getMessage());
+            closeQuietly(conn);
+            open.decrementAndGet();
+            return;
+        }
+        if (closed) {
+            closeQuietly(conn);
+            open.decrementAndGet();
+            return;
+        }
+        pooled.lastUsed = System.nanoTime();
+        idle.offerFirst(pooled);
+    }
+
+    /**
+     * Close idle connections and refuse further borrows. Connections still
+     * borrowed are closed when they come back.
+     */
+    void close() {
+        closed = true;
+        Pooled pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled.connection);
+            open.decrementAndGet();
+        }
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Connections currently borrowed
+     */
+    int getActive() {
+        return Math.max(0, open.get() - idle.size());
+    }
+
+    int getIdle() {
+        return idle.size();
+    }
+
+    String stats() {
+        long count = waits.get();
+        return "size=" + size + " active=" + getActive() + " idle=" + getIdle()
+                + " borrows=" + borrows.get() + " waits=" + count
+                + " avg_wait_ms=" + (count == 0 ? "0" : String.format("%.2f", waitNanos.get() / 1e6 / count))
+                + " max_wait_ms=" + String.format("%.2f", maxWaitNanos.get() / 1e6)
+                + " replaced=" + replaced.get();
+    }
+}
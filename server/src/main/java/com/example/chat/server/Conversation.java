@@ -1,10 +1,13 @@
 package com.example.chat.server;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.UUID;
 import java.util.List;
 import java.util.ArrayList;
@@ -13,7 +16,7 @@ public class Conversation {
     private String conversationId;
     private String name;
     private int isGroup; // 1=true, 0=false
-    private String createdAt;
+    private long createdAt; // Epoch milliseconds
 
     private static SQLiteDatabase db;
 
@@ -21,10 +24,10 @@ public class Conversation {
         this.conversationId = UUID.randomUUID().toString();
         this.name = name;
         this.isGroup = isGroup;
-        this.createdAt = LocalDateTime.now().toString();
+        this.createdAt = System.currentTimeMillis();
     }
 
-    Conversation(String conversationId, String name, int isGroup, String createdAt) {
+    Conversation(String conversationId, String name, int isGroup, long createdAt) {
         this.conversationId = conversationId;
         this.name = name;
         this.isGroup = isGroup;
@@ -42,15 +45,16 @@ public class Conversation {
         String sql = "INSERT INTO CONVERSATIONS(conversation_id, name, is_group, created_at) "
                 + "VALUES(?, ?, ?, ?)";
 
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, this.conversationId);
-            pstmt.setString(2, this.name);
-            pstmt.setInt(3, this.isGroup);
-            pstmt.setString(4, this.createdAt);
-
-            pstmt.executeUpdate();
+        try {
+            db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, this.conversationId);
+                    pstmt.setString(2, this.name);
+                    pstmt.setInt(3, this.isGroup);
+                    pstmt.setLong(4, this.createdAt);
+                    return pstmt.executeUpdate();
+                }
+            });
             System.out.println("DB: Saved new conversation ID: " + this.conversationId);
 
         } catch (SQLException e) {
@@ -76,7 +80,7 @@ public class Conversation {
                         rs.getString("conversation_id"),
                         rs.getString("name"),
                         rs.getInt("is_group"),
-                        rs.getString("created_at"));
+                        rs.getLong("created_at"));
             }
         } catch (SQLException e) {
             System.err.println("DB Error finding conversation by ID: " + e.getMessage());
@@ -90,8 +94,9 @@ public class Conversation {
 
         // SQL JOIN to link USERS -> CONVERSATION_PARTICIPANTS -> CONVERSATIONS
         String sql = "SELECT c.* FROM CONVERSATIONS c " +
-                "JOIN CONVERSATION_PARTICIPANTS cp ON c.conversation_id = cp.conversation_id " +
-                "WHERE cp.user_id = ?";
+                "JOIN CONVERSATION_PARTICIPANTS cp ON c.conversation_key = cp.conversation_key " +
+                "JOIN USERS u ON u.user_key = cp.user_key " +
+                "WHERE u.user_id = ?";
 
         List<Conversation> conversations = new ArrayList<>();
 
@@ -106,7 +111,7 @@ public class Conversation {
                         rs.getString("conversation_id"),
                         rs.getString("name"),
                         rs.getInt("is_group"),
-                        rs.getString("created_at")));
+                        rs.getLong("created_at")));
             }
         } catch (SQLException e) {
             System.err.println("DB Error finding conversations by user ID: " + e.getMessage());
@@ -114,6 +119,269 @@ public class Conversation {
         return conversations;
     }
 
+    /**
+     * What the conversation list shows for one conversation: its members and
+     * its latest message.
+     */
+    public static final class Summary {
+        private final long conversationKey;
+        private final Conversation conversation;
+        private final List<String> participantIds;
+        private final String lastSenderId;
+        private final String lastMessagePreview;
+        private final boolean hasMessages;
+        private final long lastMessageAt;
+
+        Summary(long conversationKey, Conversation conversation, List<String> participantIds, String lastSenderId,
+                String lastMessagePreview, boolean hasMessages, long lastMessageAt) {
+            this.conversationKey = conversationKey;
+            this.conversation = conversation;
+            this.participantIds = participantIds;
+            this.lastSenderId = lastSenderId;
+            this.lastMessagePreview = lastMessagePreview;
+            this.hasMessages = hasMessages;
+            this.lastMessageAt = lastMessageAt;
+        }
+
+        public Conversation getConversation() {
+            return conversation;
+        }
+
+        public List<String> getParticipantIds() {
+            return participantIds;
+        }
+
+        /**
+         * @return Whether the conversation has any messages; the last message
+         *         getters return null or 0 if not
+         */
+        public boolean hasMessages() {
+            return hasMessages;
+        }
+
+        public String getLastSenderId() {
+            return lastSenderId;
+        }
+
+        /**
+         * @return The start of the latest message, at most
+         *         {@link #PREVIEW_LENGTH} characters
+         */
+        public String getLastMessagePreview() {
+            return lastMessagePreview;
+        }
+
+        /**
+         * @return When the latest message was sent, in epoch milliseconds
+         */
+        public long getLastMessageAt() {
+            return lastMessageAt;
+        }
+
+        /**
+         * @return When the latest message was sent, or when the conversation
+         *         was created if it has none, in epoch milliseconds
+         */
+        public long getLastActivity() {
+            return hasMessages ? lastMessageAt : conversation.createdAt;
+        }
+
+        /**
+         * @return This summary with its latest message taken from the given
+         *         one, or unchanged if null
+         */
+        Summary withLatest(Message latest) {
+            if (latest == null) {
+                return this;
+            }
+            String content = latest.getContent();
+            String preview = content == null || content.length() <= PREVIEW_LENGTH
+                    ? content : content.substring(0, PREVIEW_LENGTH);
+            return new Summary(conversationKey, conversation, participantIds, latest.getSenderId(), preview, true,
+                    latest.getCreatedAt());
+        }
+
+        /**
+         * @return Whether this summary sorts after the cursor position, i.e.
+         *         belongs on a page that starts there
+         */
+        boolean after(long[] cursor) {
+            long activity = getLastActivity();
+            return activity < cursor[0] || (activity == cursor[0] && conversationKey < cursor[1]);
+        }
+    }
+
+    static final int PREVIEW_LENGTH = 100;
+
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 200;
+
+    // Where the conversation list is sorted: latest message, else creation
+    private static final String ACTIVITY = "COALESCE(m.created_at, c.created_at)";
+
+    // One row per conversation, most recently active first, starting after
+    // the (activity, conversation_key) position of the previous page. The
+    // latest message is one seek on the history index per conversation, and
+    // only its preview leaves SQLite; user IDs never contain commas.
+    static final String SUMMARY_SQL = "SELECT c.conversation_key, c.conversation_id, c.name, c.is_group, c.created_at, " +
+            "(SELECT group_concat(pu.user_id, ',') FROM CONVERSATION_PARTICIPANTS p " +
+            "JOIN USERS pu ON pu.user_key = p.user_key " +
+            "WHERE p.conversation_key = c.conversation_key) AS participant_ids, " +
+            "s.user_id AS last_sender_id, substr(m.content, 1, " + PREVIEW_LENGTH + ") AS last_preview, " +
+            "m.created_at AS last_created_at " +
+            "FROM USERS u " +
+            "JOIN CONVERSATION_PARTICIPANTS me ON me.user_key = u.user_key " +
+            "JOIN CONVERSATIONS c ON c.conversation_key = me.conversation_key " +
+            "LEFT JOIN MESSAGES m ON m.message_seq = (SELECT MAX(message_seq) FROM MESSAGES " +
+            "WHERE conversation_key = me.conversation_key) " +
+            "LEFT JOIN USERS s ON s.user_key = m.sender_key " +
+            "WHERE u.user_id = ? AND (" + ACTIVITY + ", c.conversation_key) < (?, ?) " +
+            "ORDER BY " + ACTIVITY + " DESC, c.conversation_key DESC LIMIT ?";
+
+    /**
+     * @return Every conversation the user takes part in, most recently
+     *         active first
+     */
+    public static List<Summary> findSummariesByUserId(String userId) throws SQLException {
+        List<Summary> summaries = new ArrayList<>();
+        String cursor = null;
+        do {
+            cursor = visitSummaries(userId, MAX_PAGE_SIZE, cursor, summaries::add);
+        } while (cursor != null);
+        return summaries;
+    }
+
+    /**
+     * Hand one page of the user's conversation list to the visitor, most
+     * recently active first. A page is one query, however many
+     * conversations the user is in, and each page starts where the previous
+     * one ended, so a conversation that becomes active meanwhile moves to
+     * the top of the list rather than being seen twice.
+     *
+     * When messages are not kept in the database, the query finds no latest
+     * messages; the whole list is then completed from the
+     * {@link MessageStore} and ordered here, and only the page is visited.
+     *
+     * @return The cursor for the next page, or null if this was the last
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static String visitSummaries(String userId, int limit, String cursor, RowVisitor<Summary> visitor)
+            throws SQLException {
+        int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        long[] start = cursor == null ? new long[] { Long.MAX_VALUE, Long.MAX_VALUE } : decodeCursor(cursor);
+        MessageStore messages = Message.getStore();
+        Page page = new Page(size, visitor);
+        if (messages == null || messages.inDatabase()) {
+            // One extra row tells whether there is another page
+            querySummaries(userId, start, size + 1, page);
+            return page.next;
+        }
+
+        List<Summary> summaries = new ArrayList<>();
+        querySummaries(userId, new long[] { Long.MAX_VALUE, Long.MAX_VALUE }, -1,
+                summary -> summaries.add(summary.withLatest(
+                        messages.findLatest(summary.getConversation().getConversationId()))));
+        summaries.sort(Comparator.comparingLong(Summary::getLastActivity)
+                .thenComparingLong(summary -> summary.conversationKey).reversed());
+        for (Summary summary : summaries) {
+            if (summary.after(start)) {
+                page.visit(summary);
+                if (page.next != null) {
+                    break;
+                }
+            }
+        }
+        return page.next;
+    }
+
+    /**
+     * Visits at most {@code size} summaries and notes the cursor after the
+     * last one if another follows.
+     */
+    private static final class Page implements RowVisitor<Summary> {
+        private final int size;
+        private final RowVisitor<Summary> visitor;
+        private int visited;
+        private Summary last;
+        String next;
+
+        Page(int size, RowVisitor<Summary> visitor) {
+            this.size = size;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void visit(Summary summary) throws SQLException {
+            if (visited == size) {
+                next = encodeCursor(last);
+                return;
+            }
+            visitor.visit(summary);
+            last = summary;
+            visited++;
+        }
+    }
+
+    /**
+     * Cursors are opaque to clients: the last activity and key of the last
+     * conversation on the page, base64url encoded.
+     */
+    private static String encodeCursor(Summary summary) {
+        byte[] bytes = (summary.getLastActivity() + ":" + summary.conversationKey).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static long[] decodeCursor(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]) };
+        } catch (IllegalArgumentException e) {
+            // Also covers NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    /**
+     * @param limit Most rows to read, or -1 for all of them
+     */
+    private static void querySummaries(String userId, long[] start, int limit, RowVisitor<Summary> visitor)
+            throws SQLException {
+        if (db == null)
+            return;
+
+        try (Connection conn = db.connect();
+                PreparedStatement pstmt = conn.prepareStatement(SUMMARY_SQL)) {
+
+            pstmt.setString(1, userId);
+            pstmt.setLong(2, start[0]);
+            pstmt.setLong(3, start[1]);
+            pstmt.setInt(4, limit);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                Conversation conversation = new Conversation(
+                        rs.getString("conversation_id"),
+                        rs.getString("name"),
+                        rs.getInt("is_group"),
+                        rs.getLong("created_at"));
+                String ids = rs.getString("participant_ids");
+                List<String> participantIds = ids == null ? new ArrayList<>() : Arrays.asList(ids.split(","));
+                long lastMessageAt = rs.getLong("last_created_at");
+                boolean hasMessages = !rs.wasNull();
+                visitor.visit(new Summary(rs.getLong("conversation_key"), conversation, participantIds,
+                        rs.getString("last_sender_id"),
+                        rs.getString("last_preview"),
+                        hasMessages, lastMessageAt));
+            }
+        } catch (SQLException e) {
+            System.err.println("DB Error finding conversation summaries: " + e.getMessage());
+            throw e;
+        }
+    }
+
     public String getConversationId() {
         return conversationId;
     }
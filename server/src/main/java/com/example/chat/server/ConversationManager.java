@@ -136,9 +136,11 @@ public class ConversationManager {
 
         // Query for conversations where both users are participants and is_group=0
         String sql = "SELECT c.* FROM CONVERSATIONS c " +
-                "JOIN CONVERSATION_PARTICIPANTS cp1 ON c.conversation_id = cp1.conversation_id " +
-                "JOIN CONVERSATION_PARTICIPANTS cp2 ON c.conversation_id = cp2.conversation_id " +
-                "WHERE c.is_group = 0 AND cp1.user_id = ? AND cp2.user_id = ?";
+                "JOIN CONVERSATION_PARTICIPANTS cp1 ON c.conversation_key = cp1.conversation_key " +
+                "JOIN CONVERSATION_PARTICIPANTS cp2 ON c.conversation_key = cp2.conversation_key " +
+                "WHERE c.is_group = 0 " +
+                "AND cp1.user_key = (SELECT user_key FROM USERS WHERE user_id = ?) " +
+                "AND cp2.user_key = (SELECT user_key FROM USERS WHERE user_id = ?)";
 
         try (Connection conn = db.connect();
                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -152,7 +154,7 @@ public class ConversationManager {
                         rs.getString("conversation_id"),
                         rs.getString("name"),
                         rs.getInt("is_group"),
-                        rs.getString("created_at"));
+                        rs.getLong("created_at"));
             }
         } catch (SQLException e) {
             System.err.println("DB Error finding existing 1-on-1 conversation: " + e.getMessage());
@@ -166,13 +168,17 @@ public class ConversationManager {
     private static void removeParticipantFromDB(String conversationId, String userId) throws SQLException {
         if (db == null) throw new IllegalStateException("Database not initialized.");
 
-        String sql = "DELETE FROM CONVERSATION_PARTICIPANTS WHERE conversation_id = ? AND user_id = ?";
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, conversationId);
-            pstmt.setString(2, userId);
-            int rowsAffected = pstmt.executeUpdate();
+        String sql = "DELETE FROM CONVERSATION_PARTICIPANTS " +
+                "WHERE conversation_key = (SELECT conversation_key FROM CONVERSATIONS WHERE conversation_id = ?) " +
+                "AND user_key = (SELECT user_key FROM USERS WHERE user_id = ?)";
+        try {
+            int rowsAffected = db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, conversationId);
+                    pstmt.setString(2, userId);
+                    return pstmt.executeUpdate();
+                }
+            });
             if (rowsAffected == 0) {
                 throw new SQLException("Participant not found.");
             }
@@ -4,7 +4,6 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.LocalDateTime;
 import java.util.UUID;
 import java.util.List;
 import java.util.ArrayList;
@@ -13,7 +12,7 @@ public class ConversationParticipant {
     private String participantId;
     private String conversationId;
     private String userId;
-    private String joinedAt;
+    private long joinedAt; // Epoch milliseconds
 
     private static SQLiteDatabase db;
 
@@ -21,10 +20,10 @@ public class ConversationParticipant {
         this.participantId = UUID.randomUUID().toString();
         this.conversationId = conversationId;
         this.userId = userId;
-        this.joinedAt = LocalDateTime.now().toString();
+        this.joinedAt = System.currentTimeMillis();
     }
 
-    private ConversationParticipant(String participantId, String conversationId, String userId, String joinedAt) {
+    private ConversationParticipant(String participantId, String conversationId, String userId, long joinedAt) {
         this.participantId = participantId;
         this.conversationId = conversationId;
         this.userId = userId;
@@ -39,18 +38,20 @@ public class ConversationParticipant {
         if (db == null)
             throw new IllegalStateException("Database connection not initialized.");
 
-        String sql = "INSERT INTO CONVERSATION_PARTICIPANTS(participant_id, conversation_id, user_id, joined_at) "
-                + "VALUES(?, ?, ?, ?)";
-
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, this.participantId);
-            pstmt.setString(2, this.conversationId);
-            pstmt.setString(3, this.userId);
-            pstmt.setString(4, this.joinedAt);
-
-            pstmt.executeUpdate();
+        String sql = "INSERT INTO CONVERSATION_PARTICIPANTS(participant_id, conversation_key, user_key, joined_at) "
+                + "VALUES(?, (SELECT conversation_key FROM CONVERSATIONS WHERE conversation_id = ?), "
+                + "(SELECT user_key FROM USERS WHERE user_id = ?), ?)";
+
+        try {
+            db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, this.participantId);
+                    pstmt.setString(2, this.conversationId);
+                    pstmt.setString(3, this.userId);
+                    pstmt.setLong(4, this.joinedAt);
+                    return pstmt.executeUpdate();
+                }
+            });
             System.out.println("DB: Added user " + this.userId + " to conversation " + this.conversationId);
 
         } catch (SQLException e) {
@@ -62,7 +63,10 @@ public class ConversationParticipant {
     public static boolean isParticipant(String conversationId, String userId) {
         if (db == null)
             return false;
-        String sql = "SELECT 1 FROM CONVERSATION_PARTICIPANTS WHERE conversation_id = ? AND user_id = ?";
+        String sql = "SELECT 1 FROM CONVERSATION_PARTICIPANTS p " +
+                "JOIN CONVERSATIONS c ON c.conversation_key = p.conversation_key " +
+                "JOIN USERS u ON u.user_key = p.user_key " +
+                "WHERE c.conversation_id = ? AND u.user_id = ?";
 
         try (Connection conn = db.connect();
                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -81,7 +85,11 @@ public class ConversationParticipant {
         if (db == null)
             return new ArrayList<>();
 
-        String sql = "SELECT * FROM CONVERSATION_PARTICIPANTS WHERE conversation_id = ?";
+        String sql = "SELECT p.participant_id, c.conversation_id, u.user_id, p.joined_at " +
+                "FROM CONVERSATION_PARTICIPANTS p " +
+                "JOIN CONVERSATIONS c ON c.conversation_key = p.conversation_key " +
+                "JOIN USERS u ON u.user_key = p.user_key " +
+                "WHERE c.conversation_id = ?";
         List<ConversationParticipant> participants = new ArrayList<>();
 
         try (Connection conn = db.connect();
@@ -95,7 +103,7 @@ public class ConversationParticipant {
                         rs.getString("participant_id"),
                         rs.getString("conversation_id"),
                         rs.getString("user_id"),
-                        rs.getString("joined_at")));
+                        rs.getLong("joined_at")));
             }
         } catch (SQLException e) {
             System.err.println("DB Error finding participants by conversation: " + e.getMessage());
@@ -0,0 +1,236 @@
+package com.example.chat.server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The one thread that writes to the database.
+ *
+ * SQLite lets one connection write at a time. Instead of handler threads
+ * taking turns on a shared writer connection, they queue write commands here
+ * and a dedicated thread runs them in order on a connection only it uses.
+ * Callers wait for their command's result; the wait parks, so a waiting
+ * virtual thread does not pin its carrier, and the SQLite native calls run on
+ * this platform thread instead of a carrier.
+ *
+ * Commands run in auto-commit mode. A command that needs a transaction
+ * starts and finishes it itself; one left open is rolled back. A command
+ * issued from inside another command runs inline. When
+ * chat.db.writer.queue.capacity commands are waiting, callers wait for room.
+ */
+final class DatabaseWriter {
+
+    /**
+     * A unit of work run on the writer connection.
+     */
+    @FunctionalInterface
+    interface Command<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    private static final class Task<T> {
+        final Command<T> command;
+        final long queuedNanos = System.nanoTime();
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Task(Command<T> command) {
+            this.command = command;
+        }
+    }
+
+    // Queued by close() after the last command
+    private static final Task<Void> CLOSE = new Task<>(conn -> null);
+
+    private final String url;
+    private final PragmaProfile profile;
+    private final BlockingQueue<Task<?>> queue;
+    // Held while enqueueing, so close() cannot slip in between the check and the put
+    private final ReentrantLock enqueueLock = new ReentrantLock();
+    private volatile boolean closed = false;
+    private final Thread thread;
+    private Connection conn;
+
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+    private final AtomicLong reopened = new AtomicLong();
+
+    /**
+     * Open the writer connection and start the writer thread.
+     */
+    DatabaseWriter(String url, PragmaProfile profile, int capacity) throws SQLException {
+        this.url = url;
+        this.profile = profile;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.conn = open();
+        this.thread = new Thread(this::run, "db-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private Connection open() throws SQLException {
+        Connection c = DriverManager.getConnection(url);
+        try {
+            profile.apply(c);
+        } catch (SQLException e) {
+            c.close();
+            throw e;
+        }
+        return c;
+    }
+
+    /**
+     * Run a command on the writer thread and wait for its result.
+     *
+     * @throws SQLException if the command failed, or the writer is closed
+     */
+    <T> T write(Command<T> command) throws SQLException {
+        if (Thread.currentThread() == thread) {
+            return command.run(conn);
+        }
+        Task<T> task = new Task<>(command);
+        enqueue(task);
+        try {
+            return task.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database write");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    private void enqueue(Task<?> task) throws SQLException {
+        enqueueLock.lock();
+        try {
+            if (closed) {
+                throw new SQLException("Database writer is closed");
+            }
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for room in the write queue");
+        } finally {
+            enqueueLock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Task<?> task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                // Nothing interrupts the writer; it stops at the CLOSE marker
+                continue;
+            }
+            if (task == CLOSE) {
+                return;
+            }
+            execute(task);
+        }
+    }
+
+    private <T> void execute(Task<T> task) {
+        long start = System.nanoTime();
+        long waited = start - task.queuedNanos;
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        commands.incrementAndGet();
+        try {
+            if (conn.isClosed()) {
+                reopened.incrementAndGet();
+                conn = open();
+            }
+            T value = task.command.run(conn);
+            if (!conn.getAutoCommit()) {
+                System.err.println("DatabaseWriter: Rolling back a transaction left open by a write");
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            task.result.complete(value);
+        } catch (Throwable e) {
+            failures.incrementAndGet();
+            resetAfterFailure();
+            task.result.completeExceptionally(e);
+        } finally {
+            long took = System.nanoTime() - start;
+            runNanos.addAndGet(took);
+            maxRunNanos.accumulateAndGet(took, Math::max);
+        }
+    }
+
+    private void resetAfterFailure() {
+        try {
+            if (!conn.isClosed() && !conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("DatabaseWriter: Discarding writer connection: " + e.getMessage());
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Run the commands already queued, then stop the writer thread and close
+     * its connection. Later writes fail.
+     */
+    void close() {
+        enqueueLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.put(CLOSE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            enqueueLock.unlock();
+        }
+        try {
+            thread.join();
+            conn.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            System.err.println("DatabaseWriter: Error closing writer connection: " + e.getMessage());
+        }
+    }
+
+    int getQueued() {
+        return queue.size();
+    }
+
+    String stats() {
+        long count = commands.get();
+        return "queued=" + getQueued() + " commands=" + count + " failures=" + failures.get()
+                + " avg_wait_ms=" + (count == 0 ? "0" : String.format("%.2f", waitNanos.get() / 1e6 / count))
+                + " max_wait_ms=" + String.format("%.2f", maxWaitNanos.get() / 1e6)
+                + " avg_run_ms=" + (count == 0 ? "0" : String.format("%.2f", runNanos.get() / 1e6 / count))
+                + " max_run_ms=" + String.format("%.2f", maxRunNanos.get() / 1e6)
+                + " reopened=" + reopened.get();
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single selector thread that owns the reads, frame decoding and writes of
+ * every connection registered with it.
+ *
+ * Other threads never touch a registered channel directly; they hand work to
+ * the loop with {@link #execute(Runnable)} and the loop runs it between
+ * selects. Command handling itself is done by ClientHandler on worker threads.
+ */
+public class EventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<TimedTask> timers = new PriorityQueue<>(); // loop thread only
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Register an accepted connection with this loop.
+     */
+    public void register(ChannelFraming framing, ClientHandler handler) {
+        execute(() -> {
+            try {
+                framing.register(selector, handler);
+            } catch (IOException e) {
+                System.err.println("EventLoop: Failed to register connection: " + e.getMessage());
+                framing.closeNow();
+            }
+        });
+    }
+
+    /**
+     * Run a task on the loop thread.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Run a task on the loop thread once the delay has passed.
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        long deadline = System.nanoTime() + delayNanos;
+        execute(() -> timers.add(new TimedTask(deadline, task)));
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                TimedTask next = timers.peek();
+                if (next == null) {
+                    selector.select();
+                } else {
+                    long waitMillis = TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime());
+                    if (waitMillis > 0) {
+                        selector.select(waitMillis);
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+                runTasks();
+                runTimers();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    ChannelFraming framing = (ChannelFraming) key.attachment();
+                    if (!key.isValid()) {
+                        framing.closeNow();
+                        continue;
+                    }
+                    if (key.isReadable()) {
+                        framing.onReadable(readBuffer);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        framing.onWritable();
+                    }
+                }
+            }
+            runTasks();
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("EventLoop error: " + e.getMessage());
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("EventLoop: Task failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        TimedTask timer;
+        while ((timer = timers.peek()) != null && timer.deadline - now <= 0) {
+            timers.poll();
+            try {
+                timer.task.run();
+            } catch (Exception e) {
+                System.err.println("EventLoop: Timer failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                ((ChannelFraming) key.attachment()).closeNow();
+            }
+            selector.close();
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Stop the loop after running the tasks already queued (e.g. final writes).
+     */
+    public void shutdown() {
+        execute(() -> running = false);
+    }
+
+    public void awaitTermination(long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+
+    private static class TimedTask implements Comparable<TimedTask> {
+        final long deadline;
+        final Runnable task;
+
+        TimedTask(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(TimedTask other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of individual length-prefixed frames.
+ *
+ * A client that negotiated compression at login receives frames of at least
+ * chat.compression.threshold bytes deflated, flagged by the high bit of the
+ * length header. Every frame is compressed on its own (zlib format) with a
+ * preset dictionary of the protocol's keys and frame shapes, so even a
+ * single history response gains from the dictionary, and a broadcast frame
+ * compressed once can be sent to every compressing client.
+ *
+ * The client must use the same {@link #DICTIONARY}; zlib checks its Adler-32.
+ */
+public final class FrameCompression {
+    /** Set in the length header of a frame whose body is deflated. */
+    public static final int COMPRESSED_FLAG = 0x80000000;
+
+    static final boolean ENABLED = !"off".equals(System.getProperty("chat.compression", "deflate"));
+    static final int THRESHOLD = Integer.getInteger("chat.compression.threshold", 512);
+
+    // Most frequent strings last: zlib prefers the closest match
+    static final byte[] DICTIONARY = ("\"isOnline\":false}\"isGroup\":true,"
+            + "{\"type\":\"error\",\"code\":\"server_error\",\"message\":\""
+            + "{\"type\":\"reload_conversations\",\"userId\":\""
+            + "{\"type\":\"status\",\"userId\":\"\",\"isOnline\":true}"
+            + "{\"type\":\"new_conversation\",\"id\":\"\",\"name\":\"\",\"isGroup\":false,\"participants\":[\""
+            + "{\"type\":\"users_response\",\"success\":true,\"users\":[{\"id\":\"\",\"username\":\"\",\"displayName\":\"\",\"isOnline\":false},"
+            + "{\"type\":\"conversations_response\",\"success\":true,\"conversations\":[{\"id\":\"\",\"name\":\"\",\"isGroup\":false,\"participants\":[\"\",\"\"]},"
+            + "{\"type\":\"message\",\"senderId\":\"\",\"content\":\"\",\"conversationId\":\"\"}"
+            + "{\"type\":\"messages_response\",\"success\":true,\"messages\":[{\"id\":\"\",\"senderId\":\"\",\"content\":\"\",\"createdAt\":\"2026-01-01T00:00:00.000000000\"},")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final int MAX_POOLED = 16;
+    private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledDeflaters = new AtomicInteger();
+
+    private static final AtomicLong framesCompressed = new AtomicLong();
+    private static final AtomicLong framesSkipped = new AtomicLong();
+    private static final AtomicLong bytesIn = new AtomicLong();
+    private static final AtomicLong bytesOut = new AtomicLong();
+
+    static {
+        Metrics.register("compression", () -> {
+            long in = bytesIn.get();
+            long out = bytesOut.get();
+            return "frames=" + framesCompressed.get() + " skipped=" + framesSkipped.get()
+                    + " bytes_in=" + in + " bytes_out=" + out + " saved=" + (in - out)
+                    + " ratio=" + (in == 0 ? "0" : String.format("%.2f", (double) out / in));
+        });
+    }
+
+    private FrameCompression() {
+    }
+
+    /**
+     * Deflate a frame body.
+     *
+     * @return The compressed body, or null if it would not be smaller
+     */
+    static byte[] compress(byte[] frame, int offset, int length) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        } else {
+            pooledDeflaters.decrementAndGet();
+        }
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(frame, offset, length);
+            deflater.finish();
+            // Anything not smaller than the input is sent uncompressed
+            byte[] out = new byte[length];
+            int n = 0;
+            while (!deflater.finished() && n < out.length) {
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            if (!deflater.finished()) {
+                framesSkipped.incrementAndGet();
+                return null;
+            }
+            byte[] compressed = new byte[n];
+            System.arraycopy(out, 0, compressed, 0, n);
+            return compressed;
+        } finally {
+            deflater.reset();
+            if (pooledDeflaters.incrementAndGet() <= MAX_POOLED) {
+                deflaters.offer(deflater);
+            } else {
+                pooledDeflaters.decrementAndGet();
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Inflate a compressed frame body from a client.
+     *
+     * @param maxLength Largest inflated size accepted
+     * @return The inflated body, or null if it would exceed maxLength
+     * @throws IllegalStateException if the body is not a valid compressed frame
+     */
+    static byte[] decompress(byte[] body, int offset, int length, int maxLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+            byte[] chunk = new byte[Math.min(8192, Math.max(64, length * 4))];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalStateException("Truncated compressed frame");
+                    }
+                }
+                out.write(chunk, 0, n);
+                if (out.size() > maxLength) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Invalid compressed frame: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Count a compressed frame put on the wire.
+     */
+    static void recordWrite(int uncompressedLength, int compressedLength) {
+        framesCompressed.incrementAndGet();
+        bytesIn.addAndGet(uncompressedLength);
+        bytesOut.addAndGet(compressedLength);
+    }
+}
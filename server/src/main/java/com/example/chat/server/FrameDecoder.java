@@ -0,0 +1,248 @@
+package com.example.chat.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Incremental decoder for JSON frames, newline-delimited or length-prefixed.
+ *
+ * Bytes arrive in arbitrary chunks, so a frame may be split across several
+ * reads (or several frames may arrive in one read). Bytes of an unfinished
+ * frame are kept here until the frame is complete. A frame that lies wholly
+ * inside one read buffer is decoded straight from it.
+ *
+ * In {@link Framing.Mode#LENGTH_PREFIXED} mode each frame is a 4-byte
+ * big-endian length followed by that many bytes of UTF-8 JSON, so the body
+ * is copied without scanning it for delimiters. A length with
+ * {@link FrameCompression#COMPRESSED_FLAG} set announces a deflated body.
+ *
+ * No frame may exceed the maximum frame size (chat.frame.max.bytes). An
+ * oversized frame is reported as soon as it is detected, before it is
+ * buffered, and its remaining bytes are skipped so decoding can go on with
+ * the next frame.
+ */
+public class FrameDecoder {
+    public static final int DEFAULT_MAX_FRAME_LENGTH = Integer.getInteger("chat.frame.max.bytes", 1024 * 1024);
+
+    private static final int INITIAL_CAPACITY = 256;
+    // A buffer grown past this for one large frame is released once the frame is done
+    private static final int RETAINED_CAPACITY = 16 * 1024;
+    private static final int HEADER_SIZE = 4;
+
+    /**
+     * Thrown when a frame exceeds the maximum size. The decoder stays usable:
+     * the rest of the frame is skipped and decoding resumes after it.
+     */
+    public static class FrameTooLargeException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        FrameTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    private final int maxFrameLength;
+    private Framing.Mode mode = Framing.Mode.NEWLINE;
+    private byte[] pending = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+
+    // Length-prefixed mode: header bytes seen so far, and the body length once known (-1 before)
+    private byte[] header = new byte[HEADER_SIZE];
+    private int headerBytes = 0;
+    private int frameLength = -1;
+    private boolean compressed = false;
+
+    // Rest of an oversized frame still to be skipped
+    private boolean skippingLine = false;
+    private long skipBytes = 0;
+
+    public FrameDecoder() {
+        this(DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public FrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Switch how the following bytes are delimited. Takes effect at the next
+     * frame boundary; call it between frames.
+     */
+    public void setMode(Framing.Mode mode) {
+        this.mode = mode;
+    }
+
+    public Framing.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Consume all readable bytes from the buffer, appending every completed
+     * frame to the output list.
+     *
+     * @param in  Buffer in read mode
+     * @param out List receiving decoded frames
+     * @throws FrameTooLargeException if a frame exceeds the maximum size; frames
+     *         decoded before it are in the list, and the bytes after it are
+     *         still in the buffer
+     */
+    public void decode(ByteBuffer in, List<String> out) {
+        String frame;
+        while ((frame = next(in)) != null) {
+            out.add(frame);
+        }
+    }
+
+    /**
+     * Consume bytes up to the end of the next frame. Bytes after it stay in
+     * the buffer, so the mode can change before they are decoded.
+     *
+     * @param in Buffer in read mode
+     * @return The frame (newline frames trimmed, like {@link StreamFraming#readFrame()}),
+     *         or null if the buffer ran out first
+     * @throws FrameTooLargeException if the frame exceeds the maximum size
+     */
+    public String next(ByteBuffer in) {
+        return mode == Framing.Mode.LENGTH_PREFIXED ? nextLengthPrefixed(in) : nextLine(in);
+    }
+
+    private String nextLine(ByteBuffer in) {
+        int start = in.position();
+        int limit = in.limit();
+        int end = start;
+        while (end < limit && in.get(end) != '\n') {
+            end++;
+        }
+
+        if (skippingLine) {
+            in.position(end < limit ? end + 1 : limit);
+            if (end == limit) {
+                return null;
+            }
+            skippingLine = false;
+            return nextLine(in);
+        }
+
+        int count = end - start;
+        if (length + count > maxFrameLength) {
+            // Too long already, whether or not the newline has arrived
+            skippingLine = end == limit;
+            in.position(end < limit ? end + 1 : limit);
+            release();
+            throw tooLarge();
+        }
+        if (end == limit) {
+            ensureCapacity(length + count);
+            in.get(pending, length, count);
+            length += count;
+            return null;
+        }
+
+        String frame;
+        if (length == 0 && in.hasArray()) {
+            frame = new String(in.array(), in.arrayOffset() + start, count, StandardCharsets.UTF_8).trim();
+            in.position(end + 1);
+        } else {
+            ensureCapacity(length + count);
+            in.get(pending, length, count);
+            in.get();
+            frame = new String(pending, 0, length + count, StandardCharsets.UTF_8).trim();
+            release();
+        }
+        return frame;
+    }
+
+    private String nextLengthPrefixed(ByteBuffer in) {
+        if (skipBytes > 0) {
+            int n = (int) Math.min(skipBytes, in.remaining());
+            in.position(in.position() + n);
+            skipBytes -= n;
+            if (skipBytes > 0) {
+                return null;
+            }
+        }
+
+        while (frameLength < 0) {
+            if (!in.hasRemaining()) {
+                return null;
+            }
+            header[headerBytes++] = in.get();
+            if (headerBytes == HEADER_SIZE) {
+                int value = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16)
+                        | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+                headerBytes = 0;
+                int bodyLength = value & ~FrameCompression.COMPRESSED_FLAG;
+                if (bodyLength > maxFrameLength) {
+                    // Rejected on the header alone; the body is never buffered
+                    skipBytes = bodyLength;
+                    throw tooLarge();
+                }
+                compressed = (value & FrameCompression.COMPRESSED_FLAG) != 0;
+                frameLength = bodyLength;
+            }
+        }
+
+        int wanted = frameLength - length;
+        if (length == 0 && in.hasArray() && in.remaining() >= frameLength) {
+            // Whole body already in the buffer: decode it in place
+            int start = in.arrayOffset() + in.position();
+            in.position(in.position() + frameLength);
+            frameLength = -1;
+            return body(in.array(), start, wanted);
+        }
+        int n = Math.min(wanted, in.remaining());
+        ensureCapacity(length + n);
+        in.get(pending, length, n);
+        length += n;
+        if (length < frameLength) {
+            return null;
+        }
+        frameLength = -1;
+        try {
+            return body(pending, 0, length);
+        } finally {
+            release();
+        }
+    }
+
+    private String body(byte[] bytes, int offset, int count) {
+        if (!compressed) {
+            return new String(bytes, offset, count, StandardCharsets.UTF_8);
+        }
+        byte[] inflated = FrameCompression.decompress(bytes, offset, count, maxFrameLength);
+        if (inflated == null) {
+            throw tooLarge();
+        }
+        return new String(inflated, StandardCharsets.UTF_8);
+    }
+
+    private FrameTooLargeException tooLarge() {
+        return new FrameTooLargeException("Frame exceeds the " + maxFrameLength + " byte limit");
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > pending.length) {
+            byte[] grown = new byte[Math.max(pending.length * 2, capacity)];
+            System.arraycopy(pending, 0, grown, 0, length);
+            pending = grown;
+        }
+    }
+
+    /**
+     * Forget the buffered frame, dropping a buffer that only grew for it.
+     */
+    private void release() {
+        length = 0;
+        if (pending.length > RETAINED_CAPACITY) {
+            pending = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * @return Number of buffered bytes belonging to an unfinished frame
+     */
+    public int pendingBytes() {
+        return length + headerBytes;
+    }
+}
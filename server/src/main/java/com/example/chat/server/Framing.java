@@ -1,90 +1,190 @@
 package com.example.chat.server;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Handles TCP frame reading/writing using newline-delimited JSON.
- * 
+ * Frames JSON on a TCP connection using newline-delimited JSON.
+ *
  * Since TCP doesn't preserve message boundaries, we use newlines to delimit
  * JSON frames. This allows sending multiple JSON objects over a single stream.
+ * A client may switch its connection to length-prefixed frames instead (see
+ * {@link Mode}) with a set_framing request.
+ *
+ * This holds what both kinds of connection share: the delimiting mode,
+ * compression and the outbound queue. {@link StreamFraming} reads and writes
+ * blocking socket streams, and its reader thread pulls frames with
+ * readFrame(); {@link ChannelFraming} is driven by an {@link EventLoop},
+ * which pushes decoded frames to the ClientHandler.
  */
-public class Framing {
-    private BufferedReader reader;
-    private PrintWriter writer;
+public abstract class Framing {
+    protected static final byte[] NEWLINE = { '\n' };
 
     /**
-     * Initialize the Framing handler with input/output streams.
-     * 
-     * @param inputStream  Input stream from socket
-     * @param outputStream Output stream from socket
-     * @throws UnsupportedEncodingException if UTF-8 is not supported
+     * How frames are delimited on the wire.
      */
-    public Framing(InputStream inputStream, OutputStream outputStream) throws UnsupportedEncodingException {
-        this.reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
-        this.writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"), true);
+    public enum Mode {
+        /** Each frame is followed by '\n' (the default). */
+        NEWLINE,
+        /** Each frame is preceded by its length as a 4-byte big-endian integer. */
+        LENGTH_PREFIXED
     }
 
     /**
-     * Read a single JSON frame (one line) from the stream.
-     * Blocks until a complete frame is available or EOF is reached.
-     * 
-     * @return The JSON string, or null if EOF reached
-     * @throws IOException if an I/O error occurs
+     * Produces the JSON of a streamed frame, see {@link Framing#writeStreamed}.
      */
-    public String readFrame() throws IOException {
-        String frame = reader.readLine();
-        if (frame != null) {
-            frame = frame.trim();
+    @FunctionalInterface
+    public interface FrameBody<E extends Exception> {
+        void write(JsonWriter json) throws E;
+    }
+
+    // How long a drain waits for more frames before flushing a batch (0 = flush as soon as the queue is empty)
+    protected static final long FLUSH_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(Long.getLong("chat.flush.delay.micros", 0L));
+
+    // Totals across all connections, for frames-per-flush
+    private static final AtomicLong framesWritten = new AtomicLong();
+    private static final AtomicLong flushes = new AtomicLong();
+
+    static {
+        Metrics.register("framing", () -> {
+            long frames = framesWritten.get();
+            long count = flushes.get();
+            return "frames=" + frames + " flushes=" + count
+                    + " frames_per_flush=" + (count == 0 ? "0" : String.format("%.2f", (double) frames / count));
+        });
+    }
+
+    protected final FrameDecoder decoder = new FrameDecoder();
+
+    // Delimiting used for outbound frames
+    protected volatile Mode writeMode = Mode.NEWLINE;
+    // Deflate large outbound frames; only with length-prefixed frames
+    protected volatile boolean compressing = false;
+
+    // Frames pushed by other threads wait here until they are written
+    protected final OutboundQueue outbound = new OutboundQueue();
+
+    /**
+     * Switch the delimiting of frames in both directions. Frames read after
+     * this call and frames written after it use the new mode.
+     *
+     * Only safe between frames and while nothing is queued for the client,
+     * which is why it is only accepted before login.
+     */
+    public abstract void setMode(Mode mode);
+
+    public Mode getMode() {
+        return writeMode;
+    }
+
+    /**
+     * Deflate outbound frames of at least chat.compression.threshold bytes
+     * from now on. Requires length-prefixed mode, whose header carries the
+     * compressed flag.
+     *
+     * @return false if the connection is not length-prefixed
+     */
+    public boolean enableCompression() {
+        if (writeMode != Mode.LENGTH_PREFIXED) {
+            return false;
         }
-        return frame;
+        compressing = true;
+        return true;
     }
 
     /**
      * Write a JSON frame (one line) to the stream.
      * Automatically appends a newline as a frame delimiter.
-     * 
+     * Safe to call from several threads at once.
+     *
      * @param jsonFrame The JSON string to send
      */
     public void writeFrame(String jsonFrame) {
-        if (jsonFrame != null) {
-            writer.println(jsonFrame);
-            writer.flush();
+        if (jsonFrame == null) {
+            return;
         }
+        byte[] bytes = jsonFrame.getBytes(StandardCharsets.UTF_8);
+        writeFrame(bytes, 0, bytes.length);
     }
 
     /**
-     * Close the reader and writer, releasing resources.
+     * Write a UTF-8 encoded JSON frame, e.g. the buffer of a {@link JsonWriter}.
+     * The bytes are copied before this returns, so the caller may reuse them.
+     *
+     * @param frame  Buffer holding the encoded frame
+     * @param offset Start of the frame in the buffer
+     * @param length Length of the frame in bytes
+     */
+    public abstract void writeFrame(byte[] frame, int offset, int length);
+
+    /**
+     * Write a frame whose JSON is produced while it is sent. By default the
+     * frame is built whole in the pooled writer and written as usual;
+     * {@link StreamFraming} sends newline-delimited frames as they are
+     * encoded.
+     *
+     * The body should only encode data already in memory; a body that reads
+     * from the database could hold its pooled connection for as long as a
+     * slow client takes to read.
+     *
+     * @throws E what the body threw
      */
-    public void close() {
-        try {
-            if (reader != null) {
-                reader.close();
-            }
-        } catch (IOException ignored) {
+    public <E extends Exception> void writeStreamed(FrameBody<E> body) throws E {
+        try (JsonWriter json = JsonWriter.obtain()) {
+            body.write(json);
+            writeFrame(json.buffer(), 0, json.length());
         }
+    }
+
+    /**
+     * Queue a frame for this client without blocking the caller.
+     *
+     * @param frame The frame to send
+     * @return false if the outbound queue overflowed and the client should be
+     *         disconnected
+     */
+    public abstract boolean enqueue(OutboundFrame frame);
+
+    /**
+     * @return Frames waiting in the outbound queue
+     */
+    public OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
 
-        try {
-            if (writer != null) {
-                writer.close();
-            }
-        } catch (Exception ignored) {
+    /**
+     * Close the connection, releasing resources.
+     */
+    public abstract void close();
+
+    /**
+     * @return The compressed body to send for a queued frame, or null to send
+     *         it as is
+     */
+    protected byte[] compressedPayload(OutboundFrame frame) {
+        return compressing ? frame.getCompressedPayload() : null;
+    }
+
+    /**
+     * @return The bytes that delimit a frame of the given length in the
+     *         current mode; a suffix in newline mode, a prefix otherwise
+     */
+    protected ByteBuffer delimiter(int length, boolean compressed) {
+        if (writeMode == Mode.LENGTH_PREFIXED) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            header.putInt(compressed ? length | FrameCompression.COMPRESSED_FLAG : length).flip();
+            return header;
         }
+        return ByteBuffer.wrap(NEWLINE);
     }
 
     /**
-     * Check if the reader is ready (has data available).
-     * 
-     * @return true if data is available to read
-     * @throws IOException if an I/O error occurs
+     * Count a flush that put the given number of frames on the wire.
      */
-    public boolean isReady() throws IOException {
-        return reader.ready();
+    protected static void recordFlush(int frames) {
+        framesWritten.addAndGet(frames);
+        flushes.incrementAndGet();
     }
 }
@@ -0,0 +1,69 @@
+package com.example.chat.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only view of the fields of a decoded JSON object.
+ *
+ * Produced by {@link JsonParser}; values are String, Long, Double, Boolean,
+ * List or nested JsonObject. Typed getters return null when the field is
+ * missing or holds a value of another type.
+ */
+public class JsonObject {
+    private final Map<String, Object> fields = new HashMap<>();
+
+    JsonObject() {
+    }
+
+    void put(String key, Object value) {
+        fields.put(key, value);
+    }
+
+    public boolean has(String key) {
+        return fields.containsKey(key);
+    }
+
+    public Object get(String key) {
+        return fields.get(key);
+    }
+
+    public String getString(String key) {
+        Object value = fields.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public Long getLong(String key) {
+        Object value = fields.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    public Boolean getBoolean(String key) {
+        Object value = fields.get(key);
+        return value instanceof Boolean ? (Boolean) value : null;
+    }
+
+    public JsonObject getObject(String key) {
+        Object value = fields.get(key);
+        return value instanceof JsonObject ? (JsonObject) value : null;
+    }
+
+    /**
+     * @return The string elements of an array field, or null if the field is not an array
+     */
+    public List<String> getStringList(String key) {
+        Object value = fields.get(key);
+        if (!(value instanceof List)) {
+            return null;
+        }
+        List<String> strings = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            if (element instanceof String) {
+                strings.add((String) element);
+            }
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds outbound JSON frames straight into a UTF-8 byte buffer.
+ *
+ * Strings are escaped and encoded in a single pass, so a response is never
+ * held as concatenated Strings, a StringBuilder and an encoded copy at the
+ * same time. Writers are pooled: obtain one, build the frame, hand its bytes
+ * to a Framing, and close it to return the buffer.
+ *
+ * <pre>
+ * try (JsonWriter json = JsonWriter.obtain()) {
+ *     json.beginObject().field("type", "mekey").endObject();
+ *     ProtocolParser.sendRaw(json, framing);
+ * }
+ * </pre>
+ *
+ * Commas are inserted automatically between fields and array elements.
+ *
+ * A writer can also stream: given a {@link Sink}, it hands its bytes on
+ * whenever the buffer fills instead of growing it, so a frame of any size
+ * is built in one buffer (see {@link Framing#writeStreamed}).
+ */
+public final class JsonWriter implements AutoCloseable {
+    private static final int INITIAL_CAPACITY = 512;
+    // Larger buffers are not kept, so one big history response does not pin memory in the pool
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final int MAX_POOLED_WRITERS = 256;
+    // Most bytes a streaming writer holds before handing them to its sink
+    private static final int STREAM_CHUNK = 8 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Queue<JsonWriter> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private byte[] buf = new byte[INITIAL_CAPACITY];
+    private int len = 0;
+    private boolean needsComma = false;
+
+    // Set while streaming; receives the buffer each time it fills
+    private Sink sink = null;
+
+    /**
+     * Takes the bytes of a streamed frame as they are built.
+     */
+    @FunctionalInterface
+    interface Sink {
+        void write(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private JsonWriter() {
+    }
+
+    /**
+     * @return An empty writer from the pool
+     */
+    public static JsonWriter obtain() {
+        JsonWriter writer = pool.poll();
+        if (writer == null) {
+            return new JsonWriter();
+        }
+        pooled.decrementAndGet();
+        return writer;
+    }
+
+    /**
+     * Return this writer to the pool. It must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        len = 0;
+        needsComma = false;
+        sink = null;
+        if (buf.length > MAX_POOLED_CAPACITY) {
+            buf = new byte[INITIAL_CAPACITY];
+        }
+        if (pooled.incrementAndGet() <= MAX_POOLED_WRITERS) {
+            pool.offer(this);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public JsonWriter beginObject() {
+        separate();
+        put((byte) '{');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        put((byte) '}');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separate();
+        put((byte) '[');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        put((byte) ']');
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write a field name; the next value call supplies its value.
+     */
+    public JsonWriter name(String name) {
+        separate();
+        writeString(name);
+        put((byte) ':');
+        needsComma = false;
+        return this;
+    }
+
+    /**
+     * Write a string value. A null string is written as "", which is what
+     * clients of this protocol have always received for missing fields.
+     */
+    public JsonWriter value(String value) {
+        separate();
+        writeString(value == null ? "" : value);
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        separate();
+        writeAscii("null");
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separate();
+        writeAscii(value ? "true" : "false");
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separate();
+        writeAscii(Long.toString(value));
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter field(String name, String value) {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, boolean value) {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, long value) {
+        return name(name).value(value);
+    }
+
+    /**
+     * Hand the bytes written from now on to the sink whenever the buffer
+     * holds 8 KiB or is full. A sink failure surfaces from the write call as an
+     * UncheckedIOException. Bytes still buffered when the frame is done are
+     * left for the caller, see {@link #buffer()}.
+     */
+    void streamTo(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @return The internal buffer; only the first {@link #length()} bytes are valid
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private void separate() {
+        if (needsComma) {
+            put((byte) ',');
+        }
+    }
+
+    /**
+     * Escape and UTF-8 encode a string in one pass.
+     */
+    private void writeString(String s) {
+        int n = s.length();
+        ensure(n + 2);
+        buf[len++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    ensure(2);
+                    buf[len++] = '\\';
+                    buf[len++] = (byte) c;
+                } else if (c < 0x20) {
+                    writeControl(c);
+                } else {
+                    ensure(1);
+                    buf[len++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[len++] = (byte) (0xC0 | (c >> 6));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buf[len++] = (byte) (0xF0 | (cp >> 18));
+                buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate; same replacement as String.getBytes
+                ensure(1);
+                buf[len++] = '?';
+            } else {
+                ensure(3);
+                buf[len++] = (byte) (0xE0 | (c >> 12));
+                buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        ensure(1);
+        buf[len++] = '"';
+    }
+
+    private void writeControl(char c) {
+        ensure(6);
+        buf[len++] = '\\';
+        switch (c) {
+            case '\n':
+                buf[len++] = 'n';
+                break;
+            case '\r':
+                buf[len++] = 'r';
+                break;
+            case '\t':
+                buf[len++] = 't';
+                break;
+            case '\b':
+                buf[len++] = 'b';
+                break;
+            case '\f':
+                buf[len++] = 'f';
+                break;
+            default:
+                buf[len++] = 'u';
+                buf[len++] = '0';
+                buf[len++] = '0';
+                buf[len++] = HEX[c >> 4];
+                buf[len++] = HEX[c & 0xF];
+                break;
+        }
+    }
+
+    private void writeAscii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buf[len++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buf[len++] = b;
+    }
+
+    private void ensure(int extra) {
+        if (sink != null && len > 0 && len + extra > Math.min(buf.length, STREAM_CHUNK)) {
+            drain();
+        }
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+
+    private void drain() {
+        try {
+            sink.write(buf, 0, len);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        len = 0;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.chat.server;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Messages in memory only, a sorted map per conversation. Nothing outlives
+ * the process; meant for benchmarks and tests, and as the read side of
+ * stores that rebuild it from their own files at startup.
+ *
+ * Reads never block saves: each conversation's map is a concurrent skip
+ * list, and a scan sees a message as soon as its save returns.
+ */
+final class MemoryMessageStore implements MessageStore {
+
+    private final Map<String, NavigableMap<Long, Message>> conversations = new ConcurrentHashMap<>();
+    private final AtomicLong lastSeq = new AtomicLong();
+
+    @Override
+    public void save(Message message) {
+        NavigableMap<Long, Message> messages = conversations.computeIfAbsent(message.getConversationId(),
+                id -> new ConcurrentSkipListMap<>());
+        synchronized (messages) {
+            // A message that lost the race to its conversation sorts after
+            // the winner, so a reader never finds one behind a later cursor
+            if (!messages.isEmpty() && message.getSeq() <= messages.lastKey()) {
+                message.resequence(MessageIds.next());
+            }
+            messages.put(message.getSeq(), message);
+        }
+        lastSeq.accumulateAndGet(message.getSeq(), Math::max);
+    }
+
+    @Override
+    public void scan(String conversationId, Long from, Long to, int limit, RowVisitor<Message> visitor)
+            throws SQLException {
+        int visited = 0;
+        for (Message m : range(conversationId, from, to).values()) {
+            if (visited++ == limit) {
+                break;
+            }
+            visitor.visit(m);
+        }
+    }
+
+    @Override
+    public Long seqBefore(String conversationId, Long before, int skip) {
+        Iterator<Long> older = range(conversationId, null, before).descendingKeySet().iterator();
+        for (int i = 0; i < skip && older.hasNext(); i++) {
+            older.next();
+        }
+        return older.hasNext() ? older.next() : null;
+    }
+
+    @Override
+    public long lastSeq() {
+        return lastSeq.get();
+    }
+
+    /**
+     * @return The conversation's messages strictly between two sequences,
+     *         a null bound being open
+     */
+    private NavigableMap<Long, Message> range(String conversationId, Long from, Long to) {
+        NavigableMap<Long, Message> messages = conversations.get(conversationId);
+        if (messages == null) {
+            return Collections.emptyNavigableMap();
+        }
+        if (from != null) {
+            messages = messages.tailMap(from, false);
+        }
+        if (to != null) {
+            messages = messages.headMap(to, false);
+        }
+        return messages;
+    }
+}
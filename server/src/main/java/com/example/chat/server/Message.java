@@ -1,91 +1,271 @@
 package com.example.chat.server;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.UUID;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * A chat message. Where messages are kept is up to the {@link MessageStore}
+ * set up at startup; save() and the history reads here go through it.
+ */
 public class Message {
+    private long seq; // Time-ordered row key, see MessageIds
     private String messageId;
     private String conversationId;
     private String senderId;
     private String content; // Stores the encrypted ciphertext
-    private String createdAt;
+    private long createdAt; // Epoch milliseconds
 
-    private static SQLiteDatabase db;
+    private static MessageStore store;
+
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 500;
 
     public Message(String conversationId, String senderId, String content) {
-        this.messageId = UUID.randomUUID().toString();
+        this.seq = MessageIds.next();
+        this.messageId = MessageIds.externalId(seq);
         this.conversationId = conversationId;
         this.senderId = senderId;
         this.content = content;
-        this.createdAt = LocalDateTime.now().toString();
+        this.createdAt = MessageIds.millisOf(seq);
+    }
+
+    /**
+     * A message as a {@link MessageStore} read it back.
+     */
+    Message(long seq, String messageId, String conversationId, String senderId, String content,
+            long createdAt) {
+        this.seq = seq;
+        this.messageId = messageId;
+        this.conversationId = conversationId;
+        this.senderId = senderId;
+        this.content = content;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * One page of a conversation's history, oldest message first.
+     */
+    public static final class Page {
+        private final List<Message> messages;
+        private final boolean hasMore;
+        private final String nextCursor;
+        private final String prevCursor;
+
+        Page(List<Message> messages, boolean hasMore, String nextCursor, String prevCursor) {
+            this.messages = messages;
+            this.hasMore = hasMore;
+            this.nextCursor = nextCursor;
+            this.prevCursor = prevCursor;
+        }
+
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return Whether the page was cut short at the limit
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+
+        /**
+         * @return Cursor that continues in the direction this page was read,
+         *         or null for an empty page read backwards
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        /**
+         * @return Cursor that goes the other way from this page, or null if
+         *         the page is empty
+         */
+        public String getPrevCursor() {
+            return prevCursor;
+        }
     }
 
     public static void initialize(SQLiteDatabase database) {
-        db = database;
-    }
-
-    public static java.util.List<Message> findByConversationId(String conversationId) throws SQLException {
-        if (db == null) return new java.util.ArrayList<>();
-        
-        String sql = "SELECT * FROM MESSAGES WHERE conversation_id = ? ORDER BY created_at ASC";
-        java.util.List<Message> messages = new java.util.ArrayList<>();
-
-        try (Connection conn = db.connect();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, conversationId);
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                Message m = new Message(
-                    rs.getString("conversation_id"),
-                    rs.getString("sender_id"),
-                    rs.getString("content")
-                );
-                // We need to set the ID and timestamp from DB, but constructor generates new ones.
-                // Let's use a private constructor or reflection, or just set fields if not final.
-                // Since fields are private and no setters, let's add a constructor for DB retrieval.
-                m.messageId = rs.getString("message_id");
-                m.createdAt = rs.getString("created_at");
-                messages.add(m);
-            }
+        initialize(database, null);
+    }
+
+    /**
+     * Keep messages in the database.
+     *
+     * @param messageBatcher Group-commits {@link #save()} calls; null writes
+     *        each message in its own transaction
+     */
+    static void initialize(SQLiteDatabase database, MessageBatcher messageBatcher) {
+        initializeStore(database == null ? null : new SQLiteMessageStore(database, messageBatcher));
+    }
+
+    /**
+     * Keep messages in the given store; null leaves messages unsaved.
+     */
+    static void initializeStore(MessageStore messageStore) {
+        store = messageStore;
+        if (store == null)
+            return;
+
+        // New sequences must sort after stored ones even if the clock went back
+        try {
+            MessageIds.advancePast(store.lastSeq());
         } catch (SQLException e) {
-            System.err.println("DB Error finding messages: " + e.getMessage());
-            throw e;
+            System.err.println("DB Error reading the last message sequence: " + e.getMessage());
         }
-        return messages;
     }
 
-    public void save() throws SQLException {
-        if (db == null)
-            throw new IllegalStateException("Database connection not initialized.");
+    static MessageStore getStore() {
+        return store;
+    }
 
-        String sql = "INSERT INTO MESSAGES(message_id, conversation_id, sender_id, content, created_at) "
-                + "VALUES(?, ?, ?, ?, ?)";
+    public static List<Message> findByConversationId(String conversationId) throws SQLException {
+        if (store == null) return new ArrayList<>();
+        return store.findByConversationId(conversationId);
+    }
 
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    /**
+     * Read one page of a conversation's history by message sequence: a range
+     * read in the store, so a page costs the same however deep into the
+     * history it is.
+     *
+     * Without a cursor this is the newest page. {@code before} pages towards
+     * older messages, {@code after} towards newer ones; at most one of them
+     * may be set.
+     *
+     * @throws IllegalArgumentException if a cursor is malformed, or both are set
+     */
+    public static Page findPage(String conversationId, int limit, String before, String after) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        Page page = visitPage(conversationId, limit, before, after, messages::add);
+        return new Page(messages, page.hasMore, page.nextCursor, page.prevCursor);
+    }
 
-            pstmt.setString(1, this.messageId);
-            pstmt.setString(2, this.conversationId);
-            pstmt.setString(3, this.senderId);
-            pstmt.setString(4, this.content);
-            pstmt.setString(5, this.createdAt);
+    /**
+     * Read a page like {@link #findPage}, handing its messages to the visitor
+     * oldest first as they are read instead of collecting them.
+     *
+     * @return The page's paging state; its message list is empty
+     * @throws IllegalArgumentException if a cursor is malformed, or both are set
+     */
+    static Page visitPage(String conversationId, int limit, String before, String after,
+            RowVisitor<Message> visitor) throws SQLException {
+        if (before != null && after != null) {
+            throw new IllegalArgumentException("Only one of 'before' and 'after' may be set");
+        }
+        boolean forward = after != null;
+        Long cursor = forward ? decodeCursor(after) : before != null ? decodeCursor(before) : null;
+        int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        if (store == null) return new Page(Collections.emptyList(), false, forward ? after : null, null);
 
-            pstmt.executeUpdate();
-            System.out.println("DB: Saved new message in conversation " + this.conversationId);
+        Scan scan = new Scan(size, visitor);
+        if (forward) {
+            // One extra message tells whether there is another page
+            store.scan(conversationId, cursor, null, size + 1, scan);
+        } else {
+            // Find the newest message older than the page first, so the page
+            // itself can be read oldest first. Stores give a message its final
+            // sequence when they append it (see resequence), so a message
+            // saved in between sorts after the page and cannot shift it.
+            Long start = store.seqBefore(conversationId, cursor, size);
+            store.scan(conversationId, start, cursor, size, scan);
+            scan.more = start != null;
+        }
 
-        } catch (SQLException e) {
-            System.err.println("DB Error saving message: " + e.getMessage());
-            throw e;
+        List<Message> none = Collections.emptyList();
+        if (scan.first == null) {
+            // An empty forward page keeps its cursor so the client can poll it
+            return new Page(none, false, forward ? after : null, null);
+        }
+        String oldest = cursorOf(scan.first);
+        String newest = cursorOf(scan.last);
+        return forward ? new Page(none, scan.more, newest, oldest) : new Page(none, scan.more, oldest, newest);
+    }
+
+    /**
+     * Visits at most {@code size} messages, noting the first and last one
+     * and whether more than that were read.
+     */
+    private static final class Scan implements RowVisitor<Message> {
+        private final int size;
+        private final RowVisitor<Message> visitor;
+        private int visited;
+        Message first;
+        Message last;
+        boolean more;
+
+        Scan(int size, RowVisitor<Message> visitor) {
+            this.size = size;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void visit(Message m) throws SQLException {
+            if (visited == size) {
+                more = true;
+                return;
+            }
+            visitor.visit(m);
+            if (first == null) {
+                first = m;
+            }
+            last = m;
+            visited++;
         }
     }
 
+    /**
+     * Cursors are opaque to clients: the message's sequence, base64url encoded.
+     */
+    static String cursorOf(Message m) {
+        byte[] key = Long.toString(m.seq).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key);
+    }
+
+    private static Long decodeCursor(String cursor) {
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            // Also covers NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    /**
+     * Persist this message in the configured {@link MessageStore}.
+     */
+    public void save() throws SQLException {
+        if (store == null)
+            throw new IllegalStateException("Message store not initialized.");
+
+        store.save(this);
+    }
+
+    /**
+     * Give a message that has not been stored yet a later sequence. The one
+     * taken in the constructor orders messages by when they were created,
+     * but savers on different threads reach the store in any order; every
+     * store appends in sequence order by resequencing a message as it is
+     * appended, so a client that has paged past a sequence never misses a
+     * smaller one committed later. The ID and creation time stay as they are.
+     */
+    void resequence(long seq) {
+        this.seq = seq;
+    }
+
+    /**
+     * @return The time-ordered sequence that orders this message within its
+     *         conversation
+     */
+    public long getSeq() {
+        return seq;
+    }
+
     public String getMessageId() {
         return messageId;
     }
@@ -102,7 +282,10 @@ public class Message {
         return content;
     }
 
-    public String getCreatedAt() {
+    /**
+     * @return When the message was sent, in epoch milliseconds
+     */
+    public long getCreatedAt() {
         return createdAt;
     }
 }
\ No newline at end of file
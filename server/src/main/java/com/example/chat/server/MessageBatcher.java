@@ -0,0 +1,280 @@
+package com.example.chat.server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit for message inserts.
+ *
+ * Saved messages are queued and collected by one committer thread, which
+ * hands each batch to the {@link DatabaseWriter} as one transaction. A batch is committed once it
+ * holds chat.message.batch.size messages, or once its oldest message has
+ * waited chat.message.batch.delay.ms, whichever comes first. With a delay of
+ * 0 a batch is whatever queued up while the previous commit ran.
+ *
+ * Durability (chat.message.durability):
+ * <ul>
+ * <li>{@code commit} (default): {@link #save} returns once the message's
+ *     batch is committed, and throws if it failed</li>
+ * <li>{@code enqueue}: {@link #save} returns once the message is queued; a
+ *     crash loses messages not yet committed, and failures are only logged</li>
+ * </ul>
+ * When the queue is full, savers wait for room.
+ */
+final class MessageBatcher {
+
+    enum Durability {
+        COMMIT,
+        ENQUEUE
+    }
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private static final class Pending {
+        final Message message;
+        final long enqueuedNanos = System.nanoTime();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Message message) {
+            this.message = message;
+        }
+    }
+
+    // Queued by close() after the last message; wakes the committer to finish
+    private static final Pending CLOSE = new Pending(null);
+
+    private final SQLiteDatabase db;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final Durability durability;
+    private final BlockingQueue<Pending> queue;
+    // Held while enqueueing, so close() cannot slip in between the check and the put
+    private final ReentrantLock enqueueLock = new ReentrantLock();
+    private volatile boolean closed = false;
+    private final Thread committer;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong maxBatchSeen = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    MessageBatcher(SQLiteDatabase db, int maxBatch, long maxDelayMillis, Durability durability, int capacity) {
+        this.db = db;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        this.durability = durability;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.committer = new Thread(this::run, "message-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+        Metrics.register("message_batches", this::stats);
+    }
+
+    /**
+     * A batcher configured by the chat.message.* system properties.
+     */
+    static MessageBatcher fromSystemProperties(SQLiteDatabase db) {
+        return new MessageBatcher(db,
+                Integer.getInteger("chat.message.batch.size", 256),
+                Long.getLong("chat.message.batch.delay.ms", 2L),
+                Durability.valueOf(System.getProperty("chat.message.durability", "commit").toUpperCase()),
+                Integer.getInteger("chat.message.queue.capacity", 8192));
+    }
+
+    Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Queue a message for the next batch. Depending on the durability mode,
+     * wait for the batch to commit. Once closed, the message is written on
+     * the calling thread instead.
+     */
+    void save(Message message) throws SQLException {
+        Pending pending = new Pending(message);
+        if (!enqueue(pending)) {
+            commit(Collections.singletonList(pending));
+        }
+        if (durability == Durability.ENQUEUE) {
+            return;
+        }
+        try {
+            pending.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for message commit");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+        }
+    }
+
+    private boolean enqueue(Pending pending) throws SQLException {
+        enqueueLock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            queue.put(pending);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for room in the message queue");
+        } finally {
+            enqueueLock.unlock();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                Pending first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueuedNanos + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || wait <= 0 || closed) {
+                        break;
+                    }
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Nothing interrupts the committer; it stops at the CLOSE marker
+            }
+            // Nothing is queued after the marker, so this batch is the last one
+            boolean last = batch.remove(CLOSE);
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Insert a batch in one transaction. If the transaction fails, retry the
+     * messages one by one so a single bad row fails only its own save.
+     */
+    private void commit(List<Pending> batch) {
+        long start = System.nanoTime();
+        List<Message> rows = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            rows.add(p.message);
+        }
+        try {
+            db.write(conn -> {
+                conn.setAutoCommit(false);
+                try {
+                    SQLiteMessageStore.insertAll(conn, rows);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            if (batch.size() > 1) {
+                System.err.println("MessageBatcher: Batch of " + batch.size()
+                        + " failed, retrying one by one: " + e.getMessage());
+                for (Pending p : batch) {
+                    commit(Collections.singletonList(p));
+                }
+            } else {
+                fail(batch.get(0), e);
+            }
+            return;
+        }
+
+        long now = System.nanoTime();
+        long took = now - start;
+        batches.incrementAndGet();
+        messages.addAndGet(batch.size());
+        maxBatchSeen.accumulateAndGet(batch.size(), Math::max);
+        commitNanos.addAndGet(took);
+        maxCommitNanos.accumulateAndGet(took, Math::max);
+        for (Pending p : batch) {
+            long latency = now - p.enqueuedNanos;
+            latencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            p.done.complete(null);
+        }
+    }
+
+    private void fail(Pending pending, SQLException e) {
+        failures.incrementAndGet();
+        if (durability == Durability.ENQUEUE) {
+            System.err.println("MessageBatcher: Lost message in conversation "
+                    + pending.message.getConversationId() + ": " + e.getMessage());
+        }
+        pending.done.completeExceptionally(e);
+    }
+
+    /**
+     * Stop taking new messages and wait until the queued ones are committed.
+     */
+    void close() {
+        enqueueLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.put(CLOSE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            enqueueLock.unlock();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int getQueued() {
+        return queue.size();
+    }
+
+    String stats() {
+        long b = batches.get();
+        long m = messages.get();
+        return "durability=" + durability.name().toLowerCase()
+                + " queued=" + getQueued() + " batches=" + b + " messages=" + m
+                + " avg_batch=" + (b == 0 ? "0" : String.format("%.1f", (double) m / b))
+                + " max_batch=" + maxBatchSeen.get()
+                + " avg_commit_ms=" + (b == 0 ? "0" : String.format("%.2f", commitNanos.get() / 1e6 / b))
+                + " max_commit_ms=" + String.format("%.2f", maxCommitNanos.get() / 1e6)
+                + " avg_latency_ms=" + (m == 0 ? "0" : String.format("%.2f", latencyNanos.get() / 1e6 / m))
+                + " max_latency_ms=" + String.format("%.2f", maxLatencyNanos.get() / 1e6)
+                + " failures=" + failures.get();
+    }
+}
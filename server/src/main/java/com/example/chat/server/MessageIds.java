@@ -0,0 +1,66 @@
+package com.example.chat.server;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered identifiers for messages.
+ *
+ * A message's sequence is its creation time in milliseconds since the epoch,
+ * shifted left by {@link #SEQUENCE_BITS}, plus a counter that tells apart
+ * messages created in the same millisecond. Sequences are strictly
+ * increasing within a server, and {@link #advancePast} carries that across
+ * restarts and clock steps, so sorting by sequence is sorting by creation
+ * order with no ties. The sequence is the MESSAGES row key and what history
+ * pages are ordered and cursored by. Stores draw a fresh sequence for each
+ * message as they append it (see {@link Message#resequence}), so for stored
+ * messages the order is the order they were committed in.
+ *
+ * The external message ID clients see stays a UUID string; new ones are
+ * version 7 UUIDs, whose leading bits are the same millisecond timestamp, so
+ * they too are appended to their unique index rather than scattered in it.
+ */
+final class MessageIds {
+
+    static final int SEQUENCE_BITS = 16;
+
+    private static final AtomicLong last = new AtomicLong();
+    private static final SecureRandom random = new SecureRandom();
+
+    private MessageIds() {
+    }
+
+    /**
+     * @return A sequence greater than every one handed out before
+     */
+    static long next() {
+        long floor = System.currentTimeMillis() << SEQUENCE_BITS;
+        return last.accumulateAndGet(floor, (prev, now) -> Math.max(prev + 1, now));
+    }
+
+    /**
+     * Make sure sequences handed out from now on are greater than one already
+     * stored, e.g. the largest in the database at startup.
+     */
+    static void advancePast(long seq) {
+        last.accumulateAndGet(seq, Math::max);
+    }
+
+    /**
+     * @return The creation time encoded in a sequence, in epoch milliseconds
+     */
+    static long millisOf(long seq) {
+        return seq >>> SEQUENCE_BITS;
+    }
+
+    /**
+     * @return A version 7 UUID for the given sequence: its timestamp, then
+     *         random bits
+     */
+    static String externalId(long seq) {
+        long msb = (millisOf(seq) << 16) | 0x7000L | (random.nextInt() & 0x0FFFL);
+        long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb).toString();
+    }
+}
@@ -0,0 +1,513 @@
+package com.example.chat.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Messages in append-only, memory-mapped segment files.
+ *
+ * Conversations are hashed onto a fixed number of partitions, each a
+ * directory of segments. A save appends one record to the end of its
+ * partition's newest segment; nothing is ever rewritten in place. A segment
+ * is mapped at its full size (chat.message.log.segment.bytes) when it is
+ * started, so appends are copies into the mapping, and once a record no
+ * longer fits the partition rolls to a new segment, named after the first
+ * sequence it holds so names sort in write order.
+ *
+ * Reads come straight from the mappings: records of other conversations
+ * are skipped by their header, and only the messages returned are decoded.
+ * Each conversation has a sparse in-memory index holding the position of
+ * every chat.message.log.index.interval-th message, so a history page
+ * starts reading at most one interval before its first message instead of
+ * at the start of the partition. The index is rebuilt from the records'
+ * headers at startup.
+ *
+ * A record is its body's length and CRC32, then the body: the message's
+ * sequence, creation time and conversation hash, then its conversation ID,
+ * ID, sender ID and content as length-prefixed UTF-8. The length is
+ * written last, so a record exists once it is whole; at startup the log
+ * ends at the first zero length or record that fails its checksum. Records
+ * are in the page cache when their save returns, so a crashed server loses
+ * nothing; they are forced to disk when a segment rolls and on close.
+ */
+final class MessageLogStore implements MessageStore {
+
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    static final int DEFAULT_PARTITIONS = 8;
+    static final int DEFAULT_INDEX_INTERVAL = 32;
+
+    private static final String SUFFIX = ".log";
+    private static final String PARTITION_PREFIX = "partition-";
+    // Body length and CRC32
+    private static final int HEADER = 8;
+    // Sequence, creation time and conversation hash, ahead of the strings
+    private static final int FIXED = 20;
+
+    private final int segmentBytes;
+    private final int indexInterval;
+    private final Partition[] partitions;
+    private volatile boolean closed = false;
+
+    MessageLogStore(File dir, long segmentBytes) throws IOException {
+        this(dir, segmentBytes, DEFAULT_PARTITIONS, DEFAULT_INDEX_INTERVAL);
+    }
+
+    /**
+     * @param partitions Used when the log is created; an existing log keeps
+     *        the partition count it was created with
+     */
+    MessageLogStore(File dir, long segmentBytes, int partitions, int indexInterval) throws IOException {
+        this.segmentBytes = (int) Math.max(1, Math.min(segmentBytes, Integer.MAX_VALUE));
+        this.indexInterval = Math.max(1, indexInterval);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create message log directory " + dir);
+        }
+        File[] existing = dir.listFiles((d, name) -> name.startsWith(PARTITION_PREFIX));
+        int count = existing != null && existing.length > 0 ? existing.length : Math.max(1, partitions);
+        if (count != partitions) {
+            System.out.println("MessageLogStore: Keeping the log's " + count + " partitions");
+        }
+        this.partitions = new Partition[count];
+        int segments = 0;
+        for (int i = 0; i < count; i++) {
+            this.partitions[i] = new Partition(new File(dir, PARTITION_PREFIX + i));
+            segments += this.partitions[i].segments.size();
+        }
+        System.out.println("MessageLogStore: Loaded " + segments + " segment(s) in " + count + " partition(s) from " + dir);
+    }
+
+    @Override
+    public void save(Message message) throws SQLException {
+        Partition p = partition(message.getConversationId());
+        synchronized (p) {
+            if (closed) {
+                throw new IllegalStateException("Message log is closed");
+            }
+            ConversationIndex c = p.index(message.getConversationId());
+            // A conversation's records must be in sequence order; a message
+            // that lost the race to its partition sorts after the winner
+            if (message.getSeq() <= c.lastSeq) {
+                message.resequence(MessageIds.next());
+            }
+            try {
+                long position = p.append(message, c);
+                c.add(message.getSeq(), position, indexInterval);
+                p.lastSeq = Math.max(p.lastSeq, message.getSeq());
+            } catch (IOException e) {
+                System.err.println("MessageLogStore: Error appending message: " + e.getMessage());
+                throw new SQLException("Failed to append message to the log", e);
+            }
+        }
+    }
+
+    @Override
+    public void scan(String conversationId, Long from, Long to, int limit, RowVisitor<Message> visitor)
+            throws SQLException {
+        if (limit <= 0) {
+            return;
+        }
+        Partition p = partition(conversationId);
+        ConversationIndex c;
+        long start;
+        synchronized (p) {
+            c = p.conversations.get(conversationId);
+            if (c == null) {
+                return;
+            }
+            start = c.positions[from == null ? 0 : Math.max(0, c.floor(from))];
+        }
+        int[] visited = { 0 };
+        p.walk(c, start, (map, body) -> {
+            long seq = map.getLong(body);
+            if (from != null && seq <= from) {
+                return true;
+            }
+            if (to != null && seq >= to) {
+                return false;
+            }
+            visitor.visit(decode(map, body));
+            return ++visited[0] < limit;
+        });
+    }
+
+    @Override
+    public Long seqBefore(String conversationId, Long before, int skip) throws SQLException {
+        Partition p = partition(conversationId);
+        ConversationIndex c;
+        long older;
+        synchronized (p) {
+            c = p.conversations.get(conversationId);
+            if (c == null) {
+                return null;
+            }
+            older = c.count;
+        }
+        if (before != null) {
+            // Messages older than the cursor: those before the last index
+            // entry below it, then a count from that entry
+            int entry;
+            long start;
+            synchronized (p) {
+                entry = c.floor(before - 1);
+                if (entry < 0) {
+                    return null;
+                }
+                start = c.positions[entry];
+            }
+            long[] counted = { (long) entry * indexInterval };
+            p.walk(c, start, (map, body) -> {
+                if (map.getLong(body) >= before) {
+                    return false;
+                }
+                counted[0]++;
+                return true;
+            });
+            older = counted[0];
+        }
+
+        long target = older - 1 - skip;
+        if (target < 0) {
+            return null;
+        }
+        int entry = (int) (target / indexInterval);
+        long start;
+        synchronized (p) {
+            start = c.positions[entry];
+        }
+        long[] found = { target - (long) entry * indexInterval, -1 };
+        p.walk(c, start, (map, body) -> {
+            if (found[0]-- == 0) {
+                found[1] = map.getLong(body);
+                return false;
+            }
+            return true;
+        });
+        return found[1] < 0 ? null : found[1];
+    }
+
+    @Override
+    public long lastSeq() {
+        long last = 0;
+        for (Partition p : partitions) {
+            synchronized (p) {
+                last = Math.max(last, p.lastSeq);
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Partition p : partitions) {
+            synchronized (p) {
+                Segment active = p.active();
+                if (active != null) {
+                    active.map.force();
+                }
+            }
+        }
+    }
+
+    private Partition partition(String conversationId) {
+        return partitions[Math.floorMod(conversationId.hashCode(), partitions.length)];
+    }
+
+    /**
+     * Decode the record whose body starts at {@code body}.
+     */
+    private static Message decode(ByteBuffer map, int body) {
+        long seq = map.getLong(body);
+        long createdAt = map.getLong(body + 8);
+        int at = body + FIXED;
+        String conversationId = string(map, at);
+        at += 4 + map.getInt(at);
+        String messageId = string(map, at);
+        at += 4 + map.getInt(at);
+        String senderId = string(map, at);
+        at += 4 + map.getInt(at);
+        String content = string(map, at);
+        return new Message(seq, messageId, conversationId, senderId, content, createdAt);
+    }
+
+    private static String string(ByteBuffer map, int at) {
+        byte[] bytes = new byte[map.getInt(at)];
+        range(map, at + 4, bytes.length).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int put(ByteBuffer map, int at, byte[] bytes) {
+        map.putInt(at, bytes.length);
+        range(map, at + 4, bytes.length).put(bytes);
+        return at + 4 + bytes.length;
+    }
+
+    /**
+     * The {@code length} bytes of a mapping from {@code at}, as a view for
+     * relative bulk reads and writes; the mapping's own position and limit
+     * are left alone, so concurrent walks can share it.
+     */
+    private static ByteBuffer range(ByteBuffer map, int at, int length) {
+        ByteBuffer view = map.duplicate();
+        view.limit(at + length);
+        view.position(at);
+        return view;
+    }
+
+    /**
+     * Called for each record of a conversation during a walk.
+     */
+    private interface RecordVisitor {
+        /**
+         * @return Whether to go on to the conversation's next record
+         */
+        boolean visit(ByteBuffer map, int body) throws SQLException;
+    }
+
+    /**
+     * One segment file and its mapping. Bytes below {@link #end} are whole
+     * records and never change.
+     */
+    private static final class Segment {
+        final MappedByteBuffer map;
+        final int capacity;
+        volatile int end;
+
+        Segment(File file, int capacity, boolean writable) throws IOException {
+            try (FileChannel channel = writable
+                    ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE)
+                    : FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                // The mapping stays valid once the channel is closed
+                this.map = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                        0, capacity);
+            }
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * Where to find a conversation's messages in its partition.
+     */
+    private static final class ConversationIndex {
+        final byte[] id;
+        final int hash;
+        long count;
+        long lastSeq;
+        // Sequence and position of every interval-th message
+        long[] seqs = new long[4];
+        long[] positions = new long[4];
+        int entries;
+
+        ConversationIndex(String id) {
+            this.id = bytes(id);
+            this.hash = id.hashCode();
+        }
+
+        void add(long seq, long position, int interval) {
+            if (count % interval == 0) {
+                if (entries == seqs.length) {
+                    seqs = Arrays.copyOf(seqs, entries * 2);
+                    positions = Arrays.copyOf(positions, entries * 2);
+                }
+                seqs[entries] = seq;
+                positions[entries] = position;
+                entries++;
+            }
+            count++;
+            lastSeq = seq;
+        }
+
+        /**
+         * @return The last entry at or below the sequence, or -1 if the
+         *         first message is above it
+         */
+        int floor(long seq) {
+            int i = Arrays.binarySearch(seqs, 0, entries, seq);
+            return i >= 0 ? i : -i - 2;
+        }
+    }
+
+    /**
+     * A directory of segments. Appends and the conversation index are
+     * guarded by the partition's monitor; walks read the segments without it.
+     */
+    private final class Partition {
+        final File dir;
+        final List<Segment> segments = new CopyOnWriteArrayList<>();
+        final Map<String, ConversationIndex> conversations = new HashMap<>();
+        long lastSeq;
+
+        Partition(File dir) throws IOException {
+            this.dir = dir;
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create message log partition " + dir);
+            }
+            File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+            if (files == null) {
+                files = new File[0];
+            }
+            Arrays.sort(files);
+            for (int i = 0; i < files.length; i++) {
+                boolean last = i == files.length - 1;
+                int length = (int) files[i].length();
+                Segment segment = new Segment(files[i], last ? Math.max(length, segmentBytes) : length, last);
+                segments.add(segment);
+                recover(segment, files[i], last);
+            }
+        }
+
+        Segment active() {
+            return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        }
+
+        ConversationIndex index(String conversationId) {
+            return conversations.computeIfAbsent(conversationId, ConversationIndex::new);
+        }
+
+        /**
+         * Write a record at the end of the newest segment.
+         *
+         * @return The record's position
+         */
+        long append(Message m, ConversationIndex c) throws IOException {
+            byte[] id = bytes(m.getMessageId());
+            byte[] sender = bytes(m.getSenderId());
+            byte[] content = bytes(m.getContent());
+            int bodyLength = FIXED + 16 + c.id.length + id.length + sender.length + content.length;
+            int recordLength = HEADER + bodyLength;
+
+            Segment segment = active();
+            if (segment == null || segment.end + recordLength > segment.capacity) {
+                segment = roll(m.getSeq(), recordLength);
+            }
+            MappedByteBuffer map = segment.map;
+            int offset = segment.end;
+            int body = offset + HEADER;
+            map.putLong(body, m.getSeq());
+            map.putLong(body + 8, m.getCreatedAt());
+            map.putInt(body + 16, c.hash);
+            int at = put(map, body + FIXED, c.id);
+            at = put(map, at, id);
+            at = put(map, at, sender);
+            put(map, at, content);
+            CRC32 crc = new CRC32();
+            crc.update(range(map, body, bodyLength));
+            map.putInt(offset + 4, (int) crc.getValue());
+            // Written last: the record exists once its length is set
+            map.putInt(offset, bodyLength);
+            segment.end = offset + recordLength;
+            return ((long) (segments.size() - 1) << 32) | offset;
+        }
+
+        /**
+         * Start a new segment named after the first sequence it will hold,
+         * large enough for at least the record about to be written.
+         */
+        private Segment roll(long firstSeq, int recordLength) throws IOException {
+            Segment previous = active();
+            if (previous != null) {
+                previous.map.force();
+            }
+            File file = new File(dir, String.format("%020d", firstSeq) + SUFFIX);
+            Segment segment = new Segment(file, Math.max(segmentBytes, recordLength), true);
+            segments.add(segment);
+            return segment;
+        }
+
+        /**
+         * Find where the segment's whole records end and index them. In the
+         * segment being appended to, whatever follows is zeroed, so the next
+         * record does not end up in front of stale bytes.
+         */
+        private void recover(Segment segment, File file, boolean writable) {
+            MappedByteBuffer map = segment.map;
+            int index = segments.size() - 1;
+            int offset = 0;
+            boolean clean = true;
+            while (offset + HEADER <= segment.capacity) {
+                int length = map.getInt(offset);
+                if (length == 0) {
+                    break;
+                }
+                int body = offset + HEADER;
+                if (length < FIXED + 16 || length > segment.capacity - body) {
+                    clean = false;
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(range(map, body, length));
+                if ((int) crc.getValue() != map.getInt(offset + 4)) {
+                    clean = false;
+                    break;
+                }
+                long seq = map.getLong(body);
+                ConversationIndex c = index(string(map, body + FIXED));
+                c.add(seq, ((long) index << 32) | offset, indexInterval);
+                lastSeq = Math.max(lastSeq, seq);
+                offset = body + length;
+            }
+            segment.end = offset;
+            if (!clean) {
+                System.err.println("MessageLogStore: " + file + " ends in a damaged record at " + offset
+                        + "; reading stops there");
+                if (writable) {
+                    byte[] zeros = new byte[64 * 1024];
+                    for (int i = offset; i < segment.capacity; i += zeros.length) {
+                        int n = Math.min(zeros.length, segment.capacity - i);
+                        range(map, i, n).put(zeros, 0, n);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Visit the conversation's records from a position on, to the end
+         * of the partition or until the visitor stops.
+         */
+        void walk(ConversationIndex c, long position, RecordVisitor visitor) throws SQLException {
+            int offset = (int) position;
+            for (int s = (int) (position >>> 32); s < segments.size(); s++, offset = 0) {
+                Segment segment = segments.get(s);
+                MappedByteBuffer map = segment.map;
+                int end = segment.end;
+                while (offset < end) {
+                    int body = offset + HEADER;
+                    if (map.getInt(body + 16) == c.hash && sameId(map, body + FIXED, c.id)
+                            && !visitor.visit(map, body)) {
+                        return;
+                    }
+                    offset = body + map.getInt(offset);
+                }
+            }
+        }
+
+        private boolean sameId(ByteBuffer map, int at, byte[] id) {
+            if (map.getInt(at) != id.length) {
+                return false;
+            }
+            for (int i = 0; i < id.length; i++) {
+                if (map.get(at + 4 + i) != id[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.chat.server;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Base64;
+
+/**
+ * Full-text search over message content, on the MESSAGES_FTS index that
+ * schema migration 6 keeps in step with MESSAGES.
+ *
+ * Only messages in conversations the searcher takes part in are found.
+ * Results are ranked by bm25, best first, with newer messages first among
+ * equal ranks, and paged with an opaque cursor. Ranks shift as messages are
+ * added, so the cursor is a position in the ranking rather than a key.
+ */
+final class MessageSearch {
+
+    static final int DEFAULT_LIMIT = 20;
+    static final int MAX_LIMIT = 100;
+    // Longest query accepted, in characters
+    static final int MAX_QUERY_LENGTH = 256;
+    static final int SNIPPET_TOKENS = 12;
+
+    private static final String SEARCH_SQL = "SELECT m.message_seq, m.message_id, c.conversation_id, "
+            + "u.user_id AS sender_id, m.content, m.created_at, "
+            + "snippet(MESSAGES_FTS, 0, '[', ']', '...', " + SNIPPET_TOKENS + ") AS snippet "
+            + "FROM MESSAGES_FTS f "
+            + "JOIN MESSAGES m ON m.message_seq = f.rowid "
+            + "JOIN CONVERSATION_PARTICIPANTS me ON me.conversation_key = m.conversation_key "
+            + "AND me.user_key = (SELECT user_key FROM USERS WHERE user_id = ?) "
+            + "JOIN CONVERSATIONS c ON c.conversation_key = m.conversation_key "
+            + "JOIN USERS u ON u.user_key = m.sender_key "
+            + "WHERE MESSAGES_FTS MATCH ? ";
+
+    private static SQLiteDatabase db;
+
+    private MessageSearch() {
+    }
+
+    /**
+     * @param database The database messages are stored in, or null if they
+     *        are kept elsewhere and cannot be searched
+     */
+    static void initialize(SQLiteDatabase database) {
+        db = database;
+    }
+
+    static boolean isAvailable() {
+        return db != null;
+    }
+
+    /**
+     * One message found, with the matching part of its content marked.
+     */
+    static final class Hit {
+        private final Message message;
+        private final String snippet;
+
+        Hit(Message message, String snippet) {
+            this.message = message;
+            this.snippet = snippet;
+        }
+
+        Message getMessage() {
+            return message;
+        }
+
+        /**
+         * @return A few words around the match, matched terms in [brackets]
+         */
+        String getSnippet() {
+            return snippet;
+        }
+    }
+
+    /**
+     * @return The cursor for the next page, or null if this was the last
+     */
+    static String visit(String userId, String text, String conversationId, int limit, String cursor,
+            RowVisitor<Hit> visitor) throws SQLException {
+        String match = matchExpression(text);
+        int size = Math.max(1, Math.min(limit, MAX_LIMIT));
+        int offset = cursor == null ? 0 : decodeCursor(cursor);
+        if (db == null) {
+            throw new IllegalStateException("Message search not initialized.");
+        }
+
+        String sql = SEARCH_SQL
+                + (conversationId == null ? "" : "AND c.conversation_id = ? ")
+                + "ORDER BY bm25(MESSAGES_FTS), m.message_seq DESC LIMIT ? OFFSET ?";
+        int visited = 0;
+        try (Connection conn = db.connect();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            pstmt.setString(i++, userId);
+            pstmt.setString(i++, match);
+            if (conversationId != null) {
+                pstmt.setString(i++, conversationId);
+            }
+            // One extra row tells whether there is another page
+            pstmt.setInt(i++, size + 1);
+            pstmt.setInt(i, offset);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                if (visited == size) {
+                    return encodeCursor(offset + size);
+                }
+                visitor.visit(new Hit(new Message(
+                        rs.getLong("message_seq"),
+                        rs.getString("message_id"),
+                        rs.getString("conversation_id"),
+                        rs.getString("sender_id"),
+                        rs.getString("content"),
+                        rs.getLong("created_at")), rs.getString("snippet")));
+                visited++;
+            }
+        } catch (SQLException e) {
+            System.err.println("DB Error searching messages: " + e.getMessage());
+            throw e;
+        }
+        return null;
+    }
+
+    /**
+     * Turn what the user typed into an FTS5 query: every word must appear,
+     * the last one possibly as the start of a longer word. Each word is
+     * quoted, so FTS5 operators and punctuation in the text are matched as
+     * text rather than parsed.
+     *
+     * @throws IllegalArgumentException if there is nothing to search for, or
+     *         too much
+     */
+    static String matchExpression(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException("query required");
+        }
+        if (text.length() > MAX_QUERY_LENGTH) {
+            throw new IllegalArgumentException("query longer than " + MAX_QUERY_LENGTH + " characters");
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : text.trim().split("\\s+")) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(word.replace("\"", "\"\"")).append('"');
+        }
+        return match.append('*').toString();
+    }
+
+    private static String encodeCursor(int offset) {
+        byte[] bytes = Integer.toString(offset).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static int decodeCursor(String cursor) {
+        try {
+            int offset = Integer.parseInt(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+            if (offset < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return offset;
+        } catch (IllegalArgumentException e) {
+            // Also covers NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
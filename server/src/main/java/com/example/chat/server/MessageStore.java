@@ -0,0 +1,119 @@
+package com.example.chat.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where message bodies are kept.
+ *
+ * {@link Message} stays the domain object and the entry point callers use;
+ * its save() and history reads delegate to the store chosen at startup with
+ * chat.message.store:
+ * <ul>
+ * <li>{@code sqlite} (default): rows of the MESSAGES table, see
+ *     {@link SQLiteMessageStore}</li>
+ * <li>{@code memory}: nothing outlives the process; for benchmarks and
+ *     tests, see {@link MemoryMessageStore}</li>
+ * <li>{@code log}: partitioned, append-only segment files under
+ *     chat.message.log.dir, read through memory mappings; see
+ *     {@link MessageLogStore}</li>
+ * </ul>
+ *
+ * A store orders each conversation's messages by {@link Message#getSeq()}
+ * and answers the two range reads below; paging and cursors are built on
+ * those in {@link Message}, so every store pages the same way. Failures are
+ * reported as SQLException whatever the backend, as the callers of
+ * {@link Message} already handle it.
+ */
+interface MessageStore {
+
+    void save(Message message) throws SQLException;
+
+    /**
+     * Visit the conversation's messages whose sequences lie strictly between
+     * two bounds, oldest first, at most {@code limit} of them. A null bound
+     * is open.
+     */
+    void scan(String conversationId, Long from, Long to, int limit, RowVisitor<Message> visitor)
+            throws SQLException;
+
+    /**
+     * Count back from the newest message older than {@code before} (or the
+     * newest message, if null).
+     *
+     * @return The sequence of the message {@code skip} places further back,
+     *         or null if the conversation has no message that far back
+     */
+    Long seqBefore(String conversationId, Long before, int skip) throws SQLException;
+
+    /**
+     * @return The largest sequence stored, or 0 if there are no messages
+     */
+    long lastSeq() throws SQLException;
+
+    /**
+     * @return The conversation's whole history, oldest first
+     */
+    default List<Message> findByConversationId(String conversationId) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        scan(conversationId, null, null, Integer.MAX_VALUE, messages::add);
+        return messages;
+    }
+
+    /**
+     * @return The conversation's newest message, or null if it has none
+     */
+    default Message findLatest(String conversationId) throws SQLException {
+        Long seq = seqBefore(conversationId, null, 0);
+        if (seq == null) {
+            return null;
+        }
+        List<Message> latest = new ArrayList<>(1);
+        scan(conversationId, seq - 1, null, 1, latest::add);
+        return latest.isEmpty() ? null : latest.get(0);
+    }
+
+    /**
+     * @return Whether messages are rows of the MESSAGES table, so queries on
+     *         the database can join them
+     */
+    default boolean inDatabase() {
+        return false;
+    }
+
+    /**
+     * Finish pending writes and release files. Saves after this fail or are
+     * written directly, depending on the store.
+     */
+    default void close() {
+    }
+
+    /**
+     * The store configured by the chat.message.* system properties.
+     */
+    static MessageStore fromSystemProperties(SQLiteDatabase db) {
+        String name = System.getProperty("chat.message.store", "sqlite").toLowerCase();
+        switch (name) {
+            case "sqlite":
+                // Group-commits message inserts; see -Dchat.message.* in the README
+                return new SQLiteMessageStore(db, MessageBatcher.fromSystemProperties(db));
+            case "memory":
+                return new MemoryMessageStore();
+            case "log":
+                try {
+                    return new MessageLogStore(new File(System.getProperty("chat.message.log.dir", "messages")),
+                            Long.getLong("chat.message.log.segment.bytes", MessageLogStore.DEFAULT_SEGMENT_BYTES),
+                            Integer.getInteger("chat.message.log.partitions", MessageLogStore.DEFAULT_PARTITIONS),
+                            Integer.getInteger("chat.message.log.index.interval", MessageLogStore.DEFAULT_INDEX_INTERVAL));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to open the message log", e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown message store: " + name);
+        }
+    }
+}
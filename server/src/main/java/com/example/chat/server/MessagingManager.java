@@ -2,6 +2,7 @@ package com.example.chat.server;
 
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * MessagingManager (MessageRouter) handles sending and routing messages.
@@ -19,6 +20,19 @@ public class MessagingManager {
     // A user may have multiple connections (different devices)
     private static Map<String, List<ClientHandler>> userConnections = Collections.synchronizedMap(new HashMap<>());
 
+    // Frames encoded for pushes vs. connections they were queued on
+    private static final AtomicLong framesEncoded = new AtomicLong();
+    private static final AtomicLong framesDelivered = new AtomicLong();
+
+    static {
+        Metrics.register("fanout", () -> {
+            long encoded = framesEncoded.get();
+            long delivered = framesDelivered.get();
+            return "encoded=" + encoded + " delivered=" + delivered
+                    + " deliveries_per_encode=" + (encoded == 0 ? "0" : String.format("%.2f", (double) delivered / encoded));
+        });
+    }
+
     /**
      * Register a connected client with a userId.
      * A user can have multiple concurrent connections.
@@ -71,8 +85,8 @@ public class MessagingManager {
     public static boolean sendDirectMessage(String conversationId, String senderId, String content, 
                                             String recipientUserId) {
         // Save message to database first
+        Message message = new Message(conversationId, senderId, content);
         try {
-            Message message = new Message(conversationId, senderId, content);
             message.save();
         } catch (SQLException e) {
             System.err.println("MessagingManager: Error saving message: " + e.getMessage());
@@ -88,11 +102,12 @@ public class MessagingManager {
         }
 
         // Send to all connected clients of the recipient
-        String messageJson = buildMessageJson(senderId, content, conversationId);
+        OutboundFrame frame = buildMessageFrame(message);
         boolean deliveredToAny = false;
         for (ClientHandler handler : new ArrayList<>(recipientHandlers)) {
             try {
-                handler.sendMessage(messageJson);
+                handler.sendMessage(frame);
+                framesDelivered.incrementAndGet();
                 deliveredToAny = true;
             } catch (Exception e) {
                 System.err.println("MessagingManager: Failed to deliver to client: " + e.getMessage());
@@ -113,8 +128,8 @@ public class MessagingManager {
      */
     public static int sendGroupMessage(String conversationId, String senderId, String content) {
         // Save message to database first
+        Message message = new Message(conversationId, senderId, content);
         try {
-            Message message = new Message(conversationId, senderId, content);
             message.save();
         } catch (SQLException e) {
             System.err.println("MessagingManager: Error saving group message: " + e.getMessage());
@@ -134,8 +149,8 @@ public class MessagingManager {
             return 0;
         }
 
-        // Send to all participants except sender
-        String messageJson = buildMessageJson(senderId, content, conversationId);
+        // Send to all participants except sender; every connection gets the same encoded frame
+        OutboundFrame frame = buildMessageFrame(message);
         int deliveredCount = 0;
 
         for (ConversationParticipant participant : participants) {
@@ -151,7 +166,7 @@ public class MessagingManager {
             if (handlers != null && !handlers.isEmpty()) {
                 for (ClientHandler handler : new ArrayList<>(handlers)) {
                     try {
-                        handler.sendMessage(messageJson);
+                        handler.sendMessage(frame);
                         deliveredCount++;
                     } catch (Exception e) {
                         System.err.println("MessagingManager: Failed to deliver to " + recipientId + ": " 
@@ -163,34 +178,72 @@ public class MessagingManager {
             }
         }
 
+        framesDelivered.addAndGet(deliveredCount);
         System.out.println("MessagingManager: Group message sent to " + deliveredCount + " online recipients");
         return deliveredCount;
     }
 
     /**
-     * Build a JSON message frame for transmission.
+     * Build a message frame for transmission, encoded once for all recipients.
+     */
+    public static OutboundFrame buildMessageFrame(Message message) {
+        try (JsonWriter json = JsonWriter.obtain()) {
+            writeMessageJson(json, message.getMessageId(), message.getSenderId(), message.getContent(),
+                    message.getConversationId());
+            framesEncoded.incrementAndGet();
+            return OutboundFrame.message(json);
+        }
+    }
+
+    /**
+     * Write a JSON message frame into a writer.
+     *
+     * @param messageId The saved message's ID, so clients can tell a pushed
+     *        message from the same one in a later history page; null leaves it out
      */
-    public static String buildMessageJson(String senderId, String content, String conversationId) {
-        return "{\"type\":\"message\",\"senderId\":\"" + ProtocolParser.escape(senderId) 
-            + "\",\"content\":\"" + ProtocolParser.escape(content) 
-            + "\",\"conversationId\":\"" + ProtocolParser.escape(conversationId) + "\"}";
+    static void writeMessageJson(JsonWriter json, String messageId, String senderId, String content,
+            String conversationId) {
+        json.beginObject()
+            .field("type", "message");
+        if (messageId != null) {
+            json.field("messageId", messageId);
+        }
+        json.field("senderId", senderId)
+            .field("content", content)
+            .field("conversationId", conversationId)
+            .endObject();
     }
 
     /**
      * Broadcast a user's online status change to all connected clients.
      */
     public static void broadcastUserStatus(String userId, boolean isOnline) {
-        String json = "{\"type\":\"status\",\"userId\":\"" + ProtocolParser.escape(userId) + "\",\"isOnline\":" + isOnline + "}";
-        
+        OutboundFrame frame;
+        try (JsonWriter json = JsonWriter.obtain()) {
+            json.beginObject()
+                .field("type", "status")
+                .field("userId", userId)
+                .field("isOnline", isOnline)
+                .endObject();
+            frame = OutboundFrame.presence(json, userId);
+        }
+        framesEncoded.incrementAndGet();
+
+        // Snapshot under the map lock, then write outside it so a slow socket
+        // neither blocks registrations nor pins a virtual thread's carrier
+        List<ClientHandler> recipients = new ArrayList<>();
         synchronized(userConnections) {
             for (List<ClientHandler> handlers : userConnections.values()) {
-                for (ClientHandler h : handlers) {
-                    try {
-                        h.sendMessage(json);
-                    } catch (Exception e) {
-                        System.err.println("MessagingManager: Failed to broadcast status: " + e.getMessage());
-                    }
-                }
+                recipients.addAll(handlers);
+            }
+        }
+
+        for (ClientHandler h : recipients) {
+            try {
+                h.sendMessage(frame);
+                framesDelivered.incrementAndGet();
+            } catch (Exception e) {
+                System.err.println("MessagingManager: Failed to broadcast status: " + e.getMessage());
             }
         }
     }
@@ -199,27 +252,29 @@ public class MessagingManager {
      * Notify participants of a new conversation.
      */
     public static void notifyNewConversation(Conversation conversation, List<String> participantIds) {
-        StringBuilder json = new StringBuilder();
-        json.append("{\"type\":\"new_conversation\",");
-        json.append("\"id\":\"").append(ProtocolParser.escape(conversation.getConversationId())).append("\",");
-        json.append("\"name\":\"").append(ProtocolParser.escape(conversation.getName())).append("\",");
-        json.append("\"isGroup\":").append(conversation.isGroup()).append(",");
-        
-        json.append("\"participants\":[");
-        for(int i=0; i<participantIds.size(); i++) {
-             json.append("\"").append(ProtocolParser.escape(participantIds.get(i))).append("\"");
-             if(i < participantIds.size()-1) json.append(",");
-        }
-        json.append("]}");
-        
-        String message = json.toString();
+        OutboundFrame frame;
+        try (JsonWriter json = JsonWriter.obtain()) {
+            json.beginObject()
+                .field("type", "new_conversation")
+                .field("id", conversation.getConversationId())
+                .field("name", conversation.getName())
+                .field("isGroup", conversation.isGroup())
+                .name("participants").beginArray();
+            for (String participantId : participantIds) {
+                json.value(participantId);
+            }
+            json.endArray().endObject();
+            frame = OutboundFrame.message(json);
+        }
+        framesEncoded.incrementAndGet();
 
         for (String pid : participantIds) {
             List<ClientHandler> handlers = userConnections.get(pid);
             if (handlers != null) {
-                for (ClientHandler h : handlers) {
+                for (ClientHandler h : new ArrayList<>(handlers)) {
                     try {
-                        h.sendMessage(message);
+                        h.sendMessage(frame);
+                        framesDelivered.incrementAndGet();
                     } catch (Exception e) {
                         System.err.println("Failed to notify user " + pid + " of new conversation: " + e.getMessage());
                     }
@@ -229,7 +284,16 @@ public class MessagingManager {
     }
 
     public static void notifyReloadConversations(String userId) {
-        String message = "{\"type\":\"reload_conversations\",\"userId\":\"" + ProtocolParser.escape(userId) + "\"}";
+        // Repeated reload requests for the same user collapse into one
+        OutboundFrame frame;
+        try (JsonWriter json = JsonWriter.obtain()) {
+            json.beginObject()
+                .field("type", "reload_conversations")
+                .field("userId", userId)
+                .endObject();
+            frame = OutboundFrame.notification(json, "reload:" + userId);
+        }
+        framesEncoded.incrementAndGet();
 
         // Find the client(s) for the target user and send the notification
         List<ClientHandler> handlers = userConnections.get(userId);
@@ -237,7 +301,8 @@ public class MessagingManager {
             // Iterate over a copy to avoid ConcurrentModificationException
             for (ClientHandler h : new ArrayList<>(handlers)) {
                 try {
-                    h.sendMessage(message);
+                    h.sendMessage(frame);
+                    framesDelivered.incrementAndGet();
                     System.out.println("MessagingManager: Sent reload_conversations notification to " + userId);
                 } catch (Exception e) {
                     System.err.println("MessagingManager: Failed to notify user " + userId 
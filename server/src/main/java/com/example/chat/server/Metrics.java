@@ -0,0 +1,49 @@
+package com.example.chat.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Registry of runtime counters reported by the server's components.
+ *
+ * Each component registers a named source that renders its current numbers
+ * as one line. The snapshot is printed on shutdown and, when
+ * -Dchat.metrics.interval is set, every that many seconds.
+ */
+public final class Metrics {
+
+    private static final Map<String, Supplier<String>> sources = new ConcurrentSkipListMap<>();
+    private static ScheduledExecutorService reporter = null;
+
+    private Metrics() {
+    }
+
+    public static void register(String name, Supplier<String> source) {
+        sources.put(name, source);
+    }
+
+    public static String snapshot() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Supplier<String>> e : sources.entrySet()) {
+            sb.append("Metrics: ").append(e.getKey()).append(": ").append(e.getValue().get()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static synchronized void startReporter(long intervalSeconds) {
+        if (reporter != null || intervalSeconds <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.print(snapshot()),
+                intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.chat.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A JSON frame waiting in a connection's {@link OutboundQueue}.
+ *
+ * The kind tells the queue what it may do with the frame when the client
+ * falls behind: presence updates can be dropped, and frames with a coalescing
+ * key replace an older queued frame with the same key.
+ *
+ * The frame holds its JSON already encoded as UTF-8, without the delimiter the
+ * Framing adds when writing it. Frames are immutable, so one frame built for
+ * a broadcast is queued on every recipient connection as-is and the payload
+ * is encoded once no matter how many clients receive it.
+ */
+public class OutboundFrame {
+
+    public enum Kind {
+        RESPONSE,
+        MESSAGE,
+        NOTIFICATION,
+        PRESENCE
+    }
+
+    private static final byte[] NOT_COMPRESSIBLE = new byte[0];
+
+    private final byte[] payload;
+    private final Kind kind;
+    private final String coalesceKey;
+
+    // Deflated payload, made by the first compressing connection that writes the frame
+    private volatile byte[] compressed = null;
+
+    private OutboundFrame(String json, Kind kind, String coalesceKey) {
+        this(json.getBytes(StandardCharsets.UTF_8), kind, coalesceKey);
+    }
+
+    private OutboundFrame(byte[] payload, Kind kind, String coalesceKey) {
+        this.payload = payload;
+        this.kind = kind;
+        this.coalesceKey = coalesceKey;
+    }
+
+    /**
+     * A reply to a request from this client.
+     */
+    public static OutboundFrame response(String json) {
+        return new OutboundFrame(json, Kind.RESPONSE, null);
+    }
+
+    /**
+     * A reply that is already UTF-8 encoded. The array is not copied.
+     */
+    public static OutboundFrame response(byte[] payload) {
+        return new OutboundFrame(payload, Kind.RESPONSE, null);
+    }
+
+    /**
+     * A chat message or other frame the client must not miss.
+     */
+    public static OutboundFrame message(String json) {
+        return new OutboundFrame(json, Kind.MESSAGE, null);
+    }
+
+    public static OutboundFrame message(JsonWriter json) {
+        return new OutboundFrame(json.toByteArray(), Kind.MESSAGE, null);
+    }
+
+    /**
+     * A notification where only the latest one for the same key matters.
+     */
+    public static OutboundFrame notification(String json, String coalesceKey) {
+        return new OutboundFrame(json, Kind.NOTIFICATION, coalesceKey);
+    }
+
+    public static OutboundFrame notification(JsonWriter json, String coalesceKey) {
+        return new OutboundFrame(json.toByteArray(), Kind.NOTIFICATION, coalesceKey);
+    }
+
+    /**
+     * An online/offline update for a user; superseded by the next one.
+     */
+    public static OutboundFrame presence(String json, String userId) {
+        return new OutboundFrame(json, Kind.PRESENCE, "status:" + userId);
+    }
+
+    public static OutboundFrame presence(JsonWriter json, String userId) {
+        return new OutboundFrame(json.toByteArray(), Kind.PRESENCE, "status:" + userId);
+    }
+
+    /**
+     * @return The UTF-8 encoded JSON; must not be modified
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return The payload deflated for a compressing connection, or null if
+     *         it is below the threshold or would not get smaller
+     */
+    public byte[] getCompressedPayload() {
+        if (payload.length < FrameCompression.THRESHOLD) {
+            return null;
+        }
+        byte[] result = compressed;
+        if (result == null) {
+            // Racing writers may both compress; the results are identical
+            result = FrameCompression.compress(payload, 0, payload.length);
+            compressed = result = (result == null ? NOT_COMPRESSIBLE : result);
+        }
+        return result == NOT_COMPRESSIBLE ? null : result;
+    }
+
+    public String getJson() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getCoalesceKey() {
+        return coalesceKey;
+    }
+
+    public boolean isDroppable() {
+        return kind == Kind.PRESENCE;
+    }
+}
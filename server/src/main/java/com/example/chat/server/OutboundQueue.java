@@ -0,0 +1,160 @@
+package com.example.chat.server;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of frames waiting to be written to one client.
+ *
+ * Senders only ever enqueue here, so a recipient on a slow link can no longer
+ * stall the thread that routes a message to it. When the queue is full, the
+ * slow-consumer policy decides what gives:
+ *
+ * - DROP_PRESENCE: presence updates are dropped to make room, the oldest
+ *   queued one first and the incoming one only if none is queued; if neither
+ *   is droppable, the client is disconnected.
+ * - COALESCE:      like DROP_PRESENCE, and in addition a frame with a
+ *   coalescing key replaces a queued frame with the same key, even when the
+ *   queue is not full.
+ * - DISCONNECT:    the client is disconnected as soon as the queue is full.
+ *
+ * Capacity and policy come from -Dchat.outbound.capacity (default 1024) and
+ * -Dchat.outbound.policy (default coalesce).
+ */
+public class OutboundQueue {
+
+    public enum Policy {
+        DROP_PRESENCE,
+        COALESCE,
+        DISCONNECT
+    }
+
+    public enum Result {
+        QUEUED,
+        COALESCED,
+        DROPPED,
+        OVERFLOW
+    }
+
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+    public static final Policy DEFAULT_POLICY = Policy.valueOf(
+            System.getProperty("chat.outbound.policy", "coalesce").toUpperCase());
+
+    // Totals across all connections
+    private static final AtomicLong totalDepth = new AtomicLong();
+    private static final AtomicLong maxDepth = new AtomicLong();
+    private static final AtomicLong totalDropped = new AtomicLong();
+    private static final AtomicLong totalCoalesced = new AtomicLong();
+    private static final AtomicLong totalOverflows = new AtomicLong();
+
+    static {
+        Metrics.register("outbound_queues", () -> "depth=" + totalDepth.get()
+                + " max_depth=" + maxDepth.get()
+                + " dropped=" + totalDropped.get()
+                + " coalesced=" + totalCoalesced.get()
+                + " overflows=" + totalOverflows.get());
+    }
+
+    private final ArrayDeque<OutboundFrame> frames = new ArrayDeque<>();
+    private final int capacity;
+    private final Policy policy;
+    private int highWaterMark = 0;
+
+    public OutboundQueue() {
+        this(DEFAULT_CAPACITY, DEFAULT_POLICY);
+    }
+
+    public OutboundQueue(int capacity, Policy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Add a frame, applying the slow-consumer policy if the queue is full.
+     *
+     * @return OVERFLOW if the frame could not be queued and the client should
+     *         be disconnected
+     */
+    public synchronized Result offer(OutboundFrame frame) {
+        if (policy == Policy.COALESCE && frame.getCoalesceKey() != null && removeQueued(frame.getCoalesceKey())) {
+            frames.add(frame);
+            totalCoalesced.incrementAndGet();
+            return Result.COALESCED;
+        }
+
+        if (frames.size() >= capacity) {
+            if (policy == Policy.DISCONNECT) {
+                totalOverflows.incrementAndGet();
+                return Result.OVERFLOW;
+            }
+            // The oldest queued presence update is the most out of date; the
+            // incoming frame only goes if nothing queued can
+            if (removeOldestDroppable()) {
+                totalDropped.incrementAndGet();
+            } else if (frame.isDroppable()) {
+                totalDropped.incrementAndGet();
+                return Result.DROPPED;
+            } else {
+                totalOverflows.incrementAndGet();
+                return Result.OVERFLOW;
+            }
+        }
+
+        frames.add(frame);
+        totalDepth.incrementAndGet();
+        if (frames.size() > highWaterMark) {
+            highWaterMark = frames.size();
+            maxDepth.accumulateAndGet(highWaterMark, Math::max);
+        }
+        return Result.QUEUED;
+    }
+
+    public synchronized OutboundFrame poll() {
+        OutboundFrame frame = frames.poll();
+        if (frame != null) {
+            totalDepth.decrementAndGet();
+        }
+        return frame;
+    }
+
+    public synchronized boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public synchronized void clear() {
+        totalDepth.addAndGet(-frames.size());
+        frames.clear();
+    }
+
+    private boolean removeQueued(String coalesceKey) {
+        Iterator<OutboundFrame> it = frames.iterator();
+        while (it.hasNext()) {
+            if (coalesceKey.equals(it.next().getCoalesceKey())) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeOldestDroppable() {
+        Iterator<OutboundFrame> it = frames.iterator();
+        while (it.hasNext()) {
+            if (it.next().isDroppable()) {
+                it.remove();
+                totalDepth.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+}
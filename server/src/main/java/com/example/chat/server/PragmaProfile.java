@@ -0,0 +1,152 @@
+package com.example.chat.server;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite settings applied to every pooled connection when it is opened.
+ *
+ * Presets (chat.db.profile):
+ * <ul>
+ * <li>{@code legacy}: driver defaults; rollback journal, every commit fsynced,
+ *     readers and the writer block each other</li>
+ * <li>{@code durable}: WAL journal with a full fsync per commit</li>
+ * <li>{@code balanced} (default): WAL journal, fsync only at checkpoints; a
+ *     power loss may lose the last commits but never corrupts the file</li>
+ * <li>{@code fast}: WAL journal without fsync; for benchmarks and throwaway
+ *     databases only</li>
+ * </ul>
+ * The WAL presets also memory-map the file, enlarge the page cache and keep
+ * temporary tables in memory. Each setting can be overridden on its own; a
+ * null setting leaves the driver default.
+ */
+public final class PragmaProfile {
+    public static final PragmaProfile LEGACY = new PragmaProfile("legacy", null, null, 0, 0, null, 0);
+    public static final PragmaProfile DURABLE = wal("durable", "FULL");
+    public static final PragmaProfile BALANCED = wal("balanced", "NORMAL");
+    public static final PragmaProfile FAST = wal("fast", "OFF");
+
+    private static final long DEFAULT_MMAP_BYTES = 256L * 1024 * 1024;
+    private static final int DEFAULT_CACHE_KIB = 16 * 1024;
+    private static final int DEFAULT_BUSY_TIMEOUT_MILLIS = 5000;
+
+    private final String name;
+    private final String journalMode;
+    private final String synchronous;
+    private final long mmapBytes;
+    private final int cacheKib;
+    private final String tempStore;
+    private final int busyTimeoutMillis;
+
+    private PragmaProfile(String name, String journalMode, String synchronous, long mmapBytes, int cacheKib,
+            String tempStore, int busyTimeoutMillis) {
+        this.name = name;
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.mmapBytes = mmapBytes;
+        this.cacheKib = cacheKib;
+        this.tempStore = tempStore;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+    }
+
+    private static PragmaProfile wal(String name, String synchronous) {
+        return new PragmaProfile(name, "WAL", synchronous, DEFAULT_MMAP_BYTES, DEFAULT_CACHE_KIB, "MEMORY",
+                DEFAULT_BUSY_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @return The preset with the given name
+     * @throws IllegalArgumentException if there is no such preset
+     */
+    public static PragmaProfile named(String name) {
+        switch (name.toLowerCase()) {
+            case "legacy":
+                return LEGACY;
+            case "durable":
+                return DURABLE;
+            case "balanced":
+                return BALANCED;
+            case "fast":
+                return FAST;
+            default:
+                throw new IllegalArgumentException("Unknown database profile: " + name);
+        }
+    }
+
+    /**
+     * The preset chosen with chat.db.profile, with any of chat.db.journal,
+     * chat.db.synchronous, chat.db.mmap.bytes, chat.db.cache.kb,
+     * chat.db.temp.store and chat.db.busy.timeout.ms applied on top.
+     */
+    public static PragmaProfile fromSystemProperties() {
+        PragmaProfile preset = named(System.getProperty("chat.db.profile", BALANCED.name));
+        return new PragmaProfile(preset.name,
+                System.getProperty("chat.db.journal", preset.journalMode),
+                System.getProperty("chat.db.synchronous", preset.synchronous),
+                Long.getLong("chat.db.mmap.bytes", preset.mmapBytes),
+                Integer.getInteger("chat.db.cache.kb", preset.cacheKib),
+                System.getProperty("chat.db.temp.store", preset.tempStore),
+                Integer.getInteger("chat.db.busy.timeout.ms", preset.busyTimeoutMillis));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The PRAGMA statements this profile runs on a new connection
+     */
+    public List<String> statements() {
+        List<String> pragmas = new ArrayList<>();
+        if (busyTimeoutMillis > 0) {
+            // First, so the journal switch below waits for other connections too
+            pragmas.add("PRAGMA busy_timeout = " + busyTimeoutMillis);
+        }
+        if (journalMode != null) {
+            pragmas.add("PRAGMA journal_mode = " + keyword(journalMode));
+        }
+        if (synchronous != null) {
+            pragmas.add("PRAGMA synchronous = " + keyword(synchronous));
+        }
+        if (mmapBytes > 0) {
+            pragmas.add("PRAGMA mmap_size = " + mmapBytes);
+        }
+        if (cacheKib > 0) {
+            // Negative means KiB rather than pages
+            pragmas.add("PRAGMA cache_size = -" + cacheKib);
+        }
+        if (tempStore != null) {
+            pragmas.add("PRAGMA temp_store = " + keyword(tempStore));
+        }
+        return pragmas;
+    }
+
+    /**
+     * Run this profile's pragmas on a freshly opened connection.
+     */
+    void apply(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String pragma : statements()) {
+                stmt.execute(pragma);
+            }
+        }
+    }
+
+    /**
+     * Pragma values are spliced into the statement; only accept bare words.
+     */
+    private static String keyword(String value) {
+        if (!value.matches("[A-Za-z0-9_]+")) {
+            throw new IllegalArgumentException("Invalid pragma value: " + value);
+        }
+        return value.toUpperCase();
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + statements();
+    }
+}
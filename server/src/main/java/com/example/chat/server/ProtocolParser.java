@@ -1,12 +1,17 @@
 package com.example.chat.server;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
 /**
  * Protocol parser for newline-delimited JSON commands.
  * 
  * Provides utilities for:
- * - Extracting JSON field values
- * - Sending error and raw JSON responses
+ * - Extracting JSON field values (see {@link JsonParser})
+ * - Sending error and raw JSON responses (built with {@link JsonWriter})
  * - Escaping/unescaping JSON strings
+ * - Formatting stored timestamps for the wire
  */
 public class ProtocolParser {
 
@@ -14,31 +19,65 @@ public class ProtocolParser {
      * Send an error response with error code and message.
      */
     static void sendError(String code, String message, Framing framing) {
-        sendRaw("{\"type\":\"error\",\"code\":\"" + escape(code) + "\",\"message\":\""
-                + escape(message) + "\"}", framing);
+        try (JsonWriter json = JsonWriter.obtain()) {
+            writeError(json, code, message);
+            sendRaw(json, framing);
+        }
     }
 
     /**
      * Send an error response using PrintWriter (legacy support).
      */
     static void sendError(String code, String message, java.io.PrintWriter out) {
-        sendRaw("{\"type\":\"error\",\"code\":\"" + escape(code) + "\",\"message\":\""
-                + escape(message) + "\"}", out);
+        try (JsonWriter json = JsonWriter.obtain()) {
+            writeError(json, code, message);
+            sendRaw(json.toString(), out);
+        }
+    }
+
+    private static void writeError(JsonWriter json, String code, String message) {
+        json.beginObject()
+            .field("type", "error")
+            .field("code", code)
+            .field("message", message)
+            .endObject();
     }
 
     /**
      * Send raw JSON frame through Framing handler.
+     * Each Framing orders its own writes, so frames to different clients
+     * are written in parallel.
      */
-    static synchronized void sendRaw(String json, Framing framing) {
+    static void sendRaw(String json, Framing framing) {
         if (framing != null) {
             framing.writeFrame(json);
         }
     }
 
+    /**
+     * Send a frame built with a JsonWriter. Its bytes go to the Framing
+     * as-is, without an intermediate String.
+     */
+    static void sendRaw(JsonWriter json, Framing framing) {
+        if (framing != null) {
+            framing.writeFrame(json.buffer(), 0, json.length());
+        }
+    }
+
+    /**
+     * Send a frame written while it is encoded, for large list responses
+     * whose rows have already been read. See {@link Framing#writeStreamed}.
+     */
+    static <E extends Exception> void sendStreamed(Framing.FrameBody<E> body, Framing framing) throws E {
+        if (framing != null) {
+            framing.writeStreamed(body);
+        }
+    }
+
     /**
      * Send raw JSON frame using PrintWriter (legacy support).
      */
-    static synchronized void sendRaw(String json, java.io.PrintWriter out) {
+    static void sendRaw(String json, java.io.PrintWriter out) {
         if (out != null) {
             out.println(json);
             out.flush();
@@ -47,33 +86,66 @@ public class ProtocolParser {
 
     /**
      * Extract a string value from a JSON object by key.
-     * Uses regex pattern matching for simple JSON parsing.
+     * Parses the whole object; handlers that read several fields should
+     * call {@link JsonParser#parseObject(String)} once instead.
      * 
      * @param json JSON string to parse
      * @param key  Field name to extract
-     * @return The unescaped string value, or null if not found
+     * @return The unescaped string value, or null if not found or not valid JSON
      */
     static String extractJsonString(String json, String key) {
         if (json == null || key == null) return null;
         try {
-            java.util.regex.Pattern p = java.util.regex.Pattern.compile("\"" + java.util.regex.Pattern.quote(key) + "\"\\s*:\\s*\\\"(.*?)\\\"");
-            java.util.regex.Matcher m = p.matcher(json);
-            if (m.find()) {
-                return unescape(m.group(1));
-            }
-        } catch (Exception e) {
+            return JsonParser.parseObject(json).getString(key);
+        } catch (IllegalArgumentException e) {
             // ignore parse errors
         }
         return null;
     }
 
     /**
-     * Escape a string for JSON format.
-     * Handles backslashes, quotes, and newlines.
+     * Escape a string for JSON format in a single pass.
+     * Handles backslashes, quotes and all control characters.
+     * Frames are built with {@link JsonWriter}, which escapes as it encodes.
      */
     static String escape(String s) {
         if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20) {
+                replacement = String.format("\\u%04x", (int) c);
+            } else {
+                if (sb != null) sb.append(c);
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(s.length() + 16);
+                sb.append(s, 0, i);
+            }
+            sb.append(replacement);
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    /**
+     * Format an epoch-millisecond timestamp the way responses carry it: an
+     * ISO-8601 local date-time in the server's zone, e.g.
+     * 2026-01-01T09:30:00.125.
+     */
+    static String timestamp(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault()).toString();
     }
 
     /**
@@ -0,0 +1,14 @@
+package com.example.chat.server;
+
+import java.sql.SQLException;
+
+/**
+ * Receives query results one row at a time while the ResultSet is still
+ * open, so a caller can use them without collecting them in a List.
+ * Visitors should not run queries of their own, nor write to a client's
+ * socket: the row's connection stays borrowed until the visit returns.
+ */
+@FunctionalInterface
+interface RowVisitor<T> {
+    void visit(T row) throws SQLException;
+}
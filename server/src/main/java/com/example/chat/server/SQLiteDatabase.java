@@ -1,84 +1,87 @@
 package com.example.chat.server;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.sql.Statement;
 
+/**
+ * Access to the chat database through pooled connections.
+ *
+ * Reads borrow from a pool of chat.db.pool.size connections. All writes are
+ * commands run by the {@link DatabaseWriter} thread on its own connection, so
+ * they queue up instead of failing with SQLITE_BUSY against each other.
+ * Every connection is set up with the {@link PragmaProfile} chosen by chat.db.profile.
+ * Opening the database applies any pending {@link SchemaMigrations}.
+ */
 public final class SQLiteDatabase {
-    private static final String DATABASE_URL = "jdbc:sqlite:encrypted_app.db";
+    static final String DATABASE_URL = "jdbc:sqlite:encrypted_app.db";
+    static final int DEFAULT_POOL_SIZE = Integer.getInteger("chat.db.pool.size", 4);
+
+    private final ConnectionPool readers;
+    private final DatabaseWriter writer;
 
     public SQLiteDatabase() {
-        createTables();
+        this(DEFAULT_POOL_SIZE);
     }
 
-    public Connection connect() throws SQLException {
-        return DriverManager.getConnection(DATABASE_URL);
+    /**
+     * @param readerConnections Connections available to readers at the same
+     *        time, on top of the writer thread's connection
+     */
+    public SQLiteDatabase(int readerConnections) {
+        this(DATABASE_URL, readerConnections, PragmaProfile.fromSystemProperties());
     }
 
-    private void createTables() {
-        String userTable = "CREATE TABLE IF NOT EXISTS USERS ("
-                + "    user_id TEXT PRIMARY KEY,"
-                + "    username TEXT UNIQUE NOT NULL,"
-                + "    email TEXT UNIQUE,"
-                + "    password_hash TEXT NOT NULL,"
-                + "    display_name TEXT NOT NULL,"
-                + "    avatar_url TEXT,"
-                + "    is_online INTEGER,"
-                + "    last_seen TEXT,"
-                + "    created_at TEXT"
-                + ");";
-
-        String sessionTable = "CREATE TABLE IF NOT EXISTS USER_SESSIONS ("
-                + "    session_id TEXT PRIMARY KEY,"
-                + "    user_id TEXT NOT NULL,"
-                + "    session_token TEXT UNIQUE NOT NULL,"
-                + "    device_info TEXT,"
-                + "    created_at TEXT,"
-                + "    expires_at TEXT,"
-                + "    last_activity TEXT,"
-                + "    FOREIGN KEY (user_id) REFERENCES USERS(user_id) ON DELETE CASCADE"
-                + ");";
-
-        String conversationTable = "CREATE TABLE IF NOT EXISTS CONVERSATIONS ("
-                + "    conversation_id TEXT PRIMARY KEY,"
-                + "    name TEXT,"
-                + "    is_group INTEGER,"
-                + "    created_at TEXT"
-                + ");";
-
-        String participantTable = "CREATE TABLE IF NOT EXISTS CONVERSATION_PARTICIPANTS ("
-                + "    participant_id TEXT PRIMARY KEY,"
-                + "    conversation_id TEXT NOT NULL,"
-                + "    user_id TEXT NOT NULL,"
-                + "    joined_at TEXT,"
-                + "    FOREIGN KEY (conversation_id) REFERENCES CONVERSATIONS(conversation_id) ON DELETE CASCADE,"
-                + "    FOREIGN KEY (user_id) REFERENCES USERS(user_id) ON DELETE CASCADE"
-                + ");";
-
-        String messageTable = "CREATE TABLE IF NOT EXISTS MESSAGES ("
-                + "    message_id TEXT PRIMARY KEY,"
-                + "    conversation_id TEXT NOT NULL,"
-                + "    sender_id TEXT NOT NULL,"
-                + "    content TEXT NOT NULL,"
-                + "    created_at TEXT,"
-                + "    FOREIGN KEY (conversation_id) REFERENCES CONVERSATIONS(conversation_id) ON DELETE CASCADE,"
-                + "    FOREIGN KEY (sender_id) REFERENCES USERS(user_id) ON DELETE CASCADE"
-                + ");";
+    public SQLiteDatabase(String url, int readerConnections, PragmaProfile profile) {
+        try {
+            this.writer = new DatabaseWriter(url, profile,
+                    Integer.getInteger("chat.db.writer.queue.capacity", 4096));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot open database " + url, e);
+        }
+        this.readers = new ConnectionPool("readers", url, readerConnections, profile);
+        Metrics.register("db_readers", readers::stats);
+        Metrics.register("db_writer", writer::stats);
+        migrate();
+        System.out.println("SQLite: Using profile " + profile);
+    }
 
-        try (Connection conn = connect();
-                Statement stmt = conn.createStatement()) {
+    /**
+     * Borrow a connection for queries. Closing it returns it to the pool.
+     */
+    public Connection connect() throws SQLException {
+        return readers.borrow();
+    }
 
-            stmt.execute(userTable);
-            stmt.execute(sessionTable);
-            stmt.execute(conversationTable);
-            stmt.execute(participantTable);
-            stmt.execute(messageTable);
+    /**
+     * Run a write on the writer thread and wait for its result. Every INSERT,
+     * UPDATE, DELETE and schema change goes through here. The command runs in
+     * auto-commit mode unless it starts a transaction itself.
+     */
+    <T> T write(DatabaseWriter.Command<T> command) throws SQLException {
+        return writer.write(command);
+    }
 
-            System.out.println("SQLite: All database tables created/verified successfully.");
+    /**
+     * Finish the queued writes, then close the writer and pooled connections.
+     */
+    public void close() {
+        writer.close();
+        readers.close();
+    }
 
+    /**
+     * Bring the schema up to date with {@link SchemaMigrations}. The server
+     * does not start on a schema it failed to migrate.
+     */
+    private void migrate() {
+        try {
+            int applied = write(SchemaMigrations::migrate);
+            System.out.println("SQLite: Schema at version " + write(SchemaMigrations::currentVersion)
+                    + (applied == 0 ? ", up to date." : ", applied " + applied + " migration(s)."));
         } catch (SQLException e) {
-            System.err.println("Error setting up database tables: " + e.getMessage());
+            System.err.println("Error migrating database schema: " + e.getMessage());
+            close();
+            throw new IllegalStateException("Database schema migration failed", e);
         }
     }
-}
\ No newline at end of file
+}
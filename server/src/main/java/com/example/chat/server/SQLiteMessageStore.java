@@ -0,0 +1,178 @@
+package com.example.chat.server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Messages as rows of the MESSAGES table, keyed by their sequence. History
+ * reads are range scans on the (conversation_key, message_seq) index.
+ *
+ * Every insert runs on the database's one writer thread, and each message
+ * takes its final sequence there, just before its row is bound. Rows are
+ * therefore committed in sequence order: a reader that has seen a sequence
+ * has seen every smaller one, however the savers' threads were scheduled.
+ */
+final class SQLiteMessageStore implements MessageStore {
+
+    // Rows refer to their conversation and sender by integer key; an unknown
+    // external ID leaves the key NULL, which the NOT NULL constraint rejects
+    private static final String INSERT_SQL = "INSERT INTO MESSAGES(message_seq, message_id, conversation_key, sender_key, content, created_at) "
+            + "VALUES(?, ?, (SELECT conversation_key FROM CONVERSATIONS WHERE conversation_id = ?), "
+            + "(SELECT user_key FROM USERS WHERE user_id = ?), ?, ?)";
+
+    // Messages with the external IDs of their conversation and sender
+    private static final String SELECT_SQL = "SELECT m.message_seq, m.message_id, c.conversation_id, u.user_id AS sender_id, "
+            + "m.content, m.created_at FROM MESSAGES m "
+            + "JOIN CONVERSATIONS c ON c.conversation_key = m.conversation_key "
+            + "JOIN USERS u ON u.user_key = m.sender_key ";
+
+    private final SQLiteDatabase db;
+    private final MessageBatcher batcher;
+
+    /**
+     * @param batcher Group-commits {@link #save} calls; null writes each
+     *        message in its own transaction
+     */
+    SQLiteMessageStore(SQLiteDatabase db, MessageBatcher batcher) {
+        this.db = db;
+        this.batcher = batcher;
+    }
+
+    /**
+     * With a {@link MessageBatcher} set up, the insert joins the next batch,
+     * and whether this waits for its commit depends on the batcher's
+     * durability mode.
+     */
+    @Override
+    public void save(Message message) throws SQLException {
+        if (batcher != null) {
+            batcher.save(message);
+            return;
+        }
+
+        try {
+            db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(INSERT_SQL)) {
+                    message.resequence(MessageIds.next());
+                    bind(pstmt, message);
+                    return pstmt.executeUpdate();
+                }
+            });
+            System.out.println("DB: Saved new message in conversation " + message.getConversationId());
+
+        } catch (SQLException e) {
+            System.err.println("DB Error saving message: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Insert messages on a connection, leaving the transaction to the caller.
+     * Runs on the writer thread, which gives the messages their sequences.
+     */
+    static void insertAll(Connection conn, List<Message> messages) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(INSERT_SQL)) {
+            for (Message m : messages) {
+                m.resequence(MessageIds.next());
+                bind(pstmt, m);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    private static void bind(PreparedStatement pstmt, Message m) throws SQLException {
+        pstmt.setLong(1, m.getSeq());
+        pstmt.setString(2, m.getMessageId());
+        pstmt.setString(3, m.getConversationId());
+        pstmt.setString(4, m.getSenderId());
+        pstmt.setString(5, m.getContent());
+        pstmt.setLong(6, m.getCreatedAt());
+    }
+
+    @Override
+    public void scan(String conversationId, Long from, Long to, int limit, RowVisitor<Message> visitor)
+            throws SQLException {
+        String sql = SELECT_SQL + "WHERE c.conversation_id = ?"
+                + (from == null ? "" : " AND m.message_seq > ?")
+                + (to == null ? "" : " AND m.message_seq < ?")
+                + " ORDER BY m.message_seq ASC LIMIT ?";
+        try (Connection conn = db.connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            pstmt.setString(i++, conversationId);
+            for (Long seq : new Long[] { from, to }) {
+                if (seq != null) {
+                    pstmt.setLong(i++, seq);
+                }
+            }
+            pstmt.setInt(i, limit);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                visitor.visit(fromRow(rs));
+            }
+        } catch (SQLException e) {
+            System.err.println("DB Error finding messages: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public Long seqBefore(String conversationId, Long before, int skip) throws SQLException {
+        String sql = "SELECT m.message_seq FROM MESSAGES m "
+                + "JOIN CONVERSATIONS c ON c.conversation_key = m.conversation_key "
+                + "WHERE c.conversation_id = ?"
+                + (before == null ? "" : " AND m.message_seq < ?")
+                + " ORDER BY m.message_seq DESC LIMIT 1 OFFSET ?";
+        try (Connection conn = db.connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            pstmt.setString(i++, conversationId);
+            if (before != null) {
+                pstmt.setLong(i++, before);
+            }
+            pstmt.setInt(i, skip);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : null;
+        } catch (SQLException e) {
+            System.err.println("DB Error finding message page: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public long lastSeq() throws SQLException {
+        try (Connection conn = db.connect();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT MAX(message_seq) FROM MESSAGES");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static Message fromRow(ResultSet rs) throws SQLException {
+        return new Message(
+            rs.getLong("message_seq"),
+            rs.getString("message_id"),
+            rs.getString("conversation_id"),
+            rs.getString("sender_id"),
+            rs.getString("content"),
+            rs.getLong("created_at")
+        );
+    }
+
+    @Override
+    public boolean inDatabase() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+}
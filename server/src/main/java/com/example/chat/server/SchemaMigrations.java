@@ -0,0 +1,364 @@
+package com.example.chat.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Versioned schema changes, applied in order when the server starts.
+ *
+ * The version a database is at lives in SQLite's {@code user_version} header
+ * field. Each pending migration runs in its own transaction together with the
+ * bump of that field, so a failed migration leaves the database at the
+ * previous version and the next start retries it. A database created before
+ * migrations existed is at version 0; migration 1 only creates the tables
+ * that are missing, so it adopts such a database as it is.
+ *
+ * New schema changes are appended to {@link #MIGRATIONS} with the next
+ * version number. A migration that has shipped is never edited.
+ */
+final class SchemaMigrations {
+
+    /**
+     * One schema change. Runs inside the migration's transaction.
+     */
+    interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    static final class Migration {
+        final int version;
+        final String description;
+        final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    static final List<Migration> MIGRATIONS;
+
+    static {
+        List<Migration> m = new ArrayList<>();
+
+        m.add(new Migration(1, "create tables", sql(
+                "CREATE TABLE IF NOT EXISTS USERS ("
+                        + "    user_id TEXT PRIMARY KEY,"
+                        + "    username TEXT UNIQUE NOT NULL,"
+                        + "    email TEXT UNIQUE,"
+                        + "    password_hash TEXT NOT NULL,"
+                        + "    display_name TEXT NOT NULL,"
+                        + "    avatar_url TEXT,"
+                        + "    is_online INTEGER,"
+                        + "    last_seen TEXT,"
+                        + "    created_at TEXT"
+                        + ");",
+                "CREATE TABLE IF NOT EXISTS USER_SESSIONS ("
+                        + "    session_id TEXT PRIMARY KEY,"
+                        + "    user_id TEXT NOT NULL,"
+                        + "    session_token TEXT UNIQUE NOT NULL,"
+                        + "    device_info TEXT,"
+                        + "    created_at TEXT,"
+                        + "    expires_at TEXT,"
+                        + "    last_activity TEXT,"
+                        + "    FOREIGN KEY (user_id) REFERENCES USERS(user_id) ON DELETE CASCADE"
+                        + ");",
+                "CREATE TABLE IF NOT EXISTS CONVERSATIONS ("
+                        + "    conversation_id TEXT PRIMARY KEY,"
+                        + "    name TEXT,"
+                        + "    is_group INTEGER,"
+                        + "    created_at TEXT"
+                        + ");",
+                "CREATE TABLE IF NOT EXISTS CONVERSATION_PARTICIPANTS ("
+                        + "    participant_id TEXT PRIMARY KEY,"
+                        + "    conversation_id TEXT NOT NULL,"
+                        + "    user_id TEXT NOT NULL,"
+                        + "    joined_at TEXT,"
+                        + "    FOREIGN KEY (conversation_id) REFERENCES CONVERSATIONS(conversation_id) ON DELETE CASCADE,"
+                        + "    FOREIGN KEY (user_id) REFERENCES USERS(user_id) ON DELETE CASCADE"
+                        + ");",
+                "CREATE TABLE IF NOT EXISTS MESSAGES ("
+                        + "    message_id TEXT PRIMARY KEY,"
+                        + "    conversation_id TEXT NOT NULL,"
+                        + "    sender_id TEXT NOT NULL,"
+                        + "    content TEXT NOT NULL,"
+                        + "    created_at TEXT,"
+                        + "    FOREIGN KEY (conversation_id) REFERENCES CONVERSATIONS(conversation_id) ON DELETE CASCADE,"
+                        + "    FOREIGN KEY (sender_id) REFERENCES USERS(user_id) ON DELETE CASCADE"
+                        + ");")));
+
+        // Message history: WHERE conversation_id = ? ORDER BY created_at.
+        // Participants by conversation (member lists, isParticipant, removal)
+        // and by user (a user's conversations, the existing 1-on-1 lookup).
+        // Sessions by user for the username join.
+        m.add(new Migration(2, "indexes for the hot query paths", sql(
+                "CREATE INDEX IF NOT EXISTS idx_messages_conversation_created"
+                        + " ON MESSAGES(conversation_id, created_at)",
+                "CREATE INDEX IF NOT EXISTS idx_participants_conversation_user"
+                        + " ON CONVERSATION_PARTICIPANTS(conversation_id, user_id)",
+                "CREATE INDEX IF NOT EXISTS idx_participants_user_conversation"
+                        + " ON CONVERSATION_PARTICIPANTS(user_id, conversation_id)",
+                "CREATE INDEX IF NOT EXISTS idx_sessions_user"
+                        + " ON USER_SESSIONS(user_id)",
+                "ANALYZE")));
+
+        // Keyset paging orders history by (created_at, message_id); with the id
+        // in the index a page is one range scan, even among equal timestamps
+        m.add(new Migration(3, "keyset index for message history", sql(
+                "CREATE INDEX IF NOT EXISTS idx_messages_conversation_page"
+                        + " ON MESSAGES(conversation_id, created_at, message_id)",
+                "DROP INDEX IF EXISTS idx_messages_conversation_created")));
+
+        // Every table gets an INTEGER PRIMARY KEY (the rowid, so no separate
+        // key index) and keeps its UUID only as a unique external ID; rows
+        // refer to each other by these integer keys. Messages are keyed by a
+        // time-ordered sequence (see MessageIds), so inserts append to the
+        // table and the history index, and history has a total order even
+        // within one timestamp. Existing messages get their sequence from
+        // created_at, which was written in local time. Rows whose user or
+        // conversation is gone are dropped, as their ON DELETE CASCADE meant.
+        m.add(new Migration(4, "integer keys and time-ordered message ids", sql(
+                "CREATE TABLE USERS_V4 ("
+                        + "    user_key INTEGER PRIMARY KEY,"
+                        + "    user_id TEXT UNIQUE NOT NULL,"
+                        + "    username TEXT UNIQUE NOT NULL,"
+                        + "    email TEXT UNIQUE,"
+                        + "    password_hash TEXT NOT NULL,"
+                        + "    display_name TEXT NOT NULL,"
+                        + "    avatar_url TEXT,"
+                        + "    is_online INTEGER,"
+                        + "    last_seen TEXT,"
+                        + "    created_at TEXT"
+                        + ")",
+                "INSERT INTO USERS_V4(user_id, username, email, password_hash, display_name, avatar_url,"
+                        + " is_online, last_seen, created_at)"
+                        + " SELECT user_id, username, email, password_hash, display_name, avatar_url,"
+                        + " is_online, last_seen, created_at FROM USERS ORDER BY rowid",
+                "CREATE TABLE CONVERSATIONS_V4 ("
+                        + "    conversation_key INTEGER PRIMARY KEY,"
+                        + "    conversation_id TEXT UNIQUE NOT NULL,"
+                        + "    name TEXT,"
+                        + "    is_group INTEGER,"
+                        + "    created_at TEXT"
+                        + ")",
+                "INSERT INTO CONVERSATIONS_V4(conversation_id, name, is_group, created_at)"
+                        + " SELECT conversation_id, name, is_group, created_at FROM CONVERSATIONS ORDER BY rowid",
+                "CREATE TABLE USER_SESSIONS_V4 ("
+                        + "    session_key INTEGER PRIMARY KEY,"
+                        + "    session_id TEXT UNIQUE NOT NULL,"
+                        + "    user_key INTEGER NOT NULL,"
+                        + "    session_token TEXT UNIQUE NOT NULL,"
+                        + "    device_info TEXT,"
+                        + "    created_at TEXT,"
+                        + "    expires_at TEXT,"
+                        + "    last_activity TEXT,"
+                        + "    FOREIGN KEY (user_key) REFERENCES USERS(user_key) ON DELETE CASCADE"
+                        + ")",
+                "INSERT INTO USER_SESSIONS_V4(session_id, user_key, session_token, device_info, created_at,"
+                        + " expires_at, last_activity)"
+                        + " SELECT s.session_id, u.user_key, s.session_token, s.device_info, s.created_at,"
+                        + " s.expires_at, s.last_activity"
+                        + " FROM USER_SESSIONS s JOIN USERS_V4 u ON u.user_id = s.user_id ORDER BY s.rowid",
+                "CREATE TABLE CONVERSATION_PARTICIPANTS_V4 ("
+                        + "    participant_key INTEGER PRIMARY KEY,"
+                        + "    participant_id TEXT UNIQUE NOT NULL,"
+                        + "    conversation_key INTEGER NOT NULL,"
+                        + "    user_key INTEGER NOT NULL,"
+                        + "    joined_at TEXT,"
+                        + "    FOREIGN KEY (conversation_key) REFERENCES CONVERSATIONS(conversation_key) ON DELETE CASCADE,"
+                        + "    FOREIGN KEY (user_key) REFERENCES USERS(user_key) ON DELETE CASCADE"
+                        + ")",
+                "INSERT INTO CONVERSATION_PARTICIPANTS_V4(participant_id, conversation_key, user_key, joined_at)"
+                        + " SELECT p.participant_id, c.conversation_key, u.user_key, p.joined_at"
+                        + " FROM CONVERSATION_PARTICIPANTS p"
+                        + " JOIN CONVERSATIONS_V4 c ON c.conversation_id = p.conversation_id"
+                        + " JOIN USERS_V4 u ON u.user_id = p.user_id ORDER BY p.rowid",
+                "CREATE TABLE MESSAGES_V4 ("
+                        + "    message_seq INTEGER PRIMARY KEY,"
+                        + "    message_id TEXT UNIQUE NOT NULL,"
+                        + "    conversation_key INTEGER NOT NULL,"
+                        + "    sender_key INTEGER NOT NULL,"
+                        + "    content TEXT NOT NULL,"
+                        + "    created_at TEXT,"
+                        + "    FOREIGN KEY (conversation_key) REFERENCES CONVERSATIONS(conversation_key) ON DELETE CASCADE,"
+                        + "    FOREIGN KEY (sender_key) REFERENCES USERS(user_key) ON DELETE CASCADE"
+                        + ")",
+                // Milliseconds since the epoch, shifted left by the sequence
+                // bits, plus a counter for messages within the same millisecond
+                "INSERT INTO MESSAGES_V4(message_seq, message_id, conversation_key, sender_key, content, created_at)"
+                        + " SELECT (millis << " + MessageIds.SEQUENCE_BITS + ")"
+                        + " + ROW_NUMBER() OVER (PARTITION BY millis ORDER BY created_at, message_id) - 1,"
+                        + " message_id, conversation_key, sender_key, content, created_at FROM ("
+                        + "  SELECT COALESCE(CAST(ROUND((julianday(m.created_at, 'utc') - 2440587.5) * 86400000) AS INTEGER), 0)"
+                        + "  AS millis, m.message_id, c.conversation_key, u.user_key AS sender_key, m.content, m.created_at"
+                        + "  FROM MESSAGES m"
+                        + "  JOIN CONVERSATIONS_V4 c ON c.conversation_id = m.conversation_id"
+                        + "  JOIN USERS_V4 u ON u.user_id = m.sender_id)",
+                "DROP TABLE MESSAGES",
+                "DROP TABLE CONVERSATION_PARTICIPANTS",
+                "DROP TABLE USER_SESSIONS",
+                "DROP TABLE CONVERSATIONS",
+                "DROP TABLE USERS",
+                "ALTER TABLE USERS_V4 RENAME TO USERS",
+                "ALTER TABLE CONVERSATIONS_V4 RENAME TO CONVERSATIONS",
+                "ALTER TABLE USER_SESSIONS_V4 RENAME TO USER_SESSIONS",
+                "ALTER TABLE CONVERSATION_PARTICIPANTS_V4 RENAME TO CONVERSATION_PARTICIPANTS",
+                "ALTER TABLE MESSAGES_V4 RENAME TO MESSAGES",
+                "CREATE INDEX idx_messages_conversation_seq ON MESSAGES(conversation_key, message_seq)",
+                "CREATE INDEX idx_participants_conversation_user"
+                        + " ON CONVERSATION_PARTICIPANTS(conversation_key, user_key)",
+                "CREATE INDEX idx_participants_user_conversation"
+                        + " ON CONVERSATION_PARTICIPANTS(user_key, conversation_key)",
+                "CREATE INDEX idx_sessions_user ON USER_SESSIONS(user_key)",
+                "ANALYZE")));
+
+        // Timestamps become INTEGER epoch milliseconds, so ordering, expiry
+        // and range checks compare integers instead of parsing text. The old
+        // text was local time, in two formats (yyyy-MM-dd HH:mm:ss and
+        // LocalDateTime.toString()), both of which julianday() reads; text it
+        // cannot read becomes NULL, except a message's time, which its
+        // sequence still holds. Each column is replaced in place: added as
+        // INTEGER, filled, the text column dropped and the new one renamed.
+        List<String> v5 = new ArrayList<>();
+        epochMillisColumn(v5, "USERS", "last_seen", null);
+        epochMillisColumn(v5, "USERS", "created_at", null);
+        epochMillisColumn(v5, "USER_SESSIONS", "created_at", null);
+        epochMillisColumn(v5, "USER_SESSIONS", "expires_at", null);
+        epochMillisColumn(v5, "USER_SESSIONS", "last_activity", null);
+        epochMillisColumn(v5, "CONVERSATIONS", "created_at", null);
+        epochMillisColumn(v5, "CONVERSATION_PARTICIPANTS", "joined_at", null);
+        epochMillisColumn(v5, "MESSAGES", "created_at", "message_seq >> " + MessageIds.SEQUENCE_BITS);
+        // Expired sessions are deleted by a range on expires_at
+        v5.add("CREATE INDEX idx_sessions_expires ON USER_SESSIONS(expires_at)");
+        v5.add("ANALYZE");
+        m.add(new Migration(5, "epoch millisecond timestamps", sql(v5.toArray(new String[0]))));
+
+        // Full-text index of message content for search_messages. FTS5 with
+        // MESSAGES as its external content table, so the text is stored once
+        // and the index rows are keyed by message_seq. Triggers keep it in
+        // step inside the transaction that writes the messages; the messages
+        // already stored are indexed once, here, never again at startup.
+        m.add(new Migration(6, "full-text message search", sql(
+                "CREATE VIRTUAL TABLE MESSAGES_FTS USING fts5("
+                        + "content, content='MESSAGES', content_rowid='message_seq',"
+                        + " tokenize='unicode61 remove_diacritics 2')",
+                "CREATE TRIGGER messages_fts_insert AFTER INSERT ON MESSAGES BEGIN"
+                        + " INSERT INTO MESSAGES_FTS(rowid, content) VALUES (new.message_seq, new.content);"
+                        + " END",
+                "CREATE TRIGGER messages_fts_delete AFTER DELETE ON MESSAGES BEGIN"
+                        + " INSERT INTO MESSAGES_FTS(MESSAGES_FTS, rowid, content)"
+                        + " VALUES ('delete', old.message_seq, old.content);"
+                        + " END",
+                "CREATE TRIGGER messages_fts_update AFTER UPDATE OF content ON MESSAGES BEGIN"
+                        + " INSERT INTO MESSAGES_FTS(MESSAGES_FTS, rowid, content)"
+                        + " VALUES ('delete', old.message_seq, old.content);"
+                        + " INSERT INTO MESSAGES_FTS(rowid, content) VALUES (new.message_seq, new.content);"
+                        + " END",
+                "INSERT INTO MESSAGES_FTS(rowid, content) SELECT message_seq, content FROM MESSAGES")));
+
+        MIGRATIONS = Collections.unmodifiableList(m);
+    }
+
+    private SchemaMigrations() {
+    }
+
+    /**
+     * @return The version the newest migration brings a database to
+     */
+    static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /**
+     * @return The schema version recorded in the database
+     */
+    static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Apply every migration newer than the database's version.
+     *
+     * @return The number of migrations applied
+     * @throws SQLException if a migration fails, or the database was written
+     *         by a newer server than this one
+     */
+    static int migrate(Connection conn) throws SQLException {
+        int current = currentVersion(conn);
+        if (current > latestVersion()) {
+            throw new SQLException("Database schema version " + current
+                    + " is newer than this server supports (" + latestVersion() + ")");
+        }
+
+        int applied = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        try {
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version <= current) {
+                    continue;
+                }
+                conn.setAutoCommit(false);
+                try {
+                    migration.step.apply(conn);
+                    try (Statement stmt = conn.createStatement()) {
+                        // Pragma arguments cannot be bound; the version is an int
+                        stmt.execute("PRAGMA user_version = " + migration.version);
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Schema migration " + migration.version + " ("
+                            + migration.description + ") failed: " + e.getMessage(), e);
+                }
+                System.out.println("SQLite: Applied schema migration " + migration.version
+                        + " (" + migration.description + ")");
+                current = migration.version;
+                applied++;
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return applied;
+    }
+
+    /**
+     * Add the statements that turn a local-time text column into INTEGER
+     * epoch milliseconds, keeping its name.
+     *
+     * @param fallback SQL for the value of rows whose text is unreadable, or
+     *        null to leave them NULL
+     */
+    private static void epochMillisColumn(List<String> statements, String table, String column, String fallback) {
+        String millis = "CAST(ROUND((julianday(" + column + ", 'utc') - 2440587.5) * 86400000) AS INTEGER)";
+        if (fallback != null) {
+            millis = "COALESCE(" + millis + ", " + fallback + ")";
+        }
+        String temp = column + "_ms";
+        statements.add("ALTER TABLE " + table + " ADD COLUMN " + temp + " INTEGER");
+        statements.add("UPDATE " + table + " SET " + temp + " = " + millis);
+        statements.add("ALTER TABLE " + table + " DROP COLUMN " + column);
+        statements.add("ALTER TABLE " + table + " RENAME COLUMN " + temp + " TO " + column);
+    }
+
+    /**
+     * A step that runs the given statements in order.
+     */
+    static Step sql(String... statements) {
+        return conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                for (String statement : statements) {
+                    stmt.execute(statement);
+                }
+            }
+        };
+    }
+}
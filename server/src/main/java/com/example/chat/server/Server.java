@@ -2,28 +2,79 @@ package com.example.chat.server;
 
 import java.net.*;
 import java.io.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.*;
 
 public class Server {
-    
+
+    /**
+     * How accepted connections are served.
+     *
+     * THREAD_POOL: one pooled platform thread per connection for its whole lifetime.
+     * VIRTUAL:     one virtual thread per connection (JDK 21+), blocking code unchanged.
+     * NIO:         a few EventLoop threads own all sockets; frames are handled on the pool.
+     */
+    public enum Transport {
+        THREAD_POOL,
+        VIRTUAL,
+        NIO
+    }
+
     private ServerSocket serverSocket = null;
+    private ServerSocketChannel serverChannel = null;
     private int port;
+    private Transport transport;
     private static List<ClientHandler> connectedClients;
     private ExecutorService threadPool;
+    private ExecutorService writerPool;
+    private List<EventLoop> eventLoops = new ArrayList<>();
     private boolean running = true;
     private static final int THREAD_POOL_SIZE = 10;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int EVENT_LOOP_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
 
     public Server(int port) {
+        this(port, Transport.NIO);
+    }
+
+    public Server(int port, Transport transport) {
         this.port = port;
+        this.transport = transport;
         connectedClients = Collections.synchronizedList(new ArrayList<>());
-        this.threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        this.threadPool = transport == Transport.VIRTUAL
+                ? newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+
+        // Drains per-connection outbound queues; a write blocked on one slow
+        // client only holds that client's drain task
+        this.writerPool = transport == Transport.VIRTUAL
+                ? threadPool
+                : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Looked up reflectively so the server still builds and runs on JDK 11/17
+     * when the virtual transport is not selected.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The virtual transport requires JDK 21 or newer", e);
+        }
     }
 
     public void start() {
+        if(transport == Transport.NIO) {
+            startEventLoops();
+            return;
+        }
+
         try {
-            serverSocket = new ServerSocket(port);
-            System.out.println("Server Started on port " + port);
+            serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
+            System.out.println("Server Started on port " + port + " (" + transport + ")");
 
             while (running) {
                 System.out.println("Connected Clients: " + connectedClients.size());
@@ -31,7 +82,7 @@ public class Server {
                 Socket socket = serverSocket.accept();
                 System.out.println("Client accepted: " + socket.getInetAddress());
 
-                ClientHandler clientHandler = new ClientHandler(socket);
+                ClientHandler clientHandler = new ClientHandler(socket, writerPool);
                 connectedClients.add(clientHandler);
 
                 threadPool.execute(clientHandler);
@@ -43,17 +94,56 @@ public class Server {
         }
     }
 
+    /**
+     * Accept connections and spread them round-robin over the event loops.
+     * The thread pool only runs frame handlers, so it no longer limits how
+     * many clients can be connected at once.
+     */
+    private void startEventLoops() {
+        try {
+            for(int i = 0; i < EVENT_LOOP_COUNT; i++) {
+                EventLoop loop = new EventLoop("event-loop-" + i);
+                eventLoops.add(loop);
+                loop.start();
+            }
+
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            System.out.println("Server Started on port " + port + " with " + EVENT_LOOP_COUNT + " event loop(s)");
+
+            int next = 0;
+            while (running) {
+                SocketChannel channel = serverChannel.accept();
+                System.out.println("Client accepted: " + channel.socket().getInetAddress());
+
+                EventLoop loop = eventLoops.get(next);
+                next = (next + 1) % eventLoops.size();
+
+                ChannelFraming framing = new ChannelFraming(channel, loop);
+                ClientHandler clientHandler = new ClientHandler(framing, threadPool);
+                connectedClients.add(clientHandler);
+                loop.register(framing, clientHandler);
+
+                System.out.println("Connected Clients: " + connectedClients.size());
+            }
+        }
+        catch(IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+        }
+    }
+
     public static synchronized void removeClient(ClientHandler client) {
         try {
-            client.getSocket().close();
+            client.disconnect();
 
         } catch (Exception e) {
 
         }
 
 
-        connectedClients.remove(client);
-        System.out.println("Client removed. Total clients: " + connectedClients.size());
+        if(connectedClients.remove(client)) {
+            System.out.println("Client removed. Total clients: " + connectedClients.size());
+        }
     }
 
     public List<ClientHandler> getConnectedClients() {
@@ -73,9 +163,23 @@ public class Server {
                 serverSocket.close();
             }
 
+            if(serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+
+            for(EventLoop loop : eventLoops) {
+                loop.shutdown();
+            }
+            for(EventLoop loop : eventLoops) {
+                loop.awaitTermination(1000);
+            }
+
             threadPool.shutdown();
+            writerPool.shutdown();
 
             if(!threadPool.awaitTermination(1, TimeUnit.SECONDS));
+
+            System.out.print(Metrics.snapshot());
         }
         catch(IOException | InterruptedException e) {
             System.err.println("Error during shutdown: " + e.getMessage());
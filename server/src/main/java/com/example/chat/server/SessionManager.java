@@ -1,9 +1,6 @@
 package com.example.chat.server;
 
 import java.sql.SQLException;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 
 public class SessionManager {
 
@@ -19,12 +16,7 @@ public class SessionManager {
                 return null;
             }
 
-            // Convert LocalDateTime (from UserSession) to Instant for comparison,
-            // using the static formatter provided by UserSession.
-            Instant expiresAtInstant = LocalDateTime.parse(sessionRecord.getExpiresAt(), UserSession.getFormatter())
-                    .atZone(ZoneId.systemDefault()).toInstant();
-
-            if (expiresAtInstant.isBefore(Instant.now())) {
+            if (sessionRecord.isExpired(System.currentTimeMillis())) {
                 sessionRecord.delete();
                 return null;
             }
@@ -0,0 +1,406 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JSON framing over the blocking streams of a socket.
+ *
+ * The connection's own thread pulls frames with {@link #readFrame()}.
+ * Responses are written by the calling thread; frames pushed by other
+ * threads are queued and written in batches by a drain task.
+ */
+public class StreamFraming extends Framing {
+    // Frames are decoded straight from the bytes read, without a Reader.
+    // The read buffer is borrowed from the BufferPool while it holds unread
+    // bytes and is null while the connection waits for data.
+    private final InputStream reader;
+    private ByteBuffer readBuffer;
+
+    // Frames arrive already UTF-8 encoded, so the writer is a plain byte
+    // stream. Frames are gathered in a pooled buffer borrowed for one write
+    // or drain (write lock held) and flushed to the socket at its end. A
+    // drain waiting for more frames leaves its batch in the buffer, and a
+    // response written meanwhile flushes it along with its own frame.
+    private final OutputStream writer;
+    private ByteBuffer writeBuffer;
+    private int bufferedFrames = 0;
+    private volatile boolean writeFailed = false;
+
+    // Orders frames written to this connection only; responses and pushed
+    // messages from other threads never interleave, and other connections
+    // are unaffected. A lock rather than synchronized so a virtual thread
+    // blocked in the socket write does not pin its carrier.
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final Executor writerExecutor;
+
+    /**
+     * Initialize the Framing handler with input/output streams.
+     * Queued frames are written on the calling thread.
+     *
+     * @param inputStream  Input stream from socket
+     * @param outputStream Output stream from socket
+     * @throws UnsupportedEncodingException if UTF-8 is not supported
+     */
+    public StreamFraming(InputStream inputStream, OutputStream outputStream) throws UnsupportedEncodingException {
+        this(inputStream, outputStream, Runnable::run);
+    }
+
+    /**
+     * Initialize the Framing handler with input/output streams.
+     *
+     * @param inputStream    Input stream from socket
+     * @param outputStream   Output stream from socket
+     * @param writerExecutor Runs the task that drains the outbound queue
+     * @throws UnsupportedEncodingException if UTF-8 is not supported
+     */
+    public StreamFraming(InputStream inputStream, OutputStream outputStream, Executor writerExecutor)
+            throws UnsupportedEncodingException {
+        this.reader = inputStream;
+        this.writer = outputStream;
+        this.writerExecutor = writerExecutor;
+    }
+
+    /**
+     * Read a single JSON frame from the stream.
+     * Blocks until a complete frame is available or EOF is reached.
+     *
+     * @return The JSON string, or null if EOF reached
+     * @throws IOException if an I/O error occurs
+     */
+    public String readFrame() throws IOException {
+        try {
+            String frame;
+            while (readBuffer == null || (frame = decoder.next(readBuffer)) == null) {
+                releaseReadBuffer();
+                // Wait for the first byte without holding a buffer, then
+                // take whatever else has already arrived
+                int first = reader.read();
+                if (first < 0) {
+                    return null;
+                }
+                readBuffer = BufferPool.IO.acquire();
+                byte[] bytes = readBuffer.array();
+                bytes[0] = (byte) first;
+                int n = 1;
+                int available = Math.min(reader.available(), bytes.length - 1);
+                if (available > 0) {
+                    n += Math.max(reader.read(bytes, 1, available), 0);
+                }
+                readBuffer.limit(n);
+            }
+            if (!readBuffer.hasRemaining()) {
+                releaseReadBuffer();
+            }
+            return frame;
+        } catch (IOException e) {
+            releaseReadBuffer();
+            throw e;
+        }
+    }
+
+    private void releaseReadBuffer() {
+        if (readBuffer != null) {
+            BufferPool.IO.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    @Override
+    public void setMode(Mode mode) {
+        writeLock.lock();
+        try {
+            decoder.setMode(mode);
+            writeMode = mode;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void writeFrame(byte[] frame, int offset, int length) {
+        writeLock.lock();
+        try {
+            if (writeFailed) {
+                return;
+            }
+            byte[] compressed = compressing && length >= FrameCompression.THRESHOLD
+                    ? FrameCompression.compress(frame, offset, length) : null;
+            writeDelimited(frame, offset, length, compressed);
+            flushWrites();
+        } catch (IOException e) {
+            writeFailed(e);
+        } finally {
+            releaseWriteBuffer();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * In newline mode the frame goes to the socket each time the writer's
+     * buffer fills, so its encoded form never exists in memory as a whole.
+     * Length-prefixed frames need their length up front and are built whole.
+     *
+     * The write lock is held while the body runs and may wait on the socket.
+     * If the body fails while the frame is still within one buffer, nothing
+     * is sent and the caller may answer with an error frame. Once part of
+     * the frame is on the wire it cannot be taken back, and a second frame
+     * would be read as the reply to the client's next request, so the
+     * connection is closed instead and later frames are dropped.
+     */
+    @Override
+    public <E extends Exception> void writeStreamed(FrameBody<E> body) throws E {
+        if (writeMode != Mode.NEWLINE) {
+            super.writeStreamed(body);
+            return;
+        }
+        try (JsonWriter json = JsonWriter.obtain()) {
+            writeLock.lock();
+            if (writeFailed) {
+                writeLock.unlock();
+                return;
+            }
+            boolean[] started = { false };
+            boolean complete = false;
+            try {
+                json.streamTo((bytes, offset, length) -> {
+                    started[0] = true;
+                    put(bytes, offset, length);
+                });
+                body.write(json);
+                complete = true;
+                put(json.buffer(), 0, json.length());
+                put(NEWLINE, 0, 1);
+                bufferedFrames++;
+                flushWrites();
+            } catch (UncheckedIOException e) {
+                writeFailed(e.getCause());
+            } catch (IOException e) {
+                writeFailed(e);
+            } finally {
+                if (!complete && started[0]) {
+                    abortPartialFrame();
+                }
+                releaseWriteBuffer();
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Give up on a connection whose current frame was cut short, so the
+     * client sees the connection drop rather than a truncated reply. Caller
+     * holds the write lock.
+     */
+    private void abortPartialFrame() {
+        writeFailed(new IOException("Streamed frame failed after it was partly sent"));
+        close();
+    }
+
+    /**
+     * Write one frame with the current mode's delimiting, sending the
+     * compressed body instead when there is one. Caller holds the write lock.
+     */
+    private void writeDelimited(byte[] frame, int offset, int length, byte[] compressed) throws IOException {
+        if (writeMode == Mode.LENGTH_PREFIXED) {
+            int header = length;
+            if (compressed != null) {
+                FrameCompression.recordWrite(length, compressed.length);
+                header = compressed.length | FrameCompression.COMPRESSED_FLAG;
+                frame = compressed;
+                offset = 0;
+                length = compressed.length;
+            }
+            putHeader(header);
+            put(frame, offset, length);
+        } else {
+            put(frame, offset, length);
+            put(NEWLINE, 0, 1);
+        }
+        bufferedFrames++;
+    }
+
+    /**
+     * Append bytes to the write buffer, borrowing one if needed. Frames
+     * larger than the buffer go straight to the socket. Caller holds the
+     * write lock.
+     */
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        if (writeBuffer == null) {
+            writeBuffer = BufferPool.IO.acquire();
+        }
+        if (length > writeBuffer.remaining()) {
+            flushWriteBuffer();
+            if (length > writeBuffer.capacity()) {
+                writer.write(bytes, offset, length);
+                return;
+            }
+        }
+        writeBuffer.put(bytes, offset, length);
+    }
+
+    private void putHeader(int header) throws IOException {
+        if (writeBuffer == null) {
+            writeBuffer = BufferPool.IO.acquire();
+        }
+        if (writeBuffer.remaining() < 4) {
+            flushWriteBuffer();
+        }
+        writeBuffer.putInt(header);
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        if (writeBuffer != null && writeBuffer.position() > 0) {
+            writer.write(writeBuffer.array(), 0, writeBuffer.position());
+            writeBuffer.clear();
+        }
+    }
+
+    /**
+     * Put everything buffered on the wire. Caller holds the write lock.
+     */
+    private void flushWrites() throws IOException {
+        flushWriteBuffer();
+        writer.flush();
+        recordFlush(bufferedFrames);
+        bufferedFrames = 0;
+    }
+
+    /**
+     * Hand the write buffer back once a write or drain is done, unless it
+     * still holds the batch of a drain waiting for more frames. A failed
+     * connection gives it back regardless. Caller holds the write lock.
+     */
+    private void releaseWriteBuffer() {
+        if (writeBuffer != null && (bufferedFrames == 0 || writeFailed)) {
+            BufferPool.IO.release(writeBuffer);
+            writeBuffer = null;
+            bufferedFrames = 0;
+        }
+    }
+
+    /**
+     * The reading side notices the broken connection; report it once here.
+     */
+    private void writeFailed(IOException e) {
+        if (!writeFailed) {
+            writeFailed = true;
+            System.err.println("Framing: Write failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean enqueue(OutboundFrame frame) {
+        if (outbound.offer(frame) == OutboundQueue.Result.OVERFLOW) {
+            return false;
+        }
+        if (draining.compareAndSet(false, true)) {
+            writerExecutor.execute(this::drain);
+        }
+        return true;
+    }
+
+    /**
+     * Write everything queued as one batch and flush once, so a burst of
+     * group messages costs one syscall instead of one per frame.
+     */
+    private void drain() {
+        do {
+            writeLock.lock();
+            try {
+                long flushDeadline = 0;
+                while (true) {
+                    OutboundFrame frame = outbound.poll();
+                    if (frame == null) {
+                        if (bufferedFrames == 0 || !awaitMoreFrames(flushDeadline)) {
+                            break;
+                        }
+                        continue;
+                    }
+                    if (bufferedFrames == 0) {
+                        // A new batch, or a response flushed the last one while we waited
+                        flushDeadline = System.nanoTime() + FLUSH_DELAY_NANOS;
+                    }
+                    byte[] payload = frame.getPayload();
+                    writeDelimited(payload, 0, payload.length, compressedPayload(frame));
+                }
+                if (bufferedFrames > 0) {
+                    flushWrites();
+                }
+            } catch (IOException e) {
+                writeFailed(e);
+                outbound.clear();
+            } finally {
+                releaseWriteBuffer();
+                writeLock.unlock();
+            }
+            draining.set(false);
+        } while (!outbound.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    /**
+     * Give more frames a short chance to join the current batch. The write
+     * lock is released while waiting, so responses are not held back by the
+     * batching window; one written meanwhile flushes the batch with it.
+     * Caller holds the write lock, and holds it again on return.
+     *
+     * @return true if frames arrived before the flush deadline
+     */
+    private boolean awaitMoreFrames(long flushDeadline) {
+        if (FLUSH_DELAY_NANOS == 0) {
+            return false;
+        }
+        writeLock.unlock();
+        try {
+            while (outbound.isEmpty()) {
+                long remaining = flushDeadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(Math.min(remaining, 50_000L));
+            }
+            return true;
+        } finally {
+            writeLock.lock();
+        }
+    }
+
+    /**
+     * Close the reader and writer, releasing resources.
+     */
+    @Override
+    public void close() {
+        outbound.clear();
+
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+        }
+
+        try {
+            writer.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Check if the reader is ready (has data available).
+     *
+     * @return true if data is available to read
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean isReady() throws IOException {
+        ByteBuffer buffer = readBuffer;
+        return (buffer != null && buffer.hasRemaining()) || reader.available() > 0;
+    }
+}
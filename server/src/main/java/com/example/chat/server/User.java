@@ -1,12 +1,12 @@
 package com.example.chat.server;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 
 public class User {
@@ -17,24 +17,27 @@ public class User {
     private String displayName;
     private String avatarUrl;
     private int isOnline;
-    private String lastSeen;
-    private String createdAt;
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Epoch milliseconds
+    private long lastSeen;
+    private long createdAt;
     private static SQLiteDatabase db;
 
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 500;
+
     public User(String userId, String username, String email, String passwordHash, String displayName) {
         this.userId = userId;
         this.username = username;
         this.email = email;
         this.passwordHash = passwordHash;
         this.displayName = displayName;
-        this.createdAt = LocalDateTime.now().format(FORMATTER);
+        this.createdAt = System.currentTimeMillis();
         this.isOnline = 0;
         this.lastSeen = this.createdAt;
     }
 
     private User(String userId, String username, String email, String passwordHash, String displayName,
-            String avatarUrl, int isOnline, String lastSeen, String createdAt) {
+            String avatarUrl, int isOnline, long lastSeen, long createdAt) {
         this.userId = userId;
         this.username = username;
         this.email = email;
@@ -71,8 +74,8 @@ public class User {
                         rs.getString("display_name"),
                         rs.getString("avatar_url"),
                         rs.getInt("is_online"),
-                        rs.getString("last_seen"),
-                        rs.getString("created_at"));
+                        rs.getLong("last_seen"),
+                        rs.getLong("created_at"));
             }
         } catch (SQLException e) {
             System.err.println("DB Error finding user by ID: " + e.getMessage());
@@ -102,8 +105,8 @@ public class User {
                         rs.getString("display_name"),
                         rs.getString("avatar_url"),
                         rs.getInt("is_online"),
-                        rs.getString("last_seen"),
-                        rs.getString("created_at"));
+                        rs.getLong("last_seen"),
+                        rs.getLong("created_at"));
             }
         } catch (SQLException e) {
             System.err.println("DB Error finding user by username: " + e.getMessage());
@@ -112,18 +115,30 @@ public class User {
     }
 
     public static List<User> findAll() {
+        List<User> users = new ArrayList<>();
+        try {
+            visitAll(users::add);
+        } catch (SQLException e) {
+            // Already logged
+        }
+        return users;
+    }
+
+    /**
+     * Hand every user to the visitor as it is read.
+     */
+    static void visitAll(RowVisitor<User> visitor) throws SQLException {
         if (db == null)
-            return new ArrayList<>();
-        
+            return;
+
         String sql = "SELECT * FROM USERS";
-        List<User> users = new ArrayList<>();
 
         try (Connection conn = db.connect();
              PreparedStatement pstmt = conn.prepareStatement(sql);
              ResultSet rs = pstmt.executeQuery()) {
 
             while (rs.next()) {
-                users.add(new User(
+                visitor.visit(new User(
                         rs.getString("user_id"),
                         rs.getString("username"),
                         rs.getString("email"),
@@ -131,13 +146,80 @@ public class User {
                         rs.getString("display_name"),
                         rs.getString("avatar_url"),
                         rs.getInt("is_online"),
-                        rs.getString("last_seen"),
-                        rs.getString("created_at")));
+                        rs.getLong("last_seen"),
+                        rs.getLong("created_at")));
             }
         } catch (SQLException e) {
             System.err.println("DB Error finding all users: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Hand one page of users to the visitor in the order they registered.
+     * Each page is a range read on the primary key that starts after the
+     * last user of the previous page.
+     *
+     * @return The cursor for the next page, or null if this was the last
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static String visitPage(int limit, String cursor, RowVisitor<User> visitor) throws SQLException {
+        int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        long after = cursor == null ? 0 : decodeCursor(cursor);
+        if (db == null)
+            return null;
+
+        String sql = "SELECT * FROM USERS WHERE user_key > ? ORDER BY user_key LIMIT ?";
+
+        try (Connection conn = db.connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, after);
+            // One extra row tells whether there is another page
+            pstmt.setInt(2, size + 1);
+            ResultSet rs = pstmt.executeQuery();
+
+            int visited = 0;
+            long lastKey = after;
+            while (rs.next()) {
+                if (visited == size) {
+                    return encodeCursor(lastKey);
+                }
+                lastKey = rs.getLong("user_key");
+                visitor.visit(new User(
+                        rs.getString("user_id"),
+                        rs.getString("username"),
+                        rs.getString("email"),
+                        rs.getString("password_hash"),
+                        rs.getString("display_name"),
+                        rs.getString("avatar_url"),
+                        rs.getInt("is_online"),
+                        rs.getLong("last_seen"),
+                        rs.getLong("created_at")));
+                visited++;
+            }
+        } catch (SQLException e) {
+            System.err.println("DB Error finding a page of users: " + e.getMessage());
+            throw e;
+        }
+        return null;
+    }
+
+    /**
+     * Cursors are opaque to clients: the last user's key, base64url encoded.
+     */
+    private static String encodeCursor(long userKey) {
+        byte[] bytes = Long.toString(userKey).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static long decodeCursor(String cursor) {
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            // Also covers NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor");
         }
-        return users;
     }
 
     public static boolean userExists(String username) {
@@ -161,12 +243,14 @@ public class User {
             throw new IllegalStateException("Database connection not initialized.");
 
         String sql = "UPDATE USERS SET is_online = ? WHERE user_id = ?";
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setInt(1, isOnline ? 1 : 0);
-            pstmt.setString(2, userId);
-            pstmt.executeUpdate();
+        try {
+            db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setInt(1, isOnline ? 1 : 0);
+                    pstmt.setString(2, userId);
+                    return pstmt.executeUpdate();
+                }
+            });
 
             System.out.println("DB: Updated user " + userId + " online status to: " + (isOnline ? "Online" : "Offline"));
         } catch (SQLException e) {
@@ -182,19 +266,20 @@ public class User {
         String sql = "INSERT INTO USERS(user_id, username, email, password_hash, display_name, created_at, is_online, last_seen) "
                 + "VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
 
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, this.userId);
-            pstmt.setString(2, this.username);
-            pstmt.setString(3, this.email);
-            pstmt.setString(4, this.passwordHash);
-            pstmt.setString(5, this.displayName);
-            pstmt.setString(6, this.createdAt);
-            pstmt.setInt(7, this.isOnline);
-            pstmt.setString(8, this.lastSeen);
-
-            pstmt.executeUpdate();
+        try {
+            db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, this.userId);
+                    pstmt.setString(2, this.username);
+                    pstmt.setString(3, this.email);
+                    pstmt.setString(4, this.passwordHash);
+                    pstmt.setString(5, this.displayName);
+                    pstmt.setLong(6, this.createdAt);
+                    pstmt.setInt(7, this.isOnline);
+                    pstmt.setLong(8, this.lastSeen);
+                    return pstmt.executeUpdate();
+                }
+            });
             System.out.println("DB: Saved new user: " + this.username);
 
         } catch (SQLException e) {
@@ -209,16 +294,17 @@ public class User {
         if (db == null)
             return;
 
-        String now = LocalDateTime.now().format(FORMATTER);
+        long now = System.currentTimeMillis();
         String sql = "UPDATE USERS SET " + column + " = ? WHERE user_id = ?";
 
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, now);
-            pstmt.setString(2, this.userId);
-
-            pstmt.executeUpdate();
+        try {
+            db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setLong(1, now);
+                    pstmt.setString(2, this.userId);
+                    return pstmt.executeUpdate();
+                }
+            });
 
             if ("last_seen".equals(column)) {
                 this.lastSeen = now;
@@ -253,11 +339,17 @@ public class User {
         return isOnline;
     }
 
-    public String getLastSeen() {
+    /**
+     * @return When the user was last seen, in epoch milliseconds
+     */
+    public long getLastSeen() {
         return lastSeen;
     }
 
-    public String getCreatedAt() {
+    /**
+     * @return When the user registered, in epoch milliseconds
+     */
+    public long getCreatedAt() {
         return createdAt;
     }
 }
\ No newline at end of file
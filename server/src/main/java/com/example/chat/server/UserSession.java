@@ -4,8 +4,6 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.UUID;
 
 public class UserSession {
@@ -13,10 +11,11 @@ public class UserSession {
     private String userId;
     private String sessionToken;
     private String deviceInfo;
-    private String createdAt;
-    private String expiresAt;
-    private String lastActivity;
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Epoch milliseconds
+    private long createdAt;
+    private long expiresAt;
+    private long lastActivity;
+    static final long LIFETIME_MILLIS = 24L * 60 * 60 * 1000;
     private static SQLiteDatabase db;
 
     public UserSession() {}
@@ -25,14 +24,14 @@ public class UserSession {
         this.sessionId = UUID.randomUUID().toString();
         this.userId = userId;
         this.sessionToken = sessionToken;
-        this.createdAt = LocalDateTime.now().format(FORMATTER);
-        this.expiresAt = LocalDateTime.now().plusDays(1).format(FORMATTER);
+        this.createdAt = System.currentTimeMillis();
+        this.expiresAt = this.createdAt + LIFETIME_MILLIS;
         this.lastActivity = this.createdAt;
         this.deviceInfo = "Unknown";
     }
 
     private UserSession(String sessionId, String userId, String sessionToken, String deviceInfo,
-            String createdAt, String expiresAt, String lastActivity) {
+            long createdAt, long expiresAt, long lastActivity) {
         this.sessionId = sessionId;
         this.userId = userId;
         this.sessionToken = sessionToken;
@@ -49,7 +48,8 @@ public class UserSession {
     public static UserSession findByToken(String sessionToken) throws SQLException {
         if (db == null)
             return null;
-        String sql = "SELECT * FROM USER_SESSIONS WHERE session_token = ?";
+        String sql = "SELECT s.*, u.user_id FROM USER_SESSIONS s " +
+                "JOIN USERS u ON u.user_key = s.user_key WHERE s.session_token = ?";
 
         try (Connection conn = db.connect();
                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -63,9 +63,9 @@ public class UserSession {
                         rs.getString("user_id"),
                         rs.getString("session_token"),
                         rs.getString("device_info"),
-                        rs.getString("created_at"),
-                        rs.getString("expires_at"),
-                        rs.getString("last_activity"));
+                        rs.getLong("created_at"),
+                        rs.getLong("expires_at"),
+                        rs.getLong("last_activity"));
             }
             return null;
         } catch (SQLException e) {
@@ -77,7 +77,7 @@ public class UserSession {
     public static UserSession findTokenByUsername(String username) throws SQLException {
         if (db == null)
             return null;
-        String sql = "SELECT USER_SESSIONS.* FROM USERS JOIN USER_SESSIONS ON USER_SESSIONS.user_id = USERS.user_id WHERE username = ?";
+        String sql = "SELECT s.*, u.user_id FROM USERS u JOIN USER_SESSIONS s ON s.user_key = u.user_key WHERE u.username = ?";
 
         try (Connection conn = db.connect();
                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -91,9 +91,9 @@ public class UserSession {
                         rs.getString("user_id"),
                         rs.getString("session_token"),
                         rs.getString("device_info"),
-                        rs.getString("created_at"),
-                        rs.getString("expires_at"),
-                        rs.getString("last_activity"));
+                        rs.getLong("created_at"),
+                        rs.getLong("expires_at"),
+                        rs.getLong("last_activity"));
             }
             return null;
         } catch (SQLException e) {
@@ -108,21 +108,22 @@ public class UserSession {
             return;
         }
 
-        String sql = "INSERT INTO USER_SESSIONS(session_id, user_id, session_token, device_info, created_at, expires_at, last_activity) "
-                + "VALUES(?, ?, ?, ?, ?, ?, ?)";
-
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, this.sessionId);
-            pstmt.setString(2, this.userId);
-            pstmt.setString(3, this.sessionToken);
-            pstmt.setString(4, this.deviceInfo);
-            pstmt.setString(5, this.createdAt);
-            pstmt.setString(6, this.expiresAt);
-            pstmt.setString(7, this.lastActivity);
-
-            pstmt.executeUpdate();
+        String sql = "INSERT INTO USER_SESSIONS(session_id, user_key, session_token, device_info, created_at, expires_at, last_activity) "
+                + "VALUES(?, (SELECT user_key FROM USERS WHERE user_id = ?), ?, ?, ?, ?, ?)";
+
+        try {
+            db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, this.sessionId);
+                    pstmt.setString(2, this.userId);
+                    pstmt.setString(3, this.sessionToken);
+                    pstmt.setString(4, this.deviceInfo);
+                    pstmt.setLong(5, this.createdAt);
+                    pstmt.setLong(6, this.expiresAt);
+                    pstmt.setLong(7, this.lastActivity);
+                    return pstmt.executeUpdate();
+                }
+            });
             System.out.println("DB: Saved new session for user ID: " + this.userId);
         } catch (SQLException e) {
             System.err.println("DB Error saving session: " + e.getMessage());
@@ -135,11 +136,13 @@ public class UserSession {
             throw new IllegalStateException("Database connection not initialized.");
 
         String sql = "DELETE FROM USER_SESSIONS WHERE session_token = ?";
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, this.sessionToken);
-            pstmt.executeUpdate();
+        try {
+            db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, this.sessionToken);
+                    return pstmt.executeUpdate();
+                }
+            });
             System.out.println("DB: Deleted session: " + this.sessionToken);
         } catch (SQLException e) {
             System.err.println("DB Error deleting session: " + e.getMessage());
@@ -147,22 +150,49 @@ public class UserSession {
         }
     }
 
+    /**
+     * Delete every session that expired before the given time, a range scan
+     * on the expires_at index.
+     *
+     * @return The number of sessions deleted
+     */
+    public static int deleteExpired(long nowMillis) throws SQLException {
+        if (db == null)
+            throw new IllegalStateException("Database connection not initialized.");
+
+        String sql = "DELETE FROM USER_SESSIONS WHERE expires_at <= ?";
+        try {
+            int deleted = db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setLong(1, nowMillis);
+                    return pstmt.executeUpdate();
+                }
+            });
+            System.out.println("DB: Deleted " + deleted + " expired sessions");
+            return deleted;
+        } catch (SQLException e) {
+            System.err.println("DB Error deleting expired sessions: " + e.getMessage());
+            throw e;
+        }
+    }
+
     // Updates a single allowed timestamp column (e.g., last_activity) to the
     // current time
     public void updateTimestamp(String column) throws SQLException {
         if (db == null)
             return;
 
-        String now = LocalDateTime.now().format(FORMATTER);
+        long now = System.currentTimeMillis();
         String sql = "UPDATE USER_SESSIONS SET " + column + " = ? WHERE session_token = ?";
 
-        try (Connection conn = db.connect();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, now);
-            pstmt.setString(2, this.sessionToken);
-
-            pstmt.executeUpdate();
+        try {
+            db.write(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setLong(1, now);
+                    pstmt.setString(2, this.sessionToken);
+                    return pstmt.executeUpdate();
+                }
+            });
 
             if ("last_activity".equals(column)) {
                 this.lastActivity = now;
@@ -179,22 +209,25 @@ public class UserSession {
         return userId;
     }
 
-    public String getExpiresAt() {
+    /**
+     * @return When the session expires, in epoch milliseconds
+     */
+    public long getExpiresAt() {
         return expiresAt;
     }
 
+    public boolean isExpired(long nowMillis) {
+        return expiresAt <= nowMillis;
+    }
+
     public String getSessionToken() {
         return sessionToken;
     }
 
-    public String getLastActivity() {
+    public long getLastActivity() {
         return lastActivity;
     }
 
-    public static DateTimeFormatter getFormatter() {
-        return FORMATTER;
-    }
-
     public String getDeviceInfo() {
         return deviceInfo;
     }
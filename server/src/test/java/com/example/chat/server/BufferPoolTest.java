@@ -0,0 +1,56 @@
+package com.example.chat.server;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the pooled I/O buffers.
+ */
+public class BufferPoolTest
+    extends TestCase
+{
+    public BufferPoolTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BufferPoolTest.class );
+    }
+
+    public void testReleasedBufferIsReusedCleared()
+    {
+        BufferPool pool = new BufferPool( 64, 4 );
+        ByteBuffer first = pool.acquire();
+        first.put( (byte) 1 );
+        pool.release( first );
+
+        ByteBuffer second = pool.acquire();
+        assertSame( first, second );
+        assertEquals( 0, second.position() );
+        assertEquals( 64, second.remaining() );
+        assertEquals( 0.5, pool.getHitRate(), 0.001 );
+    }
+
+    public void testTracksHighWaterMark()
+    {
+        BufferPool pool = new BufferPool( 16, 1 );
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        ByteBuffer c = pool.acquire();
+        assertEquals( 3, pool.getInUse() );
+        pool.release( a );
+        pool.release( b );
+        pool.release( c );
+
+        assertEquals( 0, pool.getInUse() );
+        assertEquals( 3, pool.getHighWaterMark() );
+        // Only one buffer is kept; the others are left to the collector
+        assertSame( a, pool.acquire() );
+        assertNotSame( b, pool.acquire() );
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.chat.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the JDBC connection pool.
+ */
+public class ConnectionPoolTest
+    extends TestCase
+{
+    private static final String URL = "jdbc:sqlite::memory:";
+
+    public ConnectionPoolTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ConnectionPoolTest.class );
+    }
+
+    public void testClosedConnectionIsReused() throws SQLException
+    {
+        ConnectionPool pool = new ConnectionPool( "test", URL, 2 );
+        Connection first = pool.borrow();
+        Connection raw = first.unwrap( Connection.class );
+        first.close();
+        assertTrue( first.isClosed() );
+        assertFalse( raw.isClosed() );
+
+        try ( Connection second = pool.borrow() )
+        {
+            assertSame( raw, second.unwrap( Connection.class ) );
+            assertEquals( 1, pool.getActive() );
+        }
+        assertEquals( 0, pool.getActive() );
+        assertEquals( 1, pool.getIdle() );
+        pool.close();
+        assertTrue( raw.isClosed() );
+    }
+
+    public void testOpenTransactionIsRolledBackOnReturn() throws SQLException
+    {
+        ConnectionPool pool = new ConnectionPool( "test", URL, 1 );
+        try ( Connection conn = pool.borrow(); Statement stmt = conn.createStatement() )
+        {
+            stmt.execute( "CREATE TABLE t (v INTEGER)" );
+            conn.setAutoCommit( false );
+            stmt.execute( "INSERT INTO t VALUES (1)" );
+        }
+
+        try ( Connection conn = pool.borrow();
+              Statement stmt = conn.createStatement();
+              ResultSet rs = stmt.executeQuery( "SELECT COUNT(*) FROM t" ) )
+        {
+            assertTrue( conn.getAutoCommit() );
+            assertEquals( 0, rs.getInt( 1 ) );
+        }
+        pool.close();
+    }
+
+    public void testBorrowWaitsWhenExhausted() throws Exception
+    {
+        ConnectionPool pool = new ConnectionPool( "test", URL, 1 );
+        Connection held = pool.borrow();
+        CountDownLatch started = new CountDownLatch( 1 );
+        AtomicReference<Connection> borrowed = new AtomicReference<>();
+        Thread waiter = new Thread( () -> {
+            started.countDown();
+            try
+            {
+                borrowed.set( pool.borrow() );
+            }
+            catch ( SQLException e )
+            {
+                throw new IllegalStateException( e );
+            }
+        } );
+        waiter.start();
+        started.await();
+        Thread.sleep( 50 );
+        assertNull( borrowed.get() );
+
+        held.close();
+        waiter.join( 2000 );
+        assertNotNull( borrowed.get() );
+        assertTrue( pool.stats().contains( "waits=1" ) );
+        borrowed.get().close();
+        pool.close();
+    }
+}
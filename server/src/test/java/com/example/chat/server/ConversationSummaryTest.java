@@ -0,0 +1,189 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the conversation list query.
+ */
+public class ConversationSummaryTest
+    extends TestCase
+{
+    private TestDatabase db;
+    private long seq = 0;
+
+    public ConversationSummaryTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ConversationSummaryTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException, SQLException
+    {
+        db = new TestDatabase( "chat-summary-" );
+        Conversation.initialize( db.get() );
+
+        db.users( "me", "a", "b" );
+        conversation( "quiet", "Quiet", "1", "2026-01-01T00:00:00" );
+        conversation( "busy", "Busy", "0", "2026-01-01T00:00:01" );
+        conversation( "new", "New", "1", "2026-01-03T00:00:00" );
+        conversation( "elsewhere", "Elsewhere", "0", "2026-01-01T00:00:00" );
+        db.join( "quiet", "me", "a", "b" );
+        db.join( "busy", "me", "a" );
+        db.join( "new", "me" );
+        db.join( "elsewhere", "a", "b" );
+
+        StringBuilder longText = new StringBuilder();
+        for ( int i = 0; i < 300; i++ )
+        {
+            longText.append( 'x' );
+        }
+        message( "q1", "quiet", "a", "first", "2026-01-01T00:00:05" );
+        message( "b1", "busy", "me", "older", "2026-01-02T00:00:00" );
+        message( "b2", "busy", "a", longText.toString(), "2026-01-04T00:00:00" );
+        message( "e1", "elsewhere", "a", "not mine", "2026-01-05T00:00:00" );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        Conversation.initialize( null );
+        Message.initialize( null );
+        db.close();
+    }
+
+    public void testMostRecentlyActiveFirst() throws SQLException
+    {
+        List<Conversation.Summary> summaries = Conversation.findSummariesByUserId( "me" );
+        assertEquals( 3, summaries.size() );
+        assertEquals( "busy", summaries.get( 0 ).getConversation().getConversationId() );
+        assertEquals( "new", summaries.get( 1 ).getConversation().getConversationId() );
+        assertEquals( "quiet", summaries.get( 2 ).getConversation().getConversationId() );
+    }
+
+    public void testCarriesParticipantsAndLastMessage() throws SQLException
+    {
+        List<Conversation.Summary> summaries = Conversation.findSummariesByUserId( "me" );
+
+        Conversation.Summary busy = summaries.get( 0 );
+        assertTrue( busy.hasMessages() );
+        assertEquals( "a", busy.getLastSenderId() );
+        assertEquals( Conversation.PREVIEW_LENGTH, busy.getLastMessagePreview().length() );
+        assertEquals( TestDatabase.at( "2026-01-04T00:00:00" ), busy.getLastActivity() );
+        assertEquals( TestDatabase.at( "2026-01-04T00:00:00" ), busy.getLastMessageAt() );
+
+        Conversation.Summary quiet = summaries.get( 2 );
+        List<String> members = quiet.getParticipantIds().stream().sorted().collect( Collectors.toList() );
+        assertEquals( Arrays.asList( "a", "b", "me" ), members );
+        assertEquals( "first", quiet.getLastMessagePreview() );
+
+        Conversation.Summary empty = summaries.get( 1 );
+        assertFalse( empty.hasMessages() );
+        assertNull( empty.getLastMessagePreview() );
+        assertEquals( Arrays.asList( "me" ), empty.getParticipantIds() );
+        assertEquals( TestDatabase.at( "2026-01-03T00:00:00" ), empty.getLastActivity() );
+    }
+
+    public void testPagesThroughEqualActivity() throws SQLException
+    {
+        for ( int i = 0; i < 5; i++ )
+        {
+            conversation( "same" + i, "Same", "1", "2025-12-31T00:00:00" );
+            db.join( "same" + i, "me" );
+        }
+        List<String> all = ids( Conversation.findSummariesByUserId( "me" ) );
+        assertEquals( 8, all.size() );
+        // Same activity: the later conversation first
+        assertEquals( Arrays.asList( "same4", "same3", "same2", "same1", "same0" ), all.subList( 3, 8 ) );
+
+        assertEquals( all, pages( 3 ) );
+        try
+        {
+            Conversation.visitSummaries( "me", 3, "not a cursor", summary -> { } );
+            fail( "malformed cursor accepted" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    public void testPagesWithMessagesOutsideTheDatabase() throws SQLException
+    {
+        Message.initializeStore( new MemoryMessageStore() );
+        new Message( "quiet", "b", "now the latest" ).save();
+
+        List<String> all = pages( 2 );
+        assertEquals( Arrays.asList( "quiet", "busy", "new" ), all );
+        assertEquals( all, ids( Conversation.findSummariesByUserId( "me" ) ) );
+    }
+
+    public void testSummaryQueryUsesIndexes() throws SQLException
+    {
+        StringBuilder plan = new StringBuilder();
+        try ( Connection conn = db.get().connect();
+              PreparedStatement pstmt = conn.prepareStatement( "EXPLAIN QUERY PLAN " + Conversation.SUMMARY_SQL ) )
+        {
+            pstmt.setString( 1, "me" );
+            ResultSet rs = pstmt.executeQuery();
+            while ( rs.next() )
+            {
+                plan.append( rs.getString( "detail" ) ).append( '\n' );
+            }
+        }
+        String detail = plan.toString();
+        assertTrue( detail, detail.contains( "idx_messages_conversation_seq" ) );
+        assertTrue( detail, detail.contains( "idx_participants_user_conversation" ) );
+        assertFalse( detail, detail.contains( "SCAN MESSAGES" ) );
+        assertFalse( detail, detail.contains( "SCAN m" ) );
+    }
+
+    /**
+     * @return The user's conversation ids, read a page of the given size at a time
+     */
+    private static List<String> pages( int size ) throws SQLException
+    {
+        List<String> ids = new ArrayList<>();
+        String cursor = null;
+        do
+        {
+            cursor = Conversation.visitSummaries( "me", size, cursor,
+                summary -> ids.add( summary.getConversation().getConversationId() ) );
+        }
+        while ( cursor != null );
+        return ids;
+    }
+
+    private static List<String> ids( List<Conversation.Summary> summaries )
+    {
+        return summaries.stream().map( summary -> summary.getConversation().getConversationId() )
+            .collect( Collectors.toList() );
+    }
+
+    private void conversation( String id, String name, String isGroup, String createdAt ) throws SQLException
+    {
+        db.sql( "INSERT INTO CONVERSATIONS(conversation_id, name, is_group, created_at) VALUES(?, ?, ?, ?)",
+            id, name, isGroup, Long.toString( TestDatabase.at( createdAt ) ) );
+    }
+
+    private void message( String id, String conversationId, String senderId, String content, String createdAt )
+        throws SQLException
+    {
+        db.message( ++seq, id, conversationId, senderId, content, TestDatabase.at( createdAt ) );
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.chat.server;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the single database writer thread.
+ */
+public class DatabaseWriterTest
+    extends TestCase
+{
+    private DatabaseWriter writer;
+
+    public DatabaseWriterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( DatabaseWriterTest.class );
+    }
+
+    @Override
+    protected void setUp() throws SQLException
+    {
+        // The writer owns its connection, so an in-memory database is private to it
+        writer = new DatabaseWriter( "jdbc:sqlite::memory:", PragmaProfile.LEGACY, 16 );
+        writer.write( conn -> {
+            try ( Statement stmt = conn.createStatement() )
+            {
+                return stmt.executeUpdate( "CREATE TABLE T (v INTEGER PRIMARY KEY)" );
+            }
+        } );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        writer.close();
+    }
+
+    public void testWritesFromManyThreadsRunOnOneThread() throws Exception
+    {
+        Set<Thread> runners = ConcurrentHashMap.newKeySet();
+        List<Thread> callers = new ArrayList<>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            int base = t * 100;
+            callers.add( new Thread( () -> {
+                for ( int i = 0; i < 20; i++ )
+                {
+                    int v = base + i;
+                    try
+                    {
+                        writer.write( conn -> {
+                            runners.add( Thread.currentThread() );
+                            return insert( conn.createStatement(), v );
+                        } );
+                    }
+                    catch ( SQLException e )
+                    {
+                        throw new IllegalStateException( e );
+                    }
+                }
+            } ) );
+        }
+        callers.forEach( Thread::start );
+        for ( Thread t : callers )
+        {
+            t.join();
+        }
+
+        assertEquals( 1, runners.size() );
+        assertEquals( 160, count() );
+    }
+
+    public void testFailureReachesCallerAndRollsBack() throws SQLException
+    {
+        try
+        {
+            writer.write( conn -> {
+                conn.setAutoCommit( false );
+                insert( conn.createStatement(), 1 );
+                return insert( conn.createStatement(), 1 );
+            } );
+            fail( "duplicate key accepted" );
+        }
+        catch ( SQLException expected )
+        {
+        }
+        assertEquals( 0, count() );
+    }
+
+    public void testTransactionLeftOpenIsRolledBack() throws SQLException
+    {
+        writer.write( conn -> {
+            conn.setAutoCommit( false );
+            return insert( conn.createStatement(), 1 );
+        } );
+        assertEquals( 0, count() );
+        writer.write( conn -> insert( conn.createStatement(), 2 ) );
+        assertEquals( 1, count() );
+    }
+
+    public void testNestedWriteRunsInline() throws SQLException
+    {
+        int inner = writer.write( conn -> writer.write( c -> insert( c.createStatement(), 7 ) ) );
+        assertEquals( 1, inner );
+    }
+
+    public void testWritesFailAfterClose()
+    {
+        writer.close();
+        try
+        {
+            writer.write( conn -> insert( conn.createStatement(), 1 ) );
+            fail( "write accepted after close" );
+        }
+        catch ( SQLException expected )
+        {
+        }
+    }
+
+    private static int insert( Statement stmt, int v ) throws SQLException
+    {
+        try ( Statement s = stmt )
+        {
+            return s.executeUpdate( "INSERT INTO T VALUES (" + v + ")" );
+        }
+    }
+
+    private int count() throws SQLException
+    {
+        return writer.write( conn -> {
+            try ( Statement stmt = conn.createStatement();
+                  ResultSet rs = stmt.executeQuery( "SELECT COUNT(*) FROM T" ) )
+            {
+                return rs.getInt( 1 );
+            }
+        } );
+    }
+}
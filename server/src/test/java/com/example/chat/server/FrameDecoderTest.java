@@ -0,0 +1,177 @@
+package com.example.chat.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the incremental frame decoder.
+ */
+public class FrameDecoderTest
+    extends TestCase
+{
+    public FrameDecoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( FrameDecoderTest.class );
+    }
+
+    public void testNewlineFramesSplitAcrossReads()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        List<String> frames = new ArrayList<>();
+
+        decoder.decode( bytes( "{\"a\":1}\n{\"b\"" ), frames );
+        assertEquals( Arrays.asList( "{\"a\":1}" ), frames );
+        assertEquals( 4, decoder.pendingBytes() );
+
+        decoder.decode( bytes( ":2} \r\n" ), frames );
+        assertEquals( Arrays.asList( "{\"a\":1}", "{\"b\":2}" ), frames );
+        assertEquals( 0, decoder.pendingBytes() );
+    }
+
+    public void testLengthPrefixedFramesSplitAcrossReads()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setMode( Framing.Mode.LENGTH_PREFIXED );
+        byte[] wire = concat( prefixed( "{\"x\":\"\u00e9\"}" ), prefixed( "{}" ) );
+        List<String> frames = new ArrayList<>();
+
+        // Feed one byte at a time, splitting headers and bodies
+        for ( byte b : wire )
+        {
+            decoder.decode( ByteBuffer.wrap( new byte[] { b } ), frames );
+        }
+        assertEquals( Arrays.asList( "{\"x\":\"\u00e9\"}", "{}" ), frames );
+
+        frames.clear();
+        decoder.decode( ByteBuffer.wrap( wire ), frames );
+        assertEquals( Arrays.asList( "{\"x\":\"\u00e9\"}", "{}" ), frames );
+    }
+
+    public void testModeSwitchBetweenFrames()
+    {
+        FrameDecoder decoder = new FrameDecoder();
+        ByteBuffer in = ByteBuffer.wrap( concat( "{\"type\":\"set_framing\"}\n".getBytes( StandardCharsets.UTF_8 ),
+            prefixed( "{\"type\":\"7ekey\"}" ) ) );
+
+        assertEquals( "{\"type\":\"set_framing\"}", decoder.next( in ) );
+        decoder.setMode( Framing.Mode.LENGTH_PREFIXED );
+        assertEquals( "{\"type\":\"7ekey\"}", decoder.next( in ) );
+        assertNull( decoder.next( in ) );
+    }
+
+    public void testCompressedFrameRoundTrip()
+    {
+        StringBuilder sb = new StringBuilder( "{\"type\":\"messages_response\",\"success\":true,\"messages\":[" );
+        for ( int i = 0; i < 50; i++ )
+        {
+            sb.append( i == 0 ? "" : "," ).append( "{\"id\":\"" ).append( i ).append( "\",\"content\":\"hello\"}" );
+        }
+        String json = sb.append( "]}" ).toString();
+        byte[] raw = json.getBytes( StandardCharsets.UTF_8 );
+        byte[] compressed = FrameCompression.compress( raw, 0, raw.length );
+        assertNotNull( compressed );
+        assertTrue( compressed.length < raw.length / 4 );
+
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setMode( Framing.Mode.LENGTH_PREFIXED );
+        ByteBuffer in = ByteBuffer.allocate( 4 + compressed.length );
+        in.putInt( compressed.length | FrameCompression.COMPRESSED_FLAG ).put( compressed ).flip();
+        assertEquals( json, decoder.next( in ) );
+    }
+
+    public void testIncompressibleFrameIsSentAsIs()
+    {
+        byte[] raw = "{\"k\":\"x\"}".getBytes( StandardCharsets.UTF_8 );
+        assertNull( FrameCompression.compress( raw, 0, raw.length ) );
+    }
+
+    public void testOversizedLineIsSkipped()
+    {
+        FrameDecoder decoder = new FrameDecoder( 16 );
+        List<String> frames = new ArrayList<>();
+
+        // Rejected before the newline arrives, and without buffering it
+        try
+        {
+            decoder.decode( bytes( "{\"a\":\"0123456789abcdef" ), frames );
+            fail( "expected FrameTooLargeException" );
+        }
+        catch ( FrameDecoder.FrameTooLargeException e )
+        {
+            assertEquals( 0, decoder.pendingBytes() );
+        }
+
+        decoder.decode( bytes( "still the same line\n{\"b\":2}\n" ), frames );
+        assertEquals( Arrays.asList( "{\"b\":2}" ), frames );
+    }
+
+    public void testOversizedLengthHeaderIsRejected()
+    {
+        FrameDecoder decoder = new FrameDecoder( 16 );
+        decoder.setMode( Framing.Mode.LENGTH_PREFIXED );
+        ByteBuffer in = ByteBuffer.wrap( concat( prefixed( "{\"a\":\"0123456789abcdef\"}" ), prefixed( "{}" ) ) );
+
+        try
+        {
+            decoder.next( in );
+            fail( "expected FrameTooLargeException" );
+        }
+        catch ( FrameDecoder.FrameTooLargeException e )
+        {
+            assertEquals( 0, decoder.pendingBytes() );
+        }
+        assertEquals( "{}", decoder.next( in ) );
+        assertNull( decoder.next( in ) );
+    }
+
+    public void testOversizedFrameSplitAcrossReads()
+    {
+        FrameDecoder decoder = new FrameDecoder( 16 );
+        List<String> frames = new ArrayList<>();
+
+        decoder.decode( bytes( "{\"a\":\"012345" ), frames );
+        assertEquals( 12, decoder.pendingBytes() );
+        ByteBuffer in = bytes( "6789\"}\n{}\n" );
+        try
+        {
+            decoder.decode( in, frames );
+            fail( "expected FrameTooLargeException" );
+        }
+        catch ( FrameDecoder.FrameTooLargeException e )
+        {
+            assertEquals( 0, decoder.pendingBytes() );
+        }
+        decoder.decode( in, frames );
+        assertEquals( Arrays.asList( "{}" ), frames );
+    }
+
+    private static ByteBuffer bytes( String s )
+    {
+        return ByteBuffer.wrap( s.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    private static byte[] prefixed( String json )
+    {
+        byte[] body = json.getBytes( StandardCharsets.UTF_8 );
+        return ByteBuffer.allocate( 4 + body.length ).putInt( body.length ).put( body ).array();
+    }
+
+    private static byte[] concat( byte[] a, byte[] b )
+    {
+        byte[] out = Arrays.copyOf( a, a.length + b.length );
+        System.arraycopy( b, 0, out, a.length, b.length );
+        return out;
+    }
+}
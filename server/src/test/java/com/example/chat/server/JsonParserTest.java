@@ -0,0 +1,99 @@
+package com.example.chat.server;
+
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the single-pass frame decoder.
+ */
+public class JsonParserTest
+    extends TestCase
+{
+    public JsonParserTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( JsonParserTest.class );
+    }
+
+    public void testReadsAllValueTypes()
+    {
+        JsonObject o = JsonParser.parseObject(
+            "{ \"type\" : \"send_dm\", \"n\":-12, \"d\":1.5e2, \"ok\":true, \"no\":false, \"x\":null,"
+            + " \"ids\":[\"a\",\"b\"], \"nested\":{\"k\":\"v\"} }" );
+
+        assertEquals( "send_dm", o.getString( "type" ) );
+        assertEquals( Long.valueOf( -12 ), o.getLong( "n" ) );
+        assertEquals( 150.0, ( (Double) o.get( "d" ) ).doubleValue(), 0.0 );
+        assertEquals( Boolean.TRUE, o.getBoolean( "ok" ) );
+        assertEquals( Boolean.FALSE, o.getBoolean( "no" ) );
+        assertTrue( o.has( "x" ) );
+        assertNull( o.get( "x" ) );
+        assertEquals( Arrays.asList( "a", "b" ), o.getStringList( "ids" ) );
+        assertEquals( "v", o.getObject( "nested" ).getString( "k" ) );
+    }
+
+    public void testDecodesEscapes()
+    {
+        JsonObject o = JsonParser.parseObject( "{\"content\":\"say \\\"hi\\\"\\n\\\\ \\u00e9\\t/\\/\"}" );
+        assertEquals( "say \"hi\"\n\\ \u00e9\t//", o.getString( "content" ) );
+    }
+
+    public void testTypedGettersReturnNullForOtherTypes()
+    {
+        JsonObject o = JsonParser.parseObject( "{\"n\":1,\"s\":\"1\"}" );
+        assertNull( o.getString( "n" ) );
+        assertNull( o.getLong( "s" ) );
+        assertNull( o.getString( "missing" ) );
+    }
+
+    public void testRejectsMalformedInput()
+    {
+        String[] bad = { "", "{", "{\"a\":}", "{\"a\":1,}", "{\"a\":\"x}", "{\"a\":1} trailing", "[1]", "{\"a\":\"\\q\"}" };
+        for ( String json : bad )
+        {
+            try
+            {
+                JsonParser.parseObject( json );
+                fail( "Expected failure for: " + json );
+            }
+            catch ( IllegalArgumentException expected )
+            {
+            }
+        }
+    }
+
+    public void testRejectsDeepNesting()
+    {
+        StringBuilder ok = new StringBuilder( "{\"a\":" );
+        for ( int i = 1; i < JsonParser.MAX_DEPTH; i++ )
+        {
+            ok.append( '[' );
+        }
+        for ( int i = 1; i < JsonParser.MAX_DEPTH; i++ )
+        {
+            ok.append( ']' );
+        }
+        JsonParser.parseObject( ok.append( '}' ).toString() );
+
+        StringBuilder deep = new StringBuilder( "{\"a\":" );
+        for ( int i = 0; i < 100000; i++ )
+        {
+            deep.append( '[' );
+        }
+        try
+        {
+            JsonParser.parseObject( deep.toString() );
+            fail( "Expected failure for deep nesting" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the pooled outbound JSON writer.
+ */
+public class JsonWriterTest
+    extends TestCase
+{
+    public JsonWriterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( JsonWriterTest.class );
+    }
+
+    public void testWritesNestedStructures()
+    {
+        try ( JsonWriter json = JsonWriter.obtain() )
+        {
+            json.beginObject()
+                .field( "type", "conversations_response" )
+                .field( "success", true )
+                .field( "count", -3 )
+                .name( "ids" ).beginArray().value( "a" ).value( "b" ).endArray()
+                .name( "items" ).beginArray()
+                .beginObject().field( "id", "1" ).endObject()
+                .beginObject().field( "id", "2" ).endObject()
+                .endArray()
+                .name( "empty" ).beginArray().endArray()
+                .name( "missing" ).nullValue()
+                .endObject();
+
+            assertEquals( "{\"type\":\"conversations_response\",\"success\":true,\"count\":-3,\"ids\":[\"a\",\"b\"],"
+                + "\"items\":[{\"id\":\"1\"},{\"id\":\"2\"}],\"empty\":[],\"missing\":null}", json.toString() );
+        }
+    }
+
+    public void testEscapesAndEncodesInOnePass()
+    {
+        String content = "say \"hi\"\n\\ \t\r\b\f\u0001 \u00e9 \u20ac \ud83d\ude00";
+        try ( JsonWriter json = JsonWriter.obtain() )
+        {
+            json.beginObject().field( "content", content ).endObject();
+
+            String expected = "{\"content\":\"say \\\"hi\\\"\\n\\\\ \\t\\r\\b\\f\\u0001 \u00e9 \u20ac \ud83d\ude00\"}";
+            assertTrue( Arrays.equals( expected.getBytes( StandardCharsets.UTF_8 ), json.toByteArray() ) );
+            assertEquals( content, JsonParser.parseObject( json.toString() ).getString( "content" ) );
+        }
+    }
+
+    public void testNullStringIsWrittenEmpty()
+    {
+        try ( JsonWriter json = JsonWriter.obtain() )
+        {
+            json.beginObject().field( "name", (String) null ).endObject();
+            assertEquals( "{\"name\":\"\"}", json.toString() );
+        }
+    }
+
+    public void testPooledWriterStartsEmptyAndGrows()
+    {
+        StringBuilder big = new StringBuilder();
+        for ( int i = 0; i < 10000; i++ )
+        {
+            big.append( 'x' );
+        }
+        JsonWriter first = JsonWriter.obtain();
+        first.beginObject().field( "content", big.toString() ).endObject();
+        assertEquals( 10000 + 14, first.length() );
+        first.close();
+
+        try ( JsonWriter json = JsonWriter.obtain() )
+        {
+            json.beginObject().endObject();
+            assertEquals( "{}", json.toString() );
+        }
+    }
+
+    public void testStreamingWriterDrainsInsteadOfGrowing()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] chunks = { 0 };
+        String expected;
+        try ( JsonWriter json = JsonWriter.obtain() )
+        {
+            int capacity = json.buffer().length;
+            json.streamTo( ( bytes, offset, length ) -> {
+                chunks[0]++;
+                out.write( bytes, offset, length );
+            } );
+            StringBuilder sb = new StringBuilder( "[" );
+            json.beginArray();
+            for ( int i = 0; i < 3000; i++ )
+            {
+                json.value( "row " + i );
+                sb.append( i == 0 ? "" : "," ).append( "\"row " ).append( i ).append( '"' );
+            }
+            json.endArray();
+            expected = sb.append( ']' ).toString();
+            assertEquals( capacity, json.buffer().length );
+            out.write( json.buffer(), 0, json.length() );
+        }
+        assertTrue( chunks[0] > 1 );
+        assertEquals( expected, new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for group-committed message inserts.
+ */
+public class MessageBatcherTest
+    extends TestCase
+{
+    private TestDatabase db;
+
+    public MessageBatcherTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MessageBatcherTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException, SQLException
+    {
+        db = new TestDatabase( "chat-batcher-" );
+        // Messages refer to an existing sender and conversation
+        for ( String suffix : new String[] { "", "0", "1", "2", "3", "4", "5", "6", "7" } )
+        {
+            db.users( "u" + suffix );
+            db.conversations( "c" + suffix );
+        }
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        Message.initialize( null );
+        db.close();
+    }
+
+    public void testConcurrentSavesShareTransactions() throws Exception
+    {
+        MessageBatcher batcher = new MessageBatcher( db.get(), 64, 20, MessageBatcher.Durability.COMMIT, 1024 );
+        Message.initialize( db.get(), batcher );
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> senders = new ArrayList<>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            int sender = t;
+            senders.add( new Thread( () -> {
+                try
+                {
+                    for ( int i = 0; i < 25; i++ )
+                    {
+                        new Message( "c" + sender, "u" + sender, "m" + i ).save();
+                    }
+                }
+                catch ( Throwable e )
+                {
+                    failure.set( e );
+                }
+            } ) );
+        }
+        senders.forEach( Thread::start );
+        for ( Thread t : senders )
+        {
+            t.join();
+        }
+        batcher.close();
+
+        assertNull( failure.get() );
+        assertEquals( 25, Message.findByConversationId( "c3" ).size() );
+        String stats = batcher.stats();
+        assertTrue( stats, stats.contains( " messages=200 " ) );
+        assertFalse( stats, stats.contains( " batches=200 " ) );
+    }
+
+    public void testEnqueueModeCommitsOnClose() throws SQLException
+    {
+        MessageBatcher batcher = new MessageBatcher( db.get(), 16, 1000, MessageBatcher.Durability.ENQUEUE, 1024 );
+        Message.initialize( db.get(), batcher );
+        for ( int i = 0; i < 40; i++ )
+        {
+            new Message( "c", "u", "m" + i ).save();
+        }
+        batcher.close();
+
+        assertEquals( 0, batcher.getQueued() );
+        assertEquals( 40, Message.findByConversationId( "c" ).size() );
+    }
+
+    public void testSaveAfterCloseWritesDirectly() throws SQLException
+    {
+        MessageBatcher batcher = new MessageBatcher( db.get(), 16, 0, MessageBatcher.Durability.COMMIT, 1024 );
+        Message.initialize( db.get(), batcher );
+        batcher.close();
+
+        new Message( "c", "u", "late" ).save();
+
+        assertEquals( "late", Message.findByConversationId( "c" ).get( 0 ).getContent() );
+    }
+
+    public void testForwardPollSeesMessagesCommittedOutOfOrder() throws Exception
+    {
+        MessageBatcher batcher = new MessageBatcher( db.get(), 8, 1, MessageBatcher.Durability.COMMIT, 1024 );
+        Message.initialize( db.get(), batcher );
+
+        // Created in one order, committed in the other, with a poll in between
+        Message first = new Message( "c", "u", "created first" );
+        Message second = new Message( "c", "u", "created second" );
+        second.save();
+        String cursor = Message.findPage( "c", 10, null, null ).getPrevCursor();
+        first.save();
+        assertEquals( "created first", Message.findPage( "c", 10, null, cursor ).getMessages().get( 0 ).getContent() );
+
+        // Many senders, and a client polling forward while they save
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> senders = new ArrayList<>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            senders.add( new Thread( () -> {
+                try
+                {
+                    for ( int i = 0; i < 25; i++ )
+                    {
+                        new Message( "c0", "u", "m" ).save();
+                    }
+                }
+                catch ( Throwable e )
+                {
+                    failure.set( e );
+                }
+            } ) );
+        }
+        new Message( "c0", "u", "before" ).save();
+        String after = Message.findPage( "c0", 10, null, null ).getPrevCursor();
+        senders.forEach( Thread::start );
+        Set<String> seen = new HashSet<>();
+        boolean sending = true;
+        while ( sending )
+        {
+            sending = senders.stream().anyMatch( Thread::isAlive );
+            Message.Page page;
+            do
+            {
+                page = Message.findPage( "c0", 50, null, after );
+                for ( Message m : page.getMessages() )
+                {
+                    assertTrue( "seen twice", seen.add( m.getMessageId() ) );
+                }
+                after = page.getNextCursor();
+            }
+            while ( page.hasMore() );
+        }
+        batcher.close();
+
+        assertNull( failure.get() );
+        assertEquals( 200, seen.size() );
+    }
+}
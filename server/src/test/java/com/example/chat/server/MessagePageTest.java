@@ -0,0 +1,151 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for keyset-paginated message history.
+ */
+public class MessagePageTest
+    extends TestCase
+{
+    private TestDatabase db;
+    private long seq = 1;
+
+    public MessagePageTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MessagePageTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException, SQLException
+    {
+        db = new TestDatabase( "chat-page-" );
+        Message.initialize( db.get() );
+        db.users( "u" );
+        db.conversations( "c", "x" );
+        // Groups of ten share a timestamp; the sequence still orders them
+        for ( int i = 0; i < 120; i++ )
+        {
+            insert( String.format( "m%03d", i ), String.format( "2026-01-01T00:00:%02d", i / 10 ) );
+        }
+        insert( "other", "2026-01-01T00:00:05" );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        Message.initialize( null );
+        db.close();
+    }
+
+    public void testWalksBackwardsThroughHistory() throws SQLException
+    {
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        while ( true )
+        {
+            Message.Page page = Message.findPage( "c", 50, cursor, null );
+            pages++;
+            List<String> ids = ids( page );
+            ids.addAll( seen );
+            seen = ids;
+            if ( !page.hasMore() )
+            {
+                break;
+            }
+            cursor = page.getNextCursor();
+        }
+
+        assertEquals( 3, pages );
+        assertEquals( 120, seen.size() );
+        for ( int i = 0; i < 120; i++ )
+        {
+            assertEquals( String.format( "m%03d", i ), seen.get( i ) );
+        }
+    }
+
+    public void testNewestPageIsOldestFirst() throws SQLException
+    {
+        Message.Page page = Message.findPage( "c", 3, null, null );
+        assertEquals( "[m117, m118, m119]", ids( page ).toString() );
+        assertTrue( page.hasMore() );
+    }
+
+    public void testForwardPageFollowsNewMessages() throws SQLException
+    {
+        Message.Page newest = Message.findPage( "c", 10, null, null );
+        Message.Page empty = Message.findPage( "c", 10, null, newest.getPrevCursor() );
+        assertTrue( empty.getMessages().isEmpty() );
+        assertEquals( newest.getPrevCursor(), empty.getNextCursor() );
+
+        insert( "m999", "2026-01-01T00:01:00" );
+        Message.Page next = Message.findPage( "c", 10, null, empty.getNextCursor() );
+        assertEquals( "[m999]", ids( next ).toString() );
+        assertFalse( next.hasMore() );
+    }
+
+    public void testVisitedPageMatchesFoundPage() throws SQLException
+    {
+        Message.Page newest = Message.findPage( "c", 25, null, null );
+        for ( String[] cursors : new String[][] { { null, null }, { newest.getNextCursor(), null }, { null, newest.getPrevCursor() } } )
+        {
+            Message.Page found = Message.findPage( "c", 25, cursors[0], cursors[1] );
+            List<String> visited = new ArrayList<>();
+            Message.Page page = Message.visitPage( "c", 25, cursors[0], cursors[1], m -> visited.add( m.getMessageId() ) );
+            assertEquals( ids( found ), visited );
+            assertTrue( page.getMessages().isEmpty() );
+            assertEquals( found.hasMore(), page.hasMore() );
+            assertEquals( found.getNextCursor(), page.getNextCursor() );
+            assertEquals( found.getPrevCursor(), page.getPrevCursor() );
+        }
+    }
+
+    public void testRejectsBadCursors() throws SQLException
+    {
+        try
+        {
+            Message.findPage( "c", 10, "not a cursor!", null );
+            fail( "malformed cursor accepted" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+        try
+        {
+            Message.findPage( "c", 10, "a", "b" );
+            fail( "both cursors accepted" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    private void insert( String id, String createdAt ) throws SQLException
+    {
+        String conversation = id.equals( "other" ) ? "x" : "c";
+        db.message( seq++, id, conversation, "u", "content " + id, TestDatabase.at( createdAt ) );
+    }
+
+    private static List<String> ids( Message.Page page )
+    {
+        List<String> ids = new ArrayList<>();
+        for ( Message m : page.getMessages() )
+        {
+            ids.add( m.getMessageId() );
+        }
+        return ids;
+    }
+}
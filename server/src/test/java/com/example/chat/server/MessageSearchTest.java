@@ -0,0 +1,143 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for full-text message search.
+ */
+public class MessageSearchTest
+    extends TestCase
+{
+    private TestDatabase db;
+
+    public MessageSearchTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MessageSearchTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException, SQLException
+    {
+        db = new TestDatabase( "chat-search-" );
+        Message.initialize( db.get() );
+        MessageSearch.initialize( db.get() );
+
+        db.users( "me", "a", "b" );
+        db.conversations( "mine", "team", "theirs" );
+        db.join( "mine", "me", "a" );
+        db.join( "team", "me", "a", "b" );
+        db.join( "theirs", "a", "b" );
+
+        save( "mine", "a", "The deploy is done" );
+        save( "team", "b", "deploy deploy deploy, all of it" );
+        save( "team", "me", "lunch?" );
+        save( "theirs", "a", "secret deploy plans" );
+        save( "mine", "me", "Caf\u00e9 at noon" );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        Message.initialize( null );
+        MessageSearch.initialize( null );
+        db.close();
+    }
+
+    public void testFindsOnlyTheSearchersConversationsBestFirst() throws SQLException
+    {
+        List<MessageSearch.Hit> hits = new ArrayList<>();
+        assertNull( MessageSearch.visit( "me", "deploy", null, 10, null, hits::add ) );
+
+        assertEquals( 2, hits.size() );
+        assertEquals( "deploy deploy deploy, all of it", hits.get( 0 ).getMessage().getContent() );
+        assertEquals( "team", hits.get( 0 ).getMessage().getConversationId() );
+        assertEquals( "b", hits.get( 0 ).getMessage().getSenderId() );
+        assertEquals( "The [deploy] is done", hits.get( 1 ).getSnippet() );
+    }
+
+    public void testNarrowsToOneConversation() throws SQLException
+    {
+        assertEquals( 1, contents( "me", "deploy", "mine" ).size() );
+        assertEquals( 0, contents( "me", "deploy", "theirs" ).size() );
+    }
+
+    public void testMatchesPrefixesAndIgnoresAccents() throws SQLException
+    {
+        assertEquals( 2, contents( "me", "depl", null ).size() );
+        assertEquals( 1, contents( "me", "cafe NOON", null ).size() );
+        assertEquals( 1, contents( "me", "cafe", null ).size() );
+        assertEquals( 0, contents( "me", "deploy lunch", null ).size() );
+    }
+
+    public void testQuerySyntaxIsTakenAsText() throws SQLException
+    {
+        assertEquals( 1, contents( "me", "lunch?", null ).size() );
+        assertEquals( 0, contents( "me", "\"deploy OR NOT (", null ).size() );
+        assertEquals( 0, contents( "me", "*", null ).size() );
+        try
+        {
+            contents( "me", "   ", null );
+            fail( "blank query accepted" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    public void testPagesThroughResults() throws SQLException
+    {
+        for ( int i = 0; i < 5; i++ )
+        {
+            save( "team", "a", "standup notes " + i );
+        }
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do
+        {
+            cursor = MessageSearch.visit( "me", "standup", null, 2, cursor, hit -> seen.add( hit.getMessage().getContent() ) );
+            pages++;
+        }
+        while ( cursor != null );
+        assertEquals( 3, pages );
+        assertEquals( 5, seen.size() );
+        // Equal ranks: newest first
+        assertEquals( "standup notes 4", seen.get( 0 ) );
+        assertEquals( "standup notes 0", seen.get( 4 ) );
+    }
+
+    public void testIndexFollowsUpdatesAndDeletes() throws SQLException
+    {
+        db.sql( "UPDATE MESSAGES SET content = 'rollback done' WHERE content = 'The deploy is done'" );
+        db.sql( "DELETE FROM MESSAGES WHERE content = 'lunch?'" );
+
+        assertEquals( 1, contents( "me", "deploy", null ).size() );
+        assertEquals( 1, contents( "me", "rollback", null ).size() );
+        assertEquals( 0, contents( "me", "lunch", null ).size() );
+    }
+
+    private List<String> contents( String userId, String query, String conversationId ) throws SQLException
+    {
+        List<String> contents = new ArrayList<>();
+        MessageSearch.visit( userId, query, conversationId, MessageSearch.MAX_LIMIT, null,
+            hit -> contents.add( hit.getMessage().getContent() ) );
+        return contents;
+    }
+
+    private static void save( String conversationId, String senderId, String content ) throws SQLException
+    {
+        new Message( conversationId, senderId, content ).save();
+    }
+}
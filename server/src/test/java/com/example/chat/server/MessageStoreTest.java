@@ -0,0 +1,250 @@
+package com.example.chat.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the message stores that do not use SQLite.
+ */
+public class MessageStoreTest
+    extends TestCase
+{
+    private File dir;
+
+    public MessageStoreTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MessageStoreTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory( "chat-log-" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        Message.initialize( null );
+        delete( dir );
+    }
+
+    public void testMemoryStorePagesLikeTheDatabase() throws SQLException
+    {
+        Message.initializeStore( new MemoryMessageStore() );
+        for ( int i = 0; i < 25; i++ )
+        {
+            new Message( "c", "u", "m" + i ).save();
+        }
+        new Message( "other", "u", "elsewhere" ).save();
+
+        Message.Page newest = Message.findPage( "c", 10, null, null );
+        assertEquals( contents( 15, 25 ), contents( newest ) );
+        assertTrue( newest.hasMore() );
+
+        Message.Page older = Message.findPage( "c", 10, newest.getNextCursor(), null );
+        assertEquals( contents( 5, 15 ), contents( older ) );
+        Message.Page oldest = Message.findPage( "c", 10, older.getNextCursor(), null );
+        assertEquals( contents( 0, 5 ), contents( oldest ) );
+        assertFalse( oldest.hasMore() );
+
+        Message.Page forward = Message.findPage( "c", 10, null, oldest.getPrevCursor() );
+        assertEquals( contents( 5, 15 ), contents( forward ) );
+        assertTrue( forward.hasMore() );
+
+        assertEquals( 25, Message.findByConversationId( "c" ).size() );
+        assertEquals( "m24", Message.getStore().findLatest( "c" ).getContent() );
+        assertNull( Message.getStore().findLatest( "none" ) );
+    }
+
+    public void testLogIsReadBackAfterRestart() throws Exception
+    {
+        MessageLogStore log = new MessageLogStore( dir, 256 );
+        List<Message> saved = new ArrayList<>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            Message m = new Message( i % 2 == 0 ? "even" : "odd", "u" + i, "message \u00e9 " + i );
+            log.save( m );
+            saved.add( m );
+        }
+        log.close();
+        assertTrue( "segments rolled", segments( dir ).size() > 2 );
+
+        MessageLogStore reopened = new MessageLogStore( dir, 256 );
+        List<Message> even = reopened.findByConversationId( "even" );
+        assertEquals( 10, even.size() );
+        for ( int i = 0; i < 10; i++ )
+        {
+            Message expected = saved.get( 2 * i );
+            Message actual = even.get( i );
+            assertEquals( expected.getSeq(), actual.getSeq() );
+            assertEquals( expected.getMessageId(), actual.getMessageId() );
+            assertEquals( expected.getSenderId(), actual.getSenderId() );
+            assertEquals( expected.getContent(), actual.getContent() );
+            assertEquals( expected.getCreatedAt(), actual.getCreatedAt() );
+        }
+        assertEquals( saved.get( 19 ).getSeq(), reopened.lastSeq() );
+        reopened.close();
+    }
+
+    public void testDamagedRecordAtTheEndIsDropped() throws Exception
+    {
+        MessageLogStore log = new MessageLogStore( dir, MessageLogStore.DEFAULT_SEGMENT_BYTES, 1, 4 );
+        log.save( new Message( "c", "u", "kept" ) );
+        log.save( new Message( "c", "u", "torn" ) );
+        log.close();
+
+        // Damage the last record's content, as a write cut short would
+        File segment = segments( dir ).get( 0 );
+        byte[] bytes = Files.readAllBytes( segment.toPath() );
+        int at = new String( bytes, StandardCharsets.ISO_8859_1 ).indexOf( "torn" );
+        try ( RandomAccessFile file = new RandomAccessFile( segment, "rw" ) )
+        {
+            file.seek( at );
+            file.write( 'T' );
+        }
+
+        MessageLogStore reopened = new MessageLogStore( dir, MessageLogStore.DEFAULT_SEGMENT_BYTES, 1, 4 );
+        assertEquals( 1, reopened.findByConversationId( "c" ).size() );
+        // Appends continue after the last whole record
+        reopened.save( new Message( "c", "u", "after" ) );
+        reopened.close();
+        MessageLogStore again = new MessageLogStore( dir, MessageLogStore.DEFAULT_SEGMENT_BYTES, 1, 4 );
+        List<Message> messages = again.findByConversationId( "c" );
+        again.close();
+        assertEquals( 2, messages.size() );
+        assertEquals( "kept", messages.get( 0 ).getContent() );
+        assertEquals( "after", messages.get( 1 ).getContent() );
+    }
+
+    public void testLogPagesLikeMemoryAcrossSegmentsAndIndexEntries() throws Exception
+    {
+        MemoryMessageStore memory = new MemoryMessageStore();
+        // Two partitions, so conversations share segments, and an index
+        // entry every third message, so pages start between entries
+        MessageLogStore log = new MessageLogStore( dir, 1024, 2, 3 );
+        for ( int i = 0; i < 200; i++ )
+        {
+            Message m = new Message( "c" + ( i % 5 ), "u", "m" + i );
+            memory.save( m );
+            log.save( m );
+        }
+        assertTrue( "segments rolled", segments( dir ).size() > 4 );
+
+        for ( String conversation : new String[] { "c0", "c3", "none" } )
+        {
+            assertEquals( pages( memory, conversation ), pages( log, conversation ) );
+            assertEquals( memory.findLatest( conversation ) == null, log.findLatest( conversation ) == null );
+        }
+        assertEquals( memory.lastSeq(), log.lastSeq() );
+        log.close();
+
+        MessageLogStore reopened = new MessageLogStore( dir, 1024, 2, 3 );
+        assertEquals( pages( memory, "c4" ), pages( reopened, "c4" ) );
+        reopened.close();
+    }
+
+    public void testMessagesAreAppendedInSequenceOrder() throws Exception
+    {
+        MessageLogStore log = new MessageLogStore( dir, MessageLogStore.DEFAULT_SEGMENT_BYTES );
+        Message first = new Message( "c", "u", "created first" );
+        Message second = new Message( "c", "u", "created second" );
+        log.save( second );
+        log.save( first );
+
+        List<Message> messages = log.findByConversationId( "c" );
+        assertEquals( "created second", messages.get( 0 ).getContent() );
+        assertEquals( "created first", messages.get( 1 ).getContent() );
+        assertTrue( first.getSeq() > second.getSeq() );
+        log.close();
+    }
+
+    /**
+     * Every page of a conversation, walked backwards and then forwards.
+     */
+    private static List<String> pages( MessageStore store, String conversationId ) throws SQLException
+    {
+        Message.initializeStore( store );
+        List<String> pages = new ArrayList<>();
+        String cursor = null;
+        Message.Page page;
+        do
+        {
+            page = Message.findPage( conversationId, 7, cursor, null );
+            pages.add( contents( page ) + " more=" + page.hasMore() );
+            cursor = page.getNextCursor();
+        }
+        while ( page.hasMore() );
+        cursor = page.getPrevCursor();
+        while ( cursor != null )
+        {
+            page = Message.findPage( conversationId, 7, null, cursor );
+            pages.add( contents( page ) + " more=" + page.hasMore() );
+            cursor = page.hasMore() ? page.getNextCursor() : null;
+        }
+        return pages;
+    }
+
+    private static List<File> segments( File dir )
+    {
+        List<File> segments = new ArrayList<>();
+        File[] files = dir.listFiles();
+        for ( File f : files == null ? new File[0] : files )
+        {
+            if ( f.isDirectory() )
+            {
+                segments.addAll( segments( f ) );
+            }
+            else
+            {
+                segments.add( f );
+            }
+        }
+        return segments;
+    }
+
+    private static void delete( File file )
+    {
+        File[] files = file.listFiles();
+        for ( File f : files == null ? new File[0] : files )
+        {
+            delete( f );
+        }
+        file.delete();
+    }
+
+    private static List<String> contents( int from, int to )
+    {
+        List<String> contents = new ArrayList<>();
+        for ( int i = from; i < to; i++ )
+        {
+            contents.add( "m" + i );
+        }
+        return contents;
+    }
+
+    private static List<String> contents( Message.Page page )
+    {
+        List<String> contents = new ArrayList<>();
+        for ( Message m : page.getMessages() )
+        {
+            contents.add( m.getContent() );
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.chat.server;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the slow-consumer policies of OutboundQueue.
+ */
+public class OutboundQueueTest
+    extends TestCase
+{
+    public OutboundQueueTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( OutboundQueueTest.class );
+    }
+
+    public void testDisconnectPolicyOverflowsWhenFull()
+    {
+        OutboundQueue queue = new OutboundQueue( 2, OutboundQueue.Policy.DISCONNECT );
+        assertEquals( OutboundQueue.Result.QUEUED, queue.offer( OutboundFrame.message( "1" ) ) );
+        assertEquals( OutboundQueue.Result.QUEUED, queue.offer( OutboundFrame.presence( "2", "u" ) ) );
+        assertEquals( OutboundQueue.Result.OVERFLOW, queue.offer( OutboundFrame.message( "3" ) ) );
+        assertEquals( 2, queue.getHighWaterMark() );
+    }
+
+    public void testPresenceIsDroppedBeforeMessages()
+    {
+        OutboundQueue queue = new OutboundQueue( 2, OutboundQueue.Policy.DROP_PRESENCE );
+        queue.offer( OutboundFrame.presence( "p", "u" ) );
+        queue.offer( OutboundFrame.message( "m1" ) );
+
+        // The queued presence update makes room for the newer one
+        assertEquals( OutboundQueue.Result.QUEUED, queue.offer( OutboundFrame.presence( "p2", "v" ) ) );
+        assertEquals( OutboundQueue.Result.QUEUED, queue.offer( OutboundFrame.message( "m2" ) ) );
+        assertEquals( "m1", queue.poll().getJson() );
+        assertEquals( "m2", queue.poll().getJson() );
+        assertNull( queue.poll() );
+    }
+
+    public void testIncomingPresenceIsDroppedWhenNoneIsQueued()
+    {
+        OutboundQueue queue = new OutboundQueue( 1, OutboundQueue.Policy.DROP_PRESENCE );
+        queue.offer( OutboundFrame.message( "m1" ) );
+
+        assertEquals( OutboundQueue.Result.DROPPED, queue.offer( OutboundFrame.presence( "p", "u" ) ) );
+        assertEquals( "m1", queue.poll().getJson() );
+        assertNull( queue.poll() );
+    }
+
+    public void testOverflowWhenNothingIsDroppable()
+    {
+        OutboundQueue queue = new OutboundQueue( 1, OutboundQueue.Policy.DROP_PRESENCE );
+        queue.offer( OutboundFrame.message( "m1" ) );
+        assertEquals( OutboundQueue.Result.OVERFLOW, queue.offer( OutboundFrame.message( "m2" ) ) );
+    }
+
+    public void testCoalesceReplacesFrameWithSameKey()
+    {
+        OutboundQueue queue = new OutboundQueue( 10, OutboundQueue.Policy.COALESCE );
+        queue.offer( OutboundFrame.presence( "online", "u" ) );
+        queue.offer( OutboundFrame.message( "m" ) );
+        assertEquals( OutboundQueue.Result.COALESCED, queue.offer( OutboundFrame.presence( "offline", "u" ) ) );
+
+        assertEquals( 2, queue.size() );
+        assertEquals( "m", queue.poll().getJson() );
+        assertEquals( "offline", queue.poll().getJson() );
+    }
+}
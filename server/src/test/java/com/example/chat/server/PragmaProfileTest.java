@@ -0,0 +1,91 @@
+package com.example.chat.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the SQLite pragma profiles.
+ */
+public class PragmaProfileTest
+    extends TestCase
+{
+    public PragmaProfileTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PragmaProfileTest.class );
+    }
+
+    public void testLegacyKeepsDriverDefaults()
+    {
+        assertEquals( Collections.emptyList(), PragmaProfile.LEGACY.statements() );
+    }
+
+    public void testBalancedUsesWalWithNormalSync()
+    {
+        assertEquals( Arrays.asList(
+                "PRAGMA busy_timeout = 5000",
+                "PRAGMA journal_mode = WAL",
+                "PRAGMA synchronous = NORMAL",
+                "PRAGMA mmap_size = 268435456",
+                "PRAGMA cache_size = -16384",
+                "PRAGMA temp_store = MEMORY" ),
+            PragmaProfile.BALANCED.statements() );
+    }
+
+    public void testPresetsAreLookedUpIgnoringCase()
+    {
+        assertSame( PragmaProfile.FAST, PragmaProfile.named( "Fast" ) );
+        assertSame( PragmaProfile.DURABLE, PragmaProfile.named( "durable" ) );
+        try
+        {
+            PragmaProfile.named( "turbo" );
+            fail( "unknown profile accepted" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    public void testSystemPropertiesOverrideOneSetting()
+    {
+        System.setProperty( "chat.db.profile", "durable" );
+        System.setProperty( "chat.db.synchronous", "normal" );
+        try
+        {
+            PragmaProfile profile = PragmaProfile.fromSystemProperties();
+            assertEquals( "durable", profile.getName() );
+            assertTrue( profile.statements().contains( "PRAGMA synchronous = NORMAL" ) );
+            assertTrue( profile.statements().contains( "PRAGMA journal_mode = WAL" ) );
+        }
+        finally
+        {
+            System.clearProperty( "chat.db.profile" );
+            System.clearProperty( "chat.db.synchronous" );
+        }
+    }
+
+    public void testRejectsNonKeywordValues()
+    {
+        System.setProperty( "chat.db.journal", "WAL; DROP TABLE USERS" );
+        try
+        {
+            PragmaProfile.fromSystemProperties().statements();
+            fail( "pragma value with punctuation accepted" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+        finally
+        {
+            System.clearProperty( "chat.db.journal" );
+        }
+    }
+}
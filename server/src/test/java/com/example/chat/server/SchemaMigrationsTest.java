@@ -0,0 +1,162 @@
+package com.example.chat.server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the versioned schema migrations.
+ */
+public class SchemaMigrationsTest
+    extends TestCase
+{
+    private Connection conn;
+
+    public SchemaMigrationsTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SchemaMigrationsTest.class );
+    }
+
+    @Override
+    protected void setUp() throws SQLException
+    {
+        conn = DriverManager.getConnection( "jdbc:sqlite::memory:" );
+    }
+
+    @Override
+    protected void tearDown() throws SQLException
+    {
+        conn.close();
+    }
+
+    public void testFreshDatabaseReachesLatestVersion() throws SQLException
+    {
+        assertEquals( SchemaMigrations.MIGRATIONS.size(), SchemaMigrations.migrate( conn ) );
+        assertEquals( SchemaMigrations.latestVersion(), SchemaMigrations.currentVersion( conn ) );
+        assertEquals( 0, SchemaMigrations.migrate( conn ) );
+    }
+
+    public void testAdoptsDatabaseCreatedBeforeMigrations() throws SQLException
+    {
+        try ( Statement stmt = conn.createStatement() )
+        {
+            stmt.execute( "CREATE TABLE MESSAGES (message_id TEXT PRIMARY KEY, conversation_id TEXT NOT NULL,"
+                + " sender_id TEXT NOT NULL, content TEXT NOT NULL, created_at TEXT)" );
+            stmt.execute( "INSERT INTO MESSAGES VALUES ('m1', 'c1', 'u1', 'hello', '2024-01-01T00:00')" );
+        }
+        // Migration 1 adds the tables the old database lacked
+        SchemaMigrations.MIGRATIONS.get( 0 ).step.apply( conn );
+        try ( Statement stmt = conn.createStatement() )
+        {
+            stmt.execute( "INSERT INTO USERS(user_id, username, password_hash, display_name) VALUES ('u1', 'one', '', 'One')" );
+            stmt.execute( "INSERT INTO USERS(user_id, username, password_hash, display_name) VALUES ('u2', 'two', '', 'Two')" );
+            stmt.execute( "INSERT INTO CONVERSATIONS VALUES ('c1', 'Chat', 0, '2024-01-01T00:00')" );
+            stmt.execute( "INSERT INTO CONVERSATION_PARTICIPANTS VALUES ('p1', 'c1', 'u1', '2024-01-01T00:00')" );
+            stmt.execute( "INSERT INTO CONVERSATION_PARTICIPANTS VALUES ('p2', 'c1', 'u2', '2024-01-01T00:00')" );
+            stmt.execute( "INSERT INTO USER_SESSIONS VALUES ('s1', 'u2', 'token', NULL, NULL, '2024-01-02 00:00:00', NULL)" );
+            // Same timestamp as m1 but sorts first by id; and a message whose conversation is gone
+            stmt.execute( "INSERT INTO MESSAGES VALUES ('m0', 'c1', 'u2', 'hi', '2024-01-01T00:00')" );
+            stmt.execute( "INSERT INTO MESSAGES VALUES ('m9', 'gone', 'u1', 'orphan', '2024-01-01T00:00')" );
+        }
+
+        SchemaMigrations.migrate( conn );
+
+        try ( Statement stmt = conn.createStatement();
+              ResultSet rs = stmt.executeQuery( "SELECT m.message_seq, m.message_id, m.content, u.user_id"
+                  + " FROM MESSAGES m JOIN USERS u ON u.user_key = m.sender_key"
+                  + " JOIN CONVERSATIONS c ON c.conversation_key = m.conversation_key"
+                  + " WHERE c.conversation_id = 'c1' ORDER BY m.message_seq" ) )
+        {
+            long local = LocalDateTime.parse( "2024-01-01T00:00" ).atZone( ZoneId.systemDefault() ).toInstant().toEpochMilli();
+            assertTrue( rs.next() );
+            assertEquals( "m0", rs.getString( 2 ) );
+            assertEquals( "u2", rs.getString( 4 ) );
+            long first = rs.getLong( 1 );
+            assertEquals( local, MessageIds.millisOf( first ) );
+            assertTrue( rs.next() );
+            assertEquals( "m1", rs.getString( 2 ) );
+            assertEquals( "hello", rs.getString( 3 ) );
+            assertEquals( first + 1, rs.getLong( 1 ) );
+            assertFalse( rs.next() );
+        }
+        assertEquals( 2, count( "SELECT COUNT(*) FROM MESSAGES" ) );
+        // Messages stored before search existed are indexed by the migration
+        assertEquals( 1, count( "SELECT COUNT(*) FROM MESSAGES_FTS WHERE MESSAGES_FTS MATCH 'hello'" ) );
+        // Both text formats become epoch milliseconds; NULL stays NULL
+        long local = LocalDateTime.parse( "2024-01-01T00:00" ).atZone( ZoneId.systemDefault() ).toInstant().toEpochMilli();
+        assertEquals( 2, count( "SELECT COUNT(*) FROM MESSAGES WHERE created_at = " + local ) );
+        assertEquals( 1, count( "SELECT COUNT(*) FROM CONVERSATIONS WHERE created_at = " + local ) );
+        assertEquals( 1, count( "SELECT COUNT(*) FROM USER_SESSIONS WHERE expires_at = " + ( local + 86400000L )
+            + " AND typeof(expires_at) = 'integer' AND created_at IS NULL" ) );
+        assertEquals( 2, count( "SELECT COUNT(*) FROM CONVERSATION_PARTICIPANTS p JOIN USERS u ON u.user_key = p.user_key"
+            + " JOIN CONVERSATIONS c ON c.conversation_key = p.conversation_key WHERE c.conversation_id = 'c1'" ) );
+        assertEquals( 1, count( "SELECT COUNT(*) FROM USER_SESSIONS s JOIN USERS u ON u.user_key = s.user_key"
+            + " WHERE u.user_id = 'u2' AND s.session_token = 'token'" ) );
+    }
+
+    public void testHistoryQueryUsesIndex() throws SQLException
+    {
+        SchemaMigrations.migrate( conn );
+
+        String page = plan( "SELECT m.* FROM MESSAGES m JOIN CONVERSATIONS c ON c.conversation_key = m.conversation_key"
+            + " WHERE c.conversation_id = 'c' AND m.message_seq < 100 ORDER BY m.message_seq DESC LIMIT 51" );
+        assertTrue( page, page.contains( "idx_messages_conversation_seq" ) );
+        assertFalse( page, page.contains( "TEMP B-TREE" ) );
+        assertTrue( plan( "SELECT conversation_key FROM CONVERSATION_PARTICIPANTS WHERE user_key = 1" )
+            .contains( "idx_participants_user_conversation" ) );
+        assertTrue( plan( "SELECT session_key FROM USER_SESSIONS WHERE expires_at <= 1" )
+            .contains( "idx_sessions_expires" ) );
+    }
+
+    public void testRejectsNewerDatabase() throws SQLException
+    {
+        try ( Statement stmt = conn.createStatement() )
+        {
+            stmt.execute( "PRAGMA user_version = " + ( SchemaMigrations.latestVersion() + 1 ) );
+        }
+        try
+        {
+            SchemaMigrations.migrate( conn );
+            fail( "migrated a database from a newer server" );
+        }
+        catch ( SQLException expected )
+        {
+        }
+    }
+
+    private int count( String sql ) throws SQLException
+    {
+        try ( Statement stmt = conn.createStatement();
+              ResultSet rs = stmt.executeQuery( sql ) )
+        {
+            return rs.next() ? rs.getInt( 1 ) : 0;
+        }
+    }
+
+    private String plan( String sql ) throws SQLException
+    {
+        StringBuilder sb = new StringBuilder();
+        try ( Statement stmt = conn.createStatement();
+              ResultSet rs = stmt.executeQuery( "EXPLAIN QUERY PLAN " + sql ) )
+        {
+            while ( rs.next() )
+            {
+                sb.append( rs.getString( "detail" ) ).append( '\n' );
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.chat.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message insert and history read throughput under each SQLite pragma profile.
+ *
+ * Not a unit test; run it with {@code make bench-db}, optionally naming the
+ * profiles to compare (e.g. {@code make bench-db PROFILES="legacy balanced"}).
+ * Each profile gets a fresh database file in the temp directory. Two phases:
+ * <ol>
+ * <li>inserts: bench.messages Message.save() calls, one transaction each</li>
+ * <li>batched: the same number of saves group-committed by a
+ *     {@link MessageBatcher} in enqueue mode, timed until all are committed</li>
+ * <li>mixed: bench.readers threads load conversation histories while one
+ *     thread keeps saving messages, for bench.mixed.millis</li>
+ * </ol>
+ */
+public class StorageBenchmark
+{
+    private static final int MESSAGES = Integer.getInteger( "bench.messages", 2000 );
+    private static final int READERS = Integer.getInteger( "bench.readers", 4 );
+    private static final long MIXED_MILLIS = Long.getLong( "bench.mixed.millis", 3000L );
+    private static final int CONVERSATIONS = 20;
+
+    public static void main( String[] args ) throws Exception
+    {
+        String[] profiles = args.length > 0 ? args : new String[] { "legacy", "durable", "balanced", "fast" };
+        PrintStream out = System.out;
+        out.printf( "%d inserts, then %d readers + 1 writer for %d ms%n%n", MESSAGES, READERS, MIXED_MILLIS );
+        out.printf( "%-10s %12s %12s %14s %14s%n", "profile", "inserts/s", "batched/s", "mixed reads/s",
+            "mixed writes/s" );
+        for ( String name : profiles )
+        {
+            PragmaProfile profile = PragmaProfile.named( name );
+            // The model classes log every statement; keep the table readable
+            System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+            double[] result;
+            try
+            {
+                result = run( profile );
+            }
+            finally
+            {
+                System.setOut( out );
+            }
+            out.printf( "%-10s %12.0f %12.0f %14.0f %14.0f%n", name, result[0], result[1], result[2], result[3] );
+        }
+    }
+
+    private static double[] run( PragmaProfile profile ) throws Exception
+    {
+        File file = File.createTempFile( "chat-bench-", ".db" );
+        SQLiteDatabase db = new SQLiteDatabase( "jdbc:sqlite:" + file.getPath(), READERS, profile );
+        Message.initialize( db );
+        try
+        {
+            seed( db );
+            long start = System.nanoTime();
+            for ( int i = 0; i < MESSAGES; i++ )
+            {
+                save( i );
+            }
+            double insertsPerSecond = MESSAGES / seconds( start );
+
+            MessageBatcher batcher = new MessageBatcher( db, 256, 2, MessageBatcher.Durability.ENQUEUE, 8192 );
+            Message.initialize( db, batcher );
+            start = System.nanoTime();
+            for ( int i = 0; i < MESSAGES; i++ )
+            {
+                save( MESSAGES + i );
+            }
+            batcher.close();
+            double batchedPerSecond = MESSAGES / seconds( start );
+            Message.initialize( db );
+
+            AtomicBoolean stop = new AtomicBoolean( false );
+            AtomicLong reads = new AtomicLong();
+            AtomicLong writes = new AtomicLong();
+            List<Thread> threads = new ArrayList<>();
+            for ( int r = 0; r < READERS; r++ )
+            {
+                int reader = r;
+                threads.add( new Thread( () -> {
+                    for ( int i = reader; !stop.get(); i++ )
+                    {
+                        try
+                        {
+                            Message.findByConversationId( "conversation-" + ( i % CONVERSATIONS ) );
+                            reads.incrementAndGet();
+                        }
+                        catch ( SQLException e )
+                        {
+                            throw new IllegalStateException( e );
+                        }
+                    }
+                } ) );
+            }
+            threads.add( new Thread( () -> {
+                for ( int i = 2 * MESSAGES; !stop.get(); i++ )
+                {
+                    try
+                    {
+                        save( i );
+                        writes.incrementAndGet();
+                    }
+                    catch ( SQLException e )
+                    {
+                        throw new IllegalStateException( e );
+                    }
+                }
+            } ) );
+
+            start = System.nanoTime();
+            threads.forEach( Thread::start );
+            Thread.sleep( MIXED_MILLIS );
+            stop.set( true );
+            for ( Thread t : threads )
+            {
+                t.join();
+            }
+            double elapsed = seconds( start );
+            return new double[] { insertsPerSecond, batchedPerSecond, reads.get() / elapsed, writes.get() / elapsed };
+        }
+        finally
+        {
+            db.close();
+            delete( file );
+        }
+    }
+
+    /**
+     * Messages refer to an existing sender and conversation.
+     */
+    private static void seed( SQLiteDatabase db ) throws SQLException
+    {
+        db.write( conn -> {
+            try ( Statement stmt = conn.createStatement() )
+            {
+                for ( int i = 0; i < 7; i++ )
+                {
+                    stmt.execute( "INSERT INTO USERS(user_id, username, password_hash, display_name)"
+                        + " VALUES('user-" + i + "', 'user-" + i + "', '', 'User " + i + "')" );
+                }
+                for ( int i = 0; i < CONVERSATIONS; i++ )
+                {
+                    stmt.execute( "INSERT INTO CONVERSATIONS(conversation_id) VALUES('conversation-" + i + "')" );
+                }
+            }
+            return null;
+        } );
+    }
+
+    private static void save( int i ) throws SQLException
+    {
+        new Message( "conversation-" + ( i % CONVERSATIONS ), "user-" + ( i % 7 ), "benchmark message " + i ).save();
+    }
+
+    private static double seconds( long startNanos )
+    {
+        return ( System.nanoTime() - startNanos ) / 1e9;
+    }
+
+    private static void delete( File file ) throws IOException
+    {
+        for ( String suffix : new String[] { "", "-wal", "-shm", "-journal" } )
+        {
+            new File( file.getPath() + suffix ).delete();
+        }
+    }
+}
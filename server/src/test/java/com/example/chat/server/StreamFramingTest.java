@@ -0,0 +1,111 @@
+package com.example.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for frames streamed to a blocking connection.
+ */
+public class StreamFramingTest
+    extends TestCase
+{
+    private ByteArrayOutputStream out;
+    private StreamFraming framing;
+
+    public StreamFramingTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( StreamFramingTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        out = new ByteArrayOutputStream();
+        framing = new StreamFraming( new ByteArrayInputStream( new byte[0] ), out );
+    }
+
+    public void testStreamedFrameIsOneLine() throws SQLException
+    {
+        framing.writeStreamed( json -> rows( json, 5000 ) );
+        framing.writeFrame( "{\"type\":\"next\"}" );
+
+        String[] lines = new String( out.toByteArray(), StandardCharsets.UTF_8 ).split( "\n" );
+        assertEquals( 2, lines.length );
+        assertTrue( lines[0].startsWith( "{\"rows\":[0,1,2," ) );
+        assertTrue( lines[0].endsWith( ",4999]}" ) );
+        assertEquals( "{\"type\":\"next\"}", lines[1] );
+    }
+
+    public void testLengthPrefixedFrameIsBuiltWhole() throws SQLException
+    {
+        framing.setMode( Framing.Mode.LENGTH_PREFIXED );
+        framing.writeStreamed( json -> rows( json, 5000 ) );
+
+        ByteBuffer written = ByteBuffer.wrap( out.toByteArray() );
+        int length = written.getInt();
+        assertEquals( written.remaining(), length );
+        String frame = new String( out.toByteArray(), 4, length, StandardCharsets.UTF_8 );
+        assertTrue( frame.endsWith( ",4999]}" ) );
+    }
+
+    public void testFailureBeforeFirstChunkSendsNothing()
+    {
+        try
+        {
+            framing.writeStreamed( json -> {
+                json.beginObject().name( "rows" ).beginArray();
+                throw new SQLException( "boom" );
+            } );
+            fail( "failure swallowed" );
+        }
+        catch ( SQLException expected )
+        {
+        }
+        assertEquals( 0, out.size() );
+    }
+
+    public void testFailureMidStreamClosesTheConnection()
+    {
+        try
+        {
+            framing.writeStreamed( json -> {
+                rows( json, 5000 );
+                throw new SQLException( "boom" );
+            } );
+            fail( "failure swallowed" );
+        }
+        catch ( SQLException expected )
+        {
+        }
+        int partial = out.size();
+        assertTrue( partial > 0 );
+        framing.writeFrame( "{\"type\":\"error\"}" );
+
+        // No newline ends the truncated frame and no error frame follows it
+        assertEquals( partial, out.size() );
+        assertEquals( -1, new String( out.toByteArray(), StandardCharsets.UTF_8 ).indexOf( '\n' ) );
+    }
+
+    private static void rows( JsonWriter json, int count ) throws SQLException
+    {
+        json.beginObject().name( "rows" ).beginArray();
+        for ( int i = 0; i < count; i++ )
+        {
+            json.value( i );
+        }
+        json.endArray().endObject();
+    }
+}
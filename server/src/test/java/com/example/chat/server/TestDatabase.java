@@ -0,0 +1,108 @@
+package com.example.chat.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+
+/**
+ * A throwaway SQLite database in a temp file, with the schema applied, and
+ * helpers for seeding rows straight into its tables.
+ */
+class TestDatabase
+{
+    private final File file;
+    private final SQLiteDatabase db;
+
+    TestDatabase( String prefix ) throws IOException
+    {
+        file = File.createTempFile( prefix, ".db" );
+        db = new SQLiteDatabase( "jdbc:sqlite:" + file.getPath(), 2, PragmaProfile.FAST );
+    }
+
+    SQLiteDatabase get()
+    {
+        return db;
+    }
+
+    /**
+     * Close the database and delete its files, WAL included.
+     */
+    void close()
+    {
+        db.close();
+        for ( String suffix : new String[] { "", "-wal", "-shm" } )
+        {
+            new File( file.getPath() + suffix ).delete();
+        }
+    }
+
+    /**
+     * Add users whose username and display name are their id.
+     */
+    void users( String... userIds ) throws SQLException
+    {
+        for ( String userId : userIds )
+        {
+            sql( "INSERT INTO USERS(user_id, username, password_hash, display_name) VALUES(?, ?, '', ?)",
+                userId, userId, userId );
+        }
+    }
+
+    void conversations( String... conversationIds ) throws SQLException
+    {
+        for ( String conversationId : conversationIds )
+        {
+            sql( "INSERT INTO CONVERSATIONS(conversation_id) VALUES(?)", conversationId );
+        }
+    }
+
+    void join( String conversationId, String... userIds ) throws SQLException
+    {
+        for ( String userId : userIds )
+        {
+            sql( "INSERT INTO CONVERSATION_PARTICIPANTS(participant_id, conversation_key, user_key)"
+                + " VALUES(?, (SELECT conversation_key FROM CONVERSATIONS WHERE conversation_id = ?),"
+                + " (SELECT user_key FROM USERS WHERE user_id = ?))",
+                conversationId + ":" + userId, conversationId, userId );
+        }
+    }
+
+    /**
+     * Insert a message row directly, bypassing the message store.
+     */
+    void message( long seq, String id, String conversationId, String senderId, String content, long createdAt )
+        throws SQLException
+    {
+        sql( "INSERT INTO MESSAGES(message_seq, message_id, conversation_key, sender_key, content, created_at)"
+            + " VALUES(?, ?, (SELECT conversation_key FROM CONVERSATIONS WHERE conversation_id = ?),"
+            + " (SELECT user_key FROM USERS WHERE user_id = ?), ?, ?)",
+            Long.toString( seq ), id, conversationId, senderId, content, Long.toString( createdAt ) );
+    }
+
+    /**
+     * Run one statement on the writer thread.
+     */
+    void sql( String sql, String... args ) throws SQLException
+    {
+        db.write( conn -> {
+            try ( PreparedStatement pstmt = conn.prepareStatement( sql ) )
+            {
+                for ( int i = 0; i < args.length; i++ )
+                {
+                    pstmt.setString( i + 1, args[i] );
+                }
+                return pstmt.executeUpdate();
+            }
+        } );
+    }
+
+    /**
+     * @return Epoch milliseconds of a UTC time like 2026-01-01T00:00:00
+     */
+    static long at( String utc )
+    {
+        return Instant.parse( utc + "Z" ).toEpochMilli();
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for keyset-paginated user lists.
+ */
+public class UserPageTest
+    extends TestCase
+{
+    private TestDatabase db;
+
+    public UserPageTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( UserPageTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException, SQLException
+    {
+        db = new TestDatabase( "chat-users-" );
+        User.initialize( db.get() );
+        db.users( "carol", "alice", "bob", "dave", "erin" );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        User.initialize( null );
+        db.close();
+    }
+
+    public void testPagesInRegistrationOrder() throws SQLException
+    {
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do
+        {
+            cursor = User.visitPage( 2, cursor, user -> seen.add( user.getUserId() ) );
+            pages++;
+        }
+        while ( cursor != null );
+        assertEquals( 3, pages );
+        assertEquals( Arrays.asList( "carol", "alice", "bob", "dave", "erin" ), seen );
+    }
+
+    public void testUserAddedLaterIsOnTheLastPage() throws SQLException
+    {
+        List<String> seen = new ArrayList<>();
+        String cursor = User.visitPage( 4, null, user -> seen.add( user.getUserId() ) );
+        db.users( "frank" );
+        assertNull( User.visitPage( 4, cursor, user -> seen.add( user.getUserId() ) ) );
+        assertEquals( Arrays.asList( "carol", "alice", "bob", "dave", "erin", "frank" ), seen );
+    }
+
+    public void testExactPageHasNoCursor() throws SQLException
+    {
+        assertNull( User.visitPage( 5, null, user -> { } ) );
+    }
+
+    public void testRejectsMalformedCursor() throws SQLException
+    {
+        try
+        {
+            User.visitPage( 2, "?!", user -> { } );
+            fail( "malformed cursor accepted" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+}